@@ -39,6 +39,15 @@ public class TerrainCutRequestDto {
     @ApiModelProperty("插值类型（nearest-最近邻, bilinear-双线性）默认值：bilinear")
     private String interpolationType;
 
+    @ApiModelProperty("网格引擎（halfedge-半边网格, rtin-直角三角不规则网络，速度快）默认值：halfedge")
+    private String meshEngine;
+
+    @ApiModelProperty("输出格式（quantized-mesh-量化网格, heightmap-Cesium 高程图, terrain-rgb-Mapbox Terrain-RGB 图片）默认值：quantized-mesh")
+    private String outputFormat;
+
+    @ApiModelProperty("Terrain-RGB 瓦片的像素大小（256 或 512）默认值：256")
+    private Integer terrainRgbTileSize;
+
     @ApiModelProperty("地形数据的无数据值 默认值：-9999")
     private Integer nodataValue;
 
@@ -51,6 +60,24 @@ public class TerrainCutRequestDto {
     @ApiModelProperty("是否继续生成，适合与中途中断的场景，默认不继续")
     private boolean isContinue;
 
+    @ApiModelProperty("是否区域增量更新：使用新的 GeoTIFF 只更新输出路径下已有瓦片集中受影响的瓦片，默认不更新")
+    private boolean isUpdate;
+
+    @ApiModelProperty("是否压缩临时瓦片文件，减少磁盘占用，默认不压缩")
+    private boolean compressTemp;
+
+    @ApiModelProperty("瓦片 metadata 扩展中包含的子瓦片可用性层级数（metadataAvailability），0 表示不写入 metadata 扩展，默认值：0")
+    private Integer metadataAvailability;
+
+    @ApiModelProperty("是否写入 watermask 扩展（陆地/水体掩码，由栅格无数据区域生成），默认不写入")
+    private boolean waterMask;
+
+    @ApiModelProperty("是否在量化网格瓦片的边缘添加向下的裙边以遮挡瓦片间的裂缝，默认不添加")
+    private boolean skirt;
+
+    @ApiModelProperty("裙边高度（米），为空或小于等于 0 时按瓦片层级自动计算（与 Cesium 相同：层级最大几何误差的 5 倍，不超过 1000 米）")
+    private Double skirtHeight;
+
     @ApiModelProperty("成功回调地址(http://[ip]:[port]/{param1}/{param1}/......)")
     private String backSuccessUrl;
 
@@ -129,6 +156,30 @@ public class TerrainCutRequestDto {
         this.interpolationType = interpolationType;
     }
 
+    public String getMeshEngine() {
+        return meshEngine;
+    }
+
+    public void setMeshEngine(String meshEngine) {
+        this.meshEngine = meshEngine;
+    }
+
+    public String getOutputFormat() {
+        return outputFormat;
+    }
+
+    public void setOutputFormat(String outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    public Integer getTerrainRgbTileSize() {
+        return terrainRgbTileSize;
+    }
+
+    public void setTerrainRgbTileSize(Integer terrainRgbTileSize) {
+        this.terrainRgbTileSize = terrainRgbTileSize;
+    }
+
     public Integer getNodataValue() {
         return nodataValue;
     }
@@ -161,6 +212,54 @@ public class TerrainCutRequestDto {
         isContinue = aContinue;
     }
 
+    public boolean isUpdate() {
+        return isUpdate;
+    }
+
+    public void setUpdate(boolean aUpdate) {
+        isUpdate = aUpdate;
+    }
+
+    public boolean isCompressTemp() {
+        return compressTemp;
+    }
+
+    public void setCompressTemp(boolean compressTemp) {
+        this.compressTemp = compressTemp;
+    }
+
+    public Integer getMetadataAvailability() {
+        return metadataAvailability;
+    }
+
+    public void setMetadataAvailability(Integer metadataAvailability) {
+        this.metadataAvailability = metadataAvailability;
+    }
+
+    public boolean isWaterMask() {
+        return waterMask;
+    }
+
+    public void setWaterMask(boolean waterMask) {
+        this.waterMask = waterMask;
+    }
+
+    public boolean isSkirt() {
+        return skirt;
+    }
+
+    public void setSkirt(boolean skirt) {
+        this.skirt = skirt;
+    }
+
+    public Double getSkirtHeight() {
+        return skirtHeight;
+    }
+
+    public void setSkirtHeight(Double skirtHeight) {
+        this.skirtHeight = skirtHeight;
+    }
+
     public String getWorkspaceGroup() {
         return workspaceGroup;
     }
@@ -233,8 +233,15 @@ public class TerrainCutServiceImpl implements TerrainCutService {
         // 检查是否是从现有瓦片集继续生成瓦片网格，获取相关选项值
         boolean isContinue = globalOptions.isContinue();
         //isContinue = true; // test
-        // 如果是继续生成瓦片网格
-        if (isContinue) {
+        // 如果是区域增量更新（输入路径为新的 GeoTIFF，输出路径为已有的瓦片集）
+        if (globalOptions.isUpdate()) {
+            // 打印开始区域增量更新的日志信息
+            log.info("[瓦片处理] 开始区域增量更新瓦片网格。");
+            // 执行区域增量更新的方法，只重新生成受影响的瓦片
+            tileWgs84Manager.makeTileMeshesUpdate();
+            // 打印完成区域增量更新的日志信息
+            log.info("[瓦片处理] 完成区域增量更新瓦片网格。");
+        } else if (isContinue) {
             // 打印继续生成瓦片网格的日志信息
             log.info("[瓦片处理] 继续生成瓦片网格。");
             // 执行继续生成瓦片网格的方法
@@ -351,6 +358,21 @@ public class TerrainCutServiceImpl implements TerrainCutService {
                 log.error("[后处理] 删除调整大小后的 GeoTiff 临时文件夹失败。", e);
             }
         }
+
+        // 创建高程栅格临时文件夹对象
+        File gridTempFolder = new File(globalOptions.getGridTempPath());
+        // 如果高程栅格临时文件夹存在且是一个目录
+        if (gridTempFolder.exists() && gridTempFolder.isDirectory()) {
+            try {
+                // 打印开始删除高程栅格临时文件夹的日志信息
+                log.info("[后处理] 开始删除高程栅格临时文件夹");
+                // 使用FileUtils删除高程栅格临时文件夹及其内容
+                FileUtils.deleteDirectory(gridTempFolder);
+            } catch (IOException e) {
+                // 捕获删除异常，记录错误日志
+                log.error("[后处理] 删除高程栅格临时文件夹失败。", e);
+            }
+        }
     }
 
     @Override
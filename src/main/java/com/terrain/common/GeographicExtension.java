@@ -102,6 +102,10 @@ public class GeographicExtension {
 
     }
 
+    public boolean overlapsBox(double minLonDeg, double minLatDeg, double maxLonDeg, double maxLatDeg) {
+        return minLonDeg <= maxGeographicCoordDeg.x && maxLonDeg >= minGeographicCoordDeg.x && minLatDeg <= maxGeographicCoordDeg.y && maxLatDeg >= minGeographicCoordDeg.y;
+    }
+
     public boolean intersectsBox(double minLonDeg, double minLatDeg, double maxLonDeg, double maxLatDeg) {
         return minLonDeg >= minGeographicCoordDeg.x && minLonDeg <= maxGeographicCoordDeg.x && minLatDeg >= minGeographicCoordDeg.y && minLatDeg <= maxGeographicCoordDeg.y && maxLonDeg >= minGeographicCoordDeg.x && maxLonDeg <= maxGeographicCoordDeg.x && maxLatDeg >= minGeographicCoordDeg.y && maxLatDeg <= maxGeographicCoordDeg.y;
     }
@@ -2,6 +2,8 @@ package com.terrain.common;
 
 import com.dto.TerrainCutRequestDto;
 import com.terrain.enums.InterpolationType;
+import com.terrain.enums.MeshEngineType;
+import com.terrain.enums.OutputFormatType;
 import com.terrain.enums.PriorityType;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -31,6 +33,12 @@ public class GlobalOptions {
     private static final GlobalOptions instance = new GlobalOptions();
     // 插值类型，默认双线性
     private static final InterpolationType DEFAULT_INTERPOLATION_TYPE = InterpolationType.BILINEAR;
+    // 网格引擎类型，默认半边网格
+    private static final MeshEngineType DEFAULT_MESH_ENGINE_TYPE = MeshEngineType.HALF_EDGE;
+    // 输出格式，默认量化网格
+    private static final OutputFormatType DEFAULT_OUTPUT_FORMAT_TYPE = OutputFormatType.QUANTIZED_MESH;
+    // Terrain-RGB 瓦片像素大小，默认256
+    private static final int DEFAULT_TERRAIN_RGB_TILE_SIZE = 256;
     // 最小层级，默认0，最小0
     private static final int DEFAULT_MINIMUM_TILE_DEPTH = 0;
     // 最大层级，默认14，最大22
@@ -52,6 +60,10 @@ public class GlobalOptions {
      * 是否继续生成的标志位，适用于中途中断后继续生成的场景，默认不继续。
      */
     private boolean isContinue = false;
+    /**
+     * 是否区域增量更新的标志位：使用新的 GeoTIFF 只重新生成已有瓦片集中受影响的瓦片，默认不更新。
+     */
+    private boolean isUpdate = false;
 
     /**
      * 程序的基本信息，包含程序名称、版本号和供应商信息。
@@ -67,6 +79,30 @@ public class GlobalOptions {
      */
     private boolean leaveTemp = false;
 
+    /**
+     * 是否压缩临时瓦片文件（.til）的标志位，默认不压缩。压缩可减少磁盘占用，但会增加 CPU 开销。
+     */
+    private boolean compressTemp = false;
+    /**
+     * 瓦片 metadata 扩展中包含的子瓦片可用性层级数（layer.json 的 metadataAvailability），0 表示不写入 metadata 扩展。
+     * 层级为该值整数倍的瓦片包含其后续层级的子瓦片可用性，客户端按需获取可用性，无需读取完整的 available 数组。
+     */
+    private int metadataAvailability = 0;
+    /**
+     * 是否写入 watermask 扩展的标志位，默认不写入。
+     * 掩码由瓦片栅格的无数据区域生成（无数据为水体，有数据为陆地），全陆地或全水体的瓦片只写入 1 个字节。
+     */
+    private boolean waterMask = false;
+    /**
+     * 是否在量化网格瓦片的边缘添加向下裙边的标志位，默认不添加。
+     * 裙边在编码量化网格时沿四条边的顶点生成，用于遮挡独立生成的相邻瓦片（如 RTIN 引擎）之间的裂缝。
+     */
+    private boolean skirt = false;
+    /**
+     * 裙边高度，单位为米，0 表示按瓦片层级自动计算。
+     */
+    private double skirtHeight = 0.0;
+
     /**
      * 程序的开始时间，单位为毫秒。
      */
@@ -110,6 +146,10 @@ public class GlobalOptions {
      * 瓦片处理时临时文件的存储路径。
      */
     private String tileTempPath;
+    /**
+     * 高程栅格（float32 内存映射格式）临时文件的存储路径。
+     */
+    private String gridTempPath;
 
     /**
      * 日志文件的存储路径。
@@ -135,6 +175,18 @@ public class GlobalOptions {
      * 瓦片处理的优先级类型。
      */
     private PriorityType priorityType;
+    /**
+     * 生成瓦片网格的引擎类型，默认为半边网格引擎。
+     */
+    private MeshEngineType meshEngineType;
+    /**
+     * 地形瓦片的输出格式，默认为量化网格。高程图与 Terrain-RGB 格式直接由高程网格生成，不进行网格细化。
+     */
+    private OutputFormatType outputFormatType;
+    /**
+     * Terrain-RGB 瓦片的像素大小（256 或 512）。
+     */
+    private int terrainRgbTileSize;
 
     /**
      * 网格细化强度，范围为 1.0 到 16.0，强度越大，地形越平滑。
@@ -176,6 +228,8 @@ public class GlobalOptions {
             instance.setResizedTiffTempPath(outputPath + File.separator + "resized");
             // 设置瓦片处理时临时文件的存储路径，在输出路径下创建 temp 文件夹
             instance.setTileTempPath(outputPath + File.separator + "temp");
+            // 设置高程栅格临时文件的存储路径，在输出路径下创建 grid 文件夹
+            instance.setGridTempPath(outputPath + File.separator + "grid");
             // 设置分割 TIFF 文件后临时文件的存储路径，在输出路径下创建 split 文件夹
             instance.setSplitTiffTempPath(outputPath + File.separator + "split");
             // 设置标准化处理时临时文件的存储路径，在输出路径下创建 standardization 文件夹
@@ -188,6 +242,13 @@ public class GlobalOptions {
         // 设置是否继续生成
         instance.setContinue(terrainCutRequestDto.isContinue());
 
+        // 设置是否区域增量更新
+        instance.setUpdate(terrainCutRequestDto.isUpdate());
+        // 区域增量更新需要输出路径下已有的瓦片集
+        if (instance.isUpdate() && !new File(outputPath, "layer.json").isFile()) {
+            throw new IllegalArgumentException("区域增量更新需要已有的瓦片集，输出路径下不存在 layer.json");
+        }
+
         // 设置最大瓦片深度
         Integer maxZoom = terrainCutRequestDto.getMaxZoom();
         // 判断最大瓦片深度是否为空，如果为空则设置默认值, 最大瓦片深度必须在0到22之间
@@ -239,6 +300,18 @@ public class GlobalOptions {
             instance.setInterpolationType(DEFAULT_INTERPOLATION_TYPE);
         }
 
+        // 设置网格引擎类型
+        String meshEngine = terrainCutRequestDto.getMeshEngine();
+        instance.setMeshEngineType(StringUtils.hasText(meshEngine) ? MeshEngineType.fromString(meshEngine) : DEFAULT_MESH_ENGINE_TYPE);
+
+        // 设置输出格式
+        String outputFormat = terrainCutRequestDto.getOutputFormat();
+        instance.setOutputFormatType(StringUtils.hasText(outputFormat) ? OutputFormatType.fromString(outputFormat) : DEFAULT_OUTPUT_FORMAT_TYPE);
+
+        // 设置 Terrain-RGB 瓦片像素大小，只支持 256 和 512
+        Integer terrainRgbTileSize = terrainCutRequestDto.getTerrainRgbTileSize();
+        instance.setTerrainRgbTileSize(Objects.nonNull(terrainRgbTileSize) && terrainRgbTileSize == 512 ? 512 : DEFAULT_TERRAIN_RGB_TILE_SIZE);
+
         // 设置优先级类型, 默认为分辨率
         instance.setPriorityType(PriorityType.RESOLUTION);
 
@@ -265,6 +338,21 @@ public class GlobalOptions {
         // 设置是否为地形添加顶点法线以支持光照效果
         instance.setCalculateNormals(terrainCutRequestDto.isCalculateNormals());
 
+        // 设置是否压缩临时瓦片文件
+        instance.setCompressTemp(terrainCutRequestDto.isCompressTemp());
+
+        // 设置 metadata 扩展中的子瓦片可用性层级数，为空或小于等于 0 时不写入 metadata 扩展
+        Integer metadataAvailability = terrainCutRequestDto.getMetadataAvailability();
+        instance.setMetadataAvailability(Objects.nonNull(metadataAvailability) && metadataAvailability > 0 ? metadataAvailability : 0);
+
+        // 设置是否写入 watermask 扩展
+        instance.setWaterMask(terrainCutRequestDto.isWaterMask());
+
+        // 设置裙边，裙边高度为空或小于等于 0 时按瓦片层级自动计算
+        instance.setSkirt(terrainCutRequestDto.isSkirt());
+        Double skirtHeight = terrainCutRequestDto.getSkirtHeight();
+        instance.setSkirtHeight(Objects.nonNull(skirtHeight) && skirtHeight > 0 ? skirtHeight : 0.0);
+
         // 打印全局选项
         printGlobalOptions();
     }
@@ -277,7 +365,13 @@ public class GlobalOptions {
         log.info("强度: " + instance.getIntensity());
         log.info("插值类型: " + instance.getInterpolationType());
         log.info("优先级类型: " + instance.getPriorityType());
+        log.info("网格引擎: " + instance.getMeshEngineType());
+        log.info("输出格式: " + instance.getOutputFormatType());
         log.info("计算法线: " + instance.isCalculateNormals());
+        log.info("区域增量更新: " + instance.isUpdate());
+        log.info("metadata 可用性层级数: " + instance.getMetadataAvailability());
+        log.info("写入水体掩码: " + instance.isWaterMask());
+        log.info("瓦片裙边: " + instance.isSkirt() + (instance.getSkirtHeight() > 0 ? " (" + instance.getSkirtHeight() + " 米)" : ""));
         log.info("----------------------------------------");
         log.info("平铺拼接大小: " + instance.getMosaicSize());
         log.info("平铺最大光栅大小: " + instance.getMaxRasterSize());
@@ -352,6 +446,14 @@ public class GlobalOptions {
         isContinue = aContinue;
     }
 
+    public boolean isUpdate() {
+        return isUpdate;
+    }
+
+    public void setUpdate(boolean aUpdate) {
+        isUpdate = aUpdate;
+    }
+
     public String getProgramInfo() {
         return programInfo;
     }
@@ -376,6 +478,46 @@ public class GlobalOptions {
         this.leaveTemp = leaveTemp;
     }
 
+    public boolean isCompressTemp() {
+        return compressTemp;
+    }
+
+    public void setCompressTemp(boolean compressTemp) {
+        this.compressTemp = compressTemp;
+    }
+
+    public int getMetadataAvailability() {
+        return metadataAvailability;
+    }
+
+    public void setMetadataAvailability(int metadataAvailability) {
+        this.metadataAvailability = metadataAvailability;
+    }
+
+    public boolean isWaterMask() {
+        return waterMask;
+    }
+
+    public void setWaterMask(boolean waterMask) {
+        this.waterMask = waterMask;
+    }
+
+    public boolean isSkirt() {
+        return skirt;
+    }
+
+    public void setSkirt(boolean skirt) {
+        this.skirt = skirt;
+    }
+
+    public double getSkirtHeight() {
+        return skirtHeight;
+    }
+
+    public void setSkirtHeight(double skirtHeight) {
+        this.skirtHeight = skirtHeight;
+    }
+
     public long getStartTime() {
         return startTime;
     }
@@ -456,6 +598,14 @@ public class GlobalOptions {
         this.tileTempPath = tileTempPath;
     }
 
+    public String getGridTempPath() {
+        return gridTempPath;
+    }
+
+    public void setGridTempPath(String gridTempPath) {
+        this.gridTempPath = gridTempPath;
+    }
+
     public String getLogPath() {
         return logPath;
     }
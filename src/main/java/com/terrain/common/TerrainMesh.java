@@ -7,9 +7,11 @@ import com.terrain.geometry.GaiaRectangle;
 import com.terrain.geometry.TileRange;
 import com.terrain.io.BigEndianDataInputStream;
 import com.terrain.io.BigEndianDataOutputStream;
+import com.terrain.io.TerrainMeshCodec;
 import com.terrain.manager.TerrainElevationDataManager;
 import com.terrain.manager.TileIndices;
 import com.utils.FileUtils;
+import com.utils.GlobeUtils;
 import com.utils.TerrainHalfEdgeUtils;
 
 import lombok.Getter;
@@ -17,14 +19,13 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.joml.Vector3d;
+import org.joml.Vector3f;
 import org.opengis.referencing.operation.TransformException;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.*;
+import java.util.stream.IntStream;
 
 @Getter
 @Setter
@@ -375,21 +376,111 @@ public class TerrainMesh {
         triangle.halfEdge = null;
     }
 
+    /**
+     * Calculates the normals of the vertices (normalized sum of the normals of their triangles, in world coordinates).
+     * The normals are calculated in primitive arrays over the triangle indices, in parallel.
+     */
     public void calculateNormals(List<TerrainVertex> listVertices, List<TerrainHalfEdge> listHalfEdges) {
+        setVertexIdInList();
+        int vertexCount = vertices.size();
+
+        // the positions in world coordinates.***
+        double[] positionsWC = new double[vertexCount * 3];
+        IntStream.range(0, vertexCount).parallel().forEach(i -> {
+            Vector3d position = vertices.get(i).getPosition();
+            GlobeUtils.geographicToCartesianWgs84(position.x, position.y, position.z, positionsWC, i * 3);
+        });
+
+        // the triangle indices of the active triangles.***
+        int[] triangleIndices = new int[triangles.size() * 3];
+        int triangleCount = 0;
         for (TerrainTriangle triangle : triangles) {
             if (triangle.getObjectStatus() == TerrainObjectStatus.DELETED) {
                 continue;
             }
             listVertices.clear();
             listHalfEdges.clear();
-            triangle.calculateNormal(listVertices, listHalfEdges);
+            listVertices = triangle.getVertices(listVertices, listHalfEdges);
+            int offset = triangleCount * 3;
+            triangleIndices[offset] = listVertices.get(0).getId();
+            triangleIndices[offset + 1] = listVertices.get(1).getId();
+            triangleIndices[offset + 2] = listVertices.get(2).getId();
+            triangleCount++;
         }
+        listVertices.clear();
+        listHalfEdges.clear();
 
-        for (TerrainVertex vertex : vertices) {
+        float[] triangleNormals = new float[triangleCount * 3];
+        IntStream.range(0, triangleCount).parallel().forEach(i -> calculateTriangleNormal(positionsWC, triangleIndices, i, triangleNormals));
+
+        // the triangles of each vertex (compressed rows), so each vertex sums its normal without synchronization.***
+        int indicesCount = triangleCount * 3;
+        int[] vertexTriangleStarts = new int[vertexCount + 1];
+        for (int i = 0; i < indicesCount; i++) {
+            vertexTriangleStarts[triangleIndices[i] + 1]++;
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            vertexTriangleStarts[i + 1] += vertexTriangleStarts[i];
+        }
+        int[] vertexTriangles = new int[indicesCount];
+        int[] vertexTriangleEnds = Arrays.copyOf(vertexTriangleStarts, vertexCount);
+        for (int i = 0; i < indicesCount; i++) {
+            vertexTriangles[vertexTriangleEnds[triangleIndices[i]]++] = i / 3;
+        }
+
+        IntStream.range(0, vertexCount).parallel().forEach(i -> {
+            TerrainVertex vertex = vertices.get(i);
             if (vertex.getObjectStatus() == TerrainObjectStatus.DELETED) {
-                continue;
+                return;
             }
-            vertex.calculateNormal();
+
+            float x = 0.0f;
+            float y = 0.0f;
+            float z = 0.0f;
+            for (int j = vertexTriangleStarts[i]; j < vertexTriangleStarts[i + 1]; j++) {
+                int offset = vertexTriangles[j] * 3;
+                x += triangleNormals[offset];
+                y += triangleNormals[offset + 1];
+                z += triangleNormals[offset + 2];
+            }
+
+            Vector3f normal = vertex.getNormal();
+            if (normal == null) {
+                normal = new Vector3f();
+                vertex.setNormal(normal);
+            }
+            // if this vertex has no normal, then set default normal
+            if (x == 0.0f && y == 0.0f && z == 0.0f) {
+                log.warn("This vertex has no normal. id : {}", vertex.getId());
+                normal.set(0, 0, 1);
+            } else {
+                normal.set(x, y, z).normalize();
+            }
+        });
+    }
+
+    private static void calculateTriangleNormal(double[] positionsWC, int[] triangleIndices, int triangleIndex, float[] resultNormals) {
+        int offset = triangleIndex * 3;
+        int p0 = triangleIndices[offset] * 3;
+        int p1 = triangleIndices[offset + 1] * 3;
+        int p2 = triangleIndices[offset + 2] * 3;
+
+        double v1x = positionsWC[p1] - positionsWC[p0];
+        double v1y = positionsWC[p1 + 1] - positionsWC[p0 + 1];
+        double v1z = positionsWC[p1 + 2] - positionsWC[p0 + 2];
+        double v2x = positionsWC[p2] - positionsWC[p0];
+        double v2y = positionsWC[p2 + 1] - positionsWC[p0 + 1];
+        double v2z = positionsWC[p2 + 2] - positionsWC[p0 + 2];
+
+        // cross product v1 x v2, normalized.***
+        double nx = v1y * v2z - v1z * v2y;
+        double ny = v1z * v2x - v1x * v2z;
+        double nz = v1x * v2y - v1y * v2x;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length > 0.0) {
+            resultNormals[offset] = (float) (nx / length);
+            resultNormals[offset + 1] = (float) (ny / length);
+            resultNormals[offset + 2] = (float) (nz / length);
         }
     }
 
@@ -413,10 +504,7 @@ public class TerrainMesh {
 
             TileIndices tileIndices = triangle.getOwnerTileIndices();
 
-            midPosition.z = terrainElevationDataManager.getElevationBilinearRasterTile(tileIndices, terrainElevationDataManager.getTileWgs84Manager(), midPosition.x, midPosition.y);
-            if (Double.isNaN(midPosition.z)) {
-                log.info("getElevationBilinear: resultElevation is NaN");
-            }
+            midPosition.z = terrainElevationDataManager.getElevationBilinearRasterTile(tileIndices, terrainElevationDataManager.getTileWgs84Manager(), midPosition.x, midPosition.y, midPosition.z);
             TerrainVertex midVertex = newVertex();
             midVertex.setPosition(midPosition);
 
@@ -525,10 +613,7 @@ public class TerrainMesh {
 
             // now determine the elevation of the midPoint
             TileIndices tileIndices = triangle.getOwnerTileIndices();
-            midPosition.z = terrainElevationDataManager.getElevationBilinearRasterTile(tileIndices, terrainElevationDataManager.getTileWgs84Manager(), midPosition.x, midPosition.y);
-            if (Double.isNaN(midPosition.z)) {
-                log.info("getElevationBilinear: resultElevation is NaN");
-            }
+            midPosition.z = terrainElevationDataManager.getElevationBilinearRasterTile(tileIndices, terrainElevationDataManager.getTileWgs84Manager(), midPosition.x, midPosition.y, midPosition.z);
             midVertex.setPosition(midPosition);
 
             TerrainVertex longEdge_startVertex = longestHEdge.getStartVertex();
@@ -753,14 +838,13 @@ public class TerrainMesh {
         String foldersPath = FileUtils.removeFileNameFromPath(filePath);
         FileUtils.createAllFoldersIfNoExist(foldersPath);
 
-        File file = new File(filePath);
-        Files.deleteIfExists(file.toPath());
-
-        BigEndianDataOutputStream dataOutputStream = new BigEndianDataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
-        // save the tile
-        this.saveDataOutputStream(dataOutputStream);
+        // save the tile (compact little-endian format)
+        TerrainMeshCodec.saveFile(this, new File(filePath).toPath(), GlobalOptions.getInstance().isCompressTemp());
+    }
 
-        dataOutputStream.close();
+    public static TerrainMesh loadFile(String filePath) throws IOException {
+        // reads the compact format, and the old big-endian format too
+        return TerrainMeshCodec.loadFile(new File(filePath).toPath());
     }
 
     public void saveDataOutputStream(BigEndianDataOutputStream dataOutputStream) throws IOException {
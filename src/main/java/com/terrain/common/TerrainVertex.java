@@ -110,8 +110,8 @@ public class TerrainVertex {
             currHalfEdge = nextHalfEdge;
 
             counter++;
-            if (counter > 10) {
-                log.info("Info : This vertex has more than 10 outing halfEdges. id : " + this.id);
+            if (counter > 10 && log.isDebugEnabled()) {
+                log.debug("This vertex has more than 10 outing halfEdges. id : {}", this.id);
             }
         }
 
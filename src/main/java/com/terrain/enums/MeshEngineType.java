@@ -0,0 +1,46 @@
+package com.terrain.enums;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * MeshEngineType 枚举类用于定义生成瓦片网格的引擎类型。
+ */
+@Getter
+@RequiredArgsConstructor
+public enum MeshEngineType {
+    /**
+     * 半边网格引擎。
+     * 根据栅格瓦片迭代细分三角形，并与相邻瓦片合并，精度高但速度较慢。
+     */
+    HALF_EDGE("halfedge"),
+    /**
+     * RTIN 网格引擎（直角三角不规则网络）。
+     * 在每个瓦片的 (2^k+1) 高程网格上一次性生成网格并直接编码为量化网格，速度快，适合大范围批量数据。
+     */
+    RTIN("rtin");
+
+    /**
+     * 与引擎类型对应的参数名称，用于通过字符串参数指定引擎类型。
+     */
+    private final String argumentName;
+
+    /**
+     * 根据传入的字符串查找对应的 MeshEngineType 枚举实例。
+     * 该方法会忽略字符串的大小写进行匹配。
+     *
+     * @param text 用于匹配引擎类型的字符串
+     * @return 匹配到的 MeshEngineType 枚举实例，如果未匹配到则返回默认的 HALF_EDGE 类型
+     */
+    public static MeshEngineType fromString(String text) {
+        // 遍历所有的 MeshEngineType 枚举值
+        for (MeshEngineType type : MeshEngineType.values()) {
+            // 忽略大小写比较传入的字符串和枚举值的 argumentName
+            if (type.argumentName.equalsIgnoreCase(text)) {
+                return type;
+            }
+        }
+        // 未匹配到则返回默认的 HALF_EDGE 类型
+        return HALF_EDGE;
+    }
+}
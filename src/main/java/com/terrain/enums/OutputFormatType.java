@@ -0,0 +1,48 @@
+package com.terrain.enums;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * OutputFormatType 枚举类用于定义地形瓦片的输出格式。
+ */
+@Getter
+@RequiredArgsConstructor
+public enum OutputFormatType {
+    /**
+     * Cesium quantized-mesh-1.0 格式（.terrain），由网格引擎生成不规则三角网。
+     */
+    QUANTIZED_MESH("quantized-mesh"),
+    /**
+     * Cesium heightmap-1.0 格式（.terrain），每个瓦片为 65x65 的高程网格与子瓦片标志，不进行网格细化。
+     */
+    HEIGHTMAP("heightmap"),
+    /**
+     * Mapbox Terrain-RGB 格式（.png），Web Mercator 瓦片，高程编码在 RGB 颜色中，不进行网格细化。
+     */
+    TERRAIN_RGB("terrain-rgb");
+
+    /**
+     * 与输出格式对应的参数名称，用于通过字符串参数指定输出格式。
+     */
+    private final String argumentName;
+
+    /**
+     * 根据传入的字符串查找对应的 OutputFormatType 枚举实例。
+     * 该方法会忽略字符串的大小写进行匹配。
+     *
+     * @param text 用于匹配输出格式的字符串
+     * @return 匹配到的 OutputFormatType 枚举实例，如果未匹配到则返回默认的 QUANTIZED_MESH 类型
+     */
+    public static OutputFormatType fromString(String text) {
+        // 遍历所有的 OutputFormatType 枚举值
+        for (OutputFormatType type : OutputFormatType.values()) {
+            // 忽略大小写比较传入的字符串和枚举值的 argumentName
+            if (type.argumentName.equalsIgnoreCase(text)) {
+                return type;
+            }
+        }
+        // 未匹配到则返回默认的 QUANTIZED_MESH 类型
+        return QUANTIZED_MESH;
+    }
+}
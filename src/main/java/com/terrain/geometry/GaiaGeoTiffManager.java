@@ -1,34 +1,47 @@
 package com.terrain.geometry;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.processing.Operations;
 import org.geotools.gce.geotiff.GeoTiffReader;
 import org.geotools.gce.geotiff.GeoTiffWriter;
 import org.joml.Vector2i;
+import org.opengis.coverage.grid.GridEnvelope;
 import org.opengis.coverage.grid.GridGeometry;
 import org.opengis.geometry.Envelope;
 import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.datum.PixelInCell;
+import org.opengis.referencing.operation.MathTransform;
 
 import com.utils.GaiaGeoTiffUtils;
 
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Getter
 @Setter
 @NoArgsConstructor
 @Slf4j
 public class GaiaGeoTiffManager {
+    /**
+     * 栅格覆盖数据缓存占用内存的上限为最大堆内存的 1/COVERAGE_CACHE_MEMORY_DIVISOR。
+     */
+    private static final int COVERAGE_CACHE_MEMORY_DIVISOR = 4;
     /**
      * 定义投影坐标系，EPSG:3857 是 Web Mercator 投影，常用于网络地图服务。
      */
@@ -42,107 +55,127 @@ public class GaiaGeoTiffManager {
      */
     private double[] originalUpperLeftCorner = new double[2];
     /**
-     * 存储文件路径与对应的栅格覆盖数据的映射关系，方便重复使用已加载的栅格数据。
+     * 文件路径与栅格覆盖数据的缓存，按像素数据占用的内存（KB）加权，超出上限时淘汰最近最少使用的数据并释放。
+     * 同一文件的并发加载只执行一次，其他调用方等待该次加载的结果。
      */
-    private Map<String, GridCoverage2D> mapPathGridCoverage2d = new HashMap<>();
+    private final Cache<String, GridCoverage2D> coverageCache = Caffeine.newBuilder()
+            .maximumWeight(Runtime.getRuntime().maxMemory() / 1024 / COVERAGE_CACHE_MEMORY_DIVISOR)
+            .weigher((String path, GridCoverage2D coverage) -> getCoverageWeightKb(coverage))
+            .executor(Runnable::run)
+            .removalListener((String path, GridCoverage2D coverage, RemovalCause cause) -> {
+                if (coverage != null && cause != RemovalCause.REPLACED) {
+                    coverage.dispose(true);
+                }
+            })
+            .build();
     /**
-     * 存储文件路径与对应的栅格覆盖数据尺寸的映射关系，尺寸用 Vector2i 表示宽和高。
+     * 文件路径与 GeoTIFF 文件头信息的缓存，文件头只读取一次。
      */
-    private Map<String, Vector2i> mapPathGridCoverage2dSize = new HashMap<>();
+    private final Map<String, GeoTiffHeader> mapPathGeoTiffHeader = new ConcurrentHashMap<>();
     /**
      * 存储 GeoTIFF 文件路径与对应的 EPSG:4326 坐标系 GeoTIFF 文件路径的映射关系。
      */
-    private Map<String, String> mapGeoTiffToGeoTiff4326 = new HashMap<>();
-    /**
-     * 存储文件路径的列表，用于记录加载顺序，方便删除最旧的栅格覆盖数据。
-     */
-    private List<String> pathList = new ArrayList<>(); // used to delete the oldest coverage
+    private Map<String, String> mapGeoTiffToGeoTiff4326 = new ConcurrentHashMap<>();
 
     /**
      * 加载 GeoTIFF 文件并返回对应的栅格覆盖数据。
-     * 如果数据已加载，则直接返回缓存中的数据；若缓存已满，会删除最旧的数据。
+     * 如果数据已加载，则直接返回缓存中的数据；缓存超出内存上限时，会淘汰并释放最近最少使用的数据。
+     * 返回的数据属于缓存，调用方不能释放，需要释放时调用 invalidateGridCoverage2D。
      *
      * @param geoTiffFilePath 要加载的 GeoTIFF 文件的路径
      * @return 加载后的栅格覆盖数据，如果加载失败则返回 null
      */
     public GridCoverage2D loadGeoTiffGridCoverage2D(String geoTiffFilePath) {
-        // 检查缓存中是否已存在该文件的栅格覆盖数据
-        if (mapPathGridCoverage2d.containsKey(geoTiffFilePath)) {
-            log.info("复用 GeoTIFF 覆盖数据 : " + geoTiffFilePath);
-            return mapPathGridCoverage2d.get(geoTiffFilePath);
-        }
-
         // 检查是否存在对应的 EPSG:4326 坐标系的文件路径
-        if (mapGeoTiffToGeoTiff4326.containsKey(geoTiffFilePath)) {
-            String geoTiff4326FilePath = mapGeoTiffToGeoTiff4326.get(geoTiffFilePath);
-            if (mapPathGridCoverage2d.containsKey(geoTiff4326FilePath)) {
-                log.info("复用 EPSG:4326 坐标系的 GeoTIFF 覆盖数据: " + geoTiffFilePath);
-                return mapPathGridCoverage2d.get(geoTiff4326FilePath);
+        String geoTiff4326FilePath = mapGeoTiffToGeoTiff4326.get(geoTiffFilePath);
+        if (geoTiff4326FilePath != null) {
+            GridCoverage2D coverage4326 = coverageCache.getIfPresent(geoTiff4326FilePath);
+            if (coverage4326 != null) {
+                log.debug("复用 EPSG:4326 坐标系的 GeoTIFF 覆盖数据: {}", geoTiffFilePath);
+                return coverage4326;
             }
         }
 
-        // 当缓存中的数据数量超过 4 个时，删除最旧的栅格覆盖数据
-        while (mapPathGridCoverage2d.size() > 4) {
-            // delete the old coverage. Check the pathList. the 1rst is the oldest
-            String oldestPath = pathList.get(0);
-            GridCoverage2D oldestCoverage = mapPathGridCoverage2d.get(oldestPath);
-            oldestCoverage.dispose(true);
-            mapPathGridCoverage2d.remove(oldestPath);
-            mapPathGridCoverage2dSize.remove(oldestPath);
-            pathList.remove(0);
-        }
+        // 缓存中不存在时加载文件，同一文件的并发调用等待同一次加载
+        return coverageCache.get(geoTiffFilePath, this::readGridCoverage2DToCache);
+    }
 
-        log.info("[栅格][输入输出] 正在加载 GeoTIFF 文件: " + geoTiffFilePath);
-        GridCoverage2D coverage = null;
+    private GridCoverage2D readGridCoverage2DToCache(String geoTiffFilePath) {
+        log.info("[栅格][输入输出] 正在加载 GeoTIFF 文件: {}", geoTiffFilePath);
         try {
-            File file = new File(geoTiffFilePath);
-            GeoTiffReader reader = new GeoTiffReader(file);
-            coverage = reader.read(null);
-            reader.dispose();
+            GridCoverage2D coverage = readGeoTiffGridCoverage2D(geoTiffFilePath);
+            log.debug("Loaded the geoTiff file ok");
+            return coverage;
         } catch (Exception e) {
             log.error("Error:", e);
+            return null;
         }
+    }
 
-        // 将加载的栅格覆盖数据存入缓存
-        mapPathGridCoverage2d.put(geoTiffFilePath, coverage);
-        pathList.add(geoTiffFilePath);
+    /**
+     * 计算栅格覆盖数据像素占用的内存（KB），只读取图像的采样模型，不解码像素数据。
+     */
+    private static int getCoverageWeightKb(GridCoverage2D coverage) {
+        RenderedImage image = coverage.getRenderedImage();
+        SampleModel sampleModel = image.getSampleModel();
+        long bytesPerPixel = (long) sampleModel.getNumBands() * DataBuffer.getDataTypeSize(sampleModel.getDataType()) / 8;
+        long weightKb = (long) image.getWidth() * image.getHeight() * Math.max(bytesPerPixel, 1) / 1024;
+        return (int) Math.min(Math.max(weightKb, 1), Integer.MAX_VALUE);
+    }
 
-        // 保存栅格覆盖数据的宽度和高度
-        GridGeometry gridGeometry = coverage.getGridGeometry();
-        int width = gridGeometry.getGridRange().getSpan(0);
-        int height = gridGeometry.getGridRange().getSpan(1);
-        Vector2i size = new Vector2i(width, height);
-        mapPathGridCoverage2dSize.put(geoTiffFilePath, size);
+    /**
+     * 从缓存中移除指定文件的栅格覆盖数据并释放资源。
+     *
+     * @param geoTiffFilePath GeoTIFF 文件的路径
+     */
+    public void invalidateGridCoverage2D(String geoTiffFilePath) {
+        coverageCache.invalidate(geoTiffFilePath);
+    }
 
-        log.debug("Loaded the geoTiff file ok");
-        return coverage;
+    /**
+     * 获取 GeoTIFF 文件头信息（宽度、高度、坐标参考系和范围），只读取 TIFF 目录，不解码像素数据。
+     *
+     * @param geoTiffFilePath GeoTIFF 文件的路径
+     * @return 文件头信息，如果读取失败则返回 null
+     */
+    public GeoTiffHeader getGeoTiffHeader(String geoTiffFilePath) {
+        GeoTiffHeader header = mapPathGeoTiffHeader.get(geoTiffFilePath);
+        if (header != null) {
+            return header;
+        }
+        return mapPathGeoTiffHeader.computeIfAbsent(geoTiffFilePath, path -> {
+            try {
+                return readGeoTiffHeader(path);
+            } catch (IOException e) {
+                log.error("Error:", e);
+                return null;
+            }
+        });
     }
 
     /**
      * 获取指定 GeoTIFF 文件对应的栅格覆盖数据的尺寸。
-     * 如果尺寸信息未缓存，则先加载文件并获取尺寸，再释放资源。
+     * 尺寸从文件头读取，不加载像素数据。
      *
      * @param geoTiffFilePath 要获取尺寸的 GeoTIFF 文件的路径
      * @return 栅格覆盖数据的尺寸，用 Vector2i 表示宽和高
      */
     public Vector2i getGridCoverage2DSize(String geoTiffFilePath) {
-        // 检查缓存中是否存在该文件的尺寸信息
-        if (!mapPathGridCoverage2dSize.containsKey(geoTiffFilePath)) {
-            GridCoverage2D coverage = loadGeoTiffGridCoverage2D(geoTiffFilePath);
-            coverage.dispose(true);
+        GeoTiffHeader header = getGeoTiffHeader(geoTiffFilePath);
+        if (header == null) {
+            return null;
         }
-        return mapPathGridCoverage2dSize.get(geoTiffFilePath);
+        return new Vector2i(header.getWidth(), header.getHeight());
     }
 
     /**
      * 释放所有缓存的栅格覆盖数据并清空缓存。
      */
     public void deleteObjects() {
-        // 遍历缓存中的所有栅格覆盖数据并释放资源
-        for (GridCoverage2D coverage : mapPathGridCoverage2d.values()) {
-            coverage.dispose(true);
-        }
-        mapPathGridCoverage2d.clear();
+        // 移除缓存中的所有栅格覆盖数据，移除时释放资源
+        coverageCache.invalidateAll();
+        coverageCache.cleanUp();
+        mapPathGeoTiffHeader.clear();
     }
 
     /**
@@ -204,13 +237,63 @@ public class GaiaGeoTiffManager {
     public void saveGridCoverage2D(GridCoverage2D coverage, String outputFilePath) throws IOException {
         // now save the newCoverage as geotiff
         File outputFile = new File(outputFilePath);
-        FileOutputStream outputStream = new FileOutputStream(outputFile);
-        BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream);
-        GeoTiffWriter writer = new GeoTiffWriter(bufferedOutputStream);
-        writer.write(coverage, null);
-        writer.dispose();
-        outputStream.close();
-        bufferedOutputStream.close();
+        try (BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+            GeoTiffWriter writer = new GeoTiffWriter(bufferedOutputStream);
+            try {
+                writer.write(coverage, null);
+            } finally {
+                writer.dispose();
+            }
+        }
+    }
+
+    /**
+     * 读取 GeoTIFF 文件的栅格覆盖数据，不使用缓存。
+     * 返回的数据由调用方负责释放，适用于并行任务（缓存中的数据可能被其他线程释放）。
+     *
+     * @param geoTiffFilePath 要读取的 GeoTIFF 文件的路径
+     * @return 读取的栅格覆盖数据
+     * @throws IOException 当文件读取出现异常时抛出异常
+     */
+    public GridCoverage2D readGeoTiffGridCoverage2D(String geoTiffFilePath) throws IOException {
+        GeoTiffReader reader = new GeoTiffReader(new File(geoTiffFilePath));
+        try {
+            return reader.read(null);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * 只读取 GeoTIFF 文件头获取栅格尺寸，不读取像素数据。
+     *
+     * @param geoTiffFilePath 要读取的 GeoTIFF 文件的路径
+     * @return 栅格尺寸，用 Vector2i 表示宽和高
+     * @throws IOException 当文件读取出现异常时抛出异常
+     */
+    public Vector2i readGeoTiffGridSize(String geoTiffFilePath) throws IOException {
+        GeoTiffHeader header = readGeoTiffHeader(geoTiffFilePath);
+        return new Vector2i(header.getWidth(), header.getHeight());
+    }
+
+    /**
+     * 只读取 GeoTIFF 文件头（TIFF 目录与地理键），获取宽度、高度、坐标参考系和范围，不读取像素数据。
+     *
+     * @param geoTiffFilePath 要读取的 GeoTIFF 文件的路径
+     * @return 文件头信息
+     * @throws IOException 当文件读取出现异常时抛出异常
+     */
+    public GeoTiffHeader readGeoTiffHeader(String geoTiffFilePath) throws IOException {
+        GeoTiffReader reader = new GeoTiffReader(new File(geoTiffFilePath));
+        try {
+            GridEnvelope gridRange = reader.getOriginalGridRange();
+            CoordinateReferenceSystem crs = reader.getCoordinateReferenceSystem();
+            MathTransform gridToCrs = reader.getOriginalGridToWorld(PixelInCell.CELL_CENTER);
+            GridGeometry2D gridGeometry = new GridGeometry2D(gridRange, gridToCrs, crs);
+            return new GeoTiffHeader(gridRange.getSpan(0), gridRange.getSpan(1), crs, reader.getOriginalEnvelope(), gridGeometry);
+        } finally {
+            reader.dispose();
+        }
     }
 
 }
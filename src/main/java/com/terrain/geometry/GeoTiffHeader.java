@@ -0,0 +1,35 @@
+package com.terrain.geometry;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.opengis.geometry.Envelope;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * GeoTIFF 文件头信息（只从 TIFF 目录读取，不解码像素数据）。
+ */
+@Getter
+@RequiredArgsConstructor
+public class GeoTiffHeader {
+    /**
+     * 栅格宽度（像素）。
+     */
+    private final int width;
+    /**
+     * 栅格高度（像素）。
+     */
+    private final int height;
+    /**
+     * 栅格的坐标参考系。
+     */
+    private final CoordinateReferenceSystem crs;
+    /**
+     * 栅格的范围（栅格坐标参考系下）。
+     */
+    private final Envelope envelope;
+    /**
+     * 栅格的几何信息（栅格范围与栅格到坐标参考系的变换）。
+     */
+    private final GridGeometry2D gridGeometry;
+}
@@ -0,0 +1,212 @@
+package com.terrain.geometry;
+
+import com.terrain.common.GeographicExtension;
+import com.terrain.common.GlobalOptions;
+import com.terrain.io.QuantizedMeshCodec;
+import com.terrain.manager.TerrainElevationDataManager;
+import com.terrain.manager.TileIndices;
+import com.terrain.manager.TileWgs84Manager;
+import com.utils.FileUtils;
+import com.utils.TileWgs84Utils;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Makes the grid outputs of the terrain, without mesh refinement : the elevations of each tile are sampled in a regular grid
+ * (see TerrainElevationDataManager.makeElevationGrid) and written directly.
+ * - heightmap-1.0 : geographic tiles of 65 x 65 heights, with the children flags & the water mask (.terrain).
+ * - Terrain-RGB : Web Mercator tiles of 256 or 512 pixels, the height is encoded in the RGB color (.png).
+ */
+@Slf4j
+public class GridTileMaker {
+    private final static GlobalOptions globalOptions = GlobalOptions.getInstance();
+    public static final int HEIGHTMAP_SIZE = 65;
+    public static final String HEIGHTMAP_FORMAT = "heightmap-1.0";
+    // heightmap-1.0 heights : (height + 1000) * 5, in unsigned 16 bits.***
+    private static final double HEIGHTMAP_OFFSET = 1000.0;
+    private static final double HEIGHTMAP_SCALE = 5.0;
+    // Terrain-RGB heights : -10000 + (R * 256 * 256 + G * 256 + B) * 0.1.***
+    private static final double TERRAIN_RGB_OFFSET = 10000.0;
+    private static final double TERRAIN_RGB_SCALE = 10.0;
+    private static final int TERRAIN_RGB_MAX_VALUE = 0xFFFFFF;
+    private static final double WEB_MERCATOR_MAX_LATITUDE = 85.0511287798066;
+
+    private final TileWgs84Manager manager;
+    private ForkJoinPool pool = null;
+
+    public GridTileMaker(TileWgs84Manager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Makes & saves the heightmap tiles of the range, in parallel. The children flags are set for the children inside childTilesRange
+     * (null for the last depth).
+     */
+    public void makeHeightmapTiles(TileRange tilesRange, TileRange childTilesRange) {
+        List<TileIndices> tileIndicesList = tilesRange.getTileIndices(null);
+        runInPool(() -> tileIndicesList.parallelStream().forEach(tileIndices -> makeAndSaveHeightmapTile(tileIndices, childTilesRange)));
+    }
+
+    private void makeAndSaveHeightmapTile(TileIndices tileIndices, TileRange childTilesRange) {
+        GeographicExtension geoExtension = TileWgs84Utils.getGeographicExtentOfTileLXY(tileIndices.getL(), tileIndices.getX(), tileIndices.getY(),
+                null, manager.getImaginaryType(), manager.isOriginIsLeftUp());
+        int last = HEIGHTMAP_SIZE - 1;
+        double minLonDeg = geoExtension.getMinLongitudeDeg();
+        double minLatDeg = geoExtension.getMinLatitudeDeg();
+        double deltaLonDeg = geoExtension.getLongitudeRangeDegree() / last;
+        double deltaLatDeg = geoExtension.getLatitudeRangeDegree() / last;
+
+        // the samples are at the corners, so the borders are the same as in the neighbor tiles.***
+        float[] heights = new float[HEIGHTMAP_SIZE * HEIGHTMAP_SIZE];
+        BitSet dataMask = manager.isWaterMask() ? new BitSet(heights.length) : null;
+        TerrainElevationDataManager terrainElevationDataManager = manager.getTerrainElevationDataManager();
+        terrainElevationDataManager.makeElevationGrid(geoExtension, HEIGHTMAP_SIZE, HEIGHTMAP_SIZE, minLonDeg, minLatDeg, deltaLonDeg, deltaLatDeg, heights, dataMask);
+
+        byte[] waterMask = dataMask != null ? TileWaterMask.makeWaterMask(dataMask, HEIGHTMAP_SIZE, HEIGHTMAP_SIZE) : new byte[]{TileWaterMask.LAND};
+        ByteBuffer buffer = ByteBuffer.allocate(heights.length * Short.BYTES + 1 + waterMask.length).order(ByteOrder.LITTLE_ENDIAN);
+        // the heightmap rows are from north to south.***
+        for (int row = last; row >= 0; row--) {
+            int rowOffset = row * HEIGHTMAP_SIZE;
+            for (int col = 0; col < HEIGHTMAP_SIZE; col++) {
+                long value = Math.round((heights[rowOffset + col] + HEIGHTMAP_OFFSET) * HEIGHTMAP_SCALE);
+                buffer.putShort((short) Math.max(0, Math.min(0xFFFF, value)));
+            }
+        }
+        buffer.put(getChildrenFlags(tileIndices, childTilesRange));
+        buffer.put(waterMask);
+        buffer.flip();
+
+        String tileFullPath = manager.getQuantizedMeshTilePath(tileIndices);
+        String tileFolderPath = manager.getQuantizedMeshTileFolderPath(tileIndices);
+        FileUtils.createAllFoldersIfNoExist(tileFolderPath);
+        try {
+            QuantizedMeshCodec.writeFile(buffer, Paths.get(tileFullPath));
+        } catch (IOException e) {
+            log.error("Error:", e);
+            return;
+        }
+        manager.getTileAvailability().add(tileIndices.getL(), tileIndices.getX(), tileIndices.getY());
+    }
+
+    /**
+     * The children flags of heightmap-1.0 : bit 0 southwest, bit 1 southeast, bit 2 northwest, bit 3 northeast.
+     */
+    private byte getChildrenFlags(TileIndices tileIndices, TileRange childTilesRange) {
+        if (childTilesRange == null) {
+            return 0;
+        }
+        boolean originIsLeftUp = manager.isOriginIsLeftUp();
+        int flags = 0;
+        if (childTilesRange.intersects(tileIndices.getChildLeftDownTileIndices(originIsLeftUp))) flags |= 1;
+        if (childTilesRange.intersects(tileIndices.getChildRightDownTileIndices(originIsLeftUp))) flags |= 2;
+        if (childTilesRange.intersects(tileIndices.getChildLeftUpTileIndices(originIsLeftUp))) flags |= 4;
+        if (childTilesRange.intersects(tileIndices.getChildRightUpTileIndices(originIsLeftUp))) flags |= 8;
+        return (byte) flags;
+    }
+
+    /**
+     * Returns the Web Mercator (XYZ, y from the north) tiles range of the zoom that covers the geographic extension.
+     */
+    public static TileRange selectWebMercatorTilesRange(int zoom, GeographicExtension geoExtension) {
+        int tilesCount = 1 << zoom;
+        int minX = getWebMercatorTileX(geoExtension.getMinLongitudeDeg(), tilesCount);
+        int maxX = getWebMercatorTileX(geoExtension.getMaxLongitudeDeg(), tilesCount);
+        // the north is the minimum y.***
+        int minY = getWebMercatorTileY(geoExtension.getMaxLatitudeDeg(), tilesCount);
+        int maxY = getWebMercatorTileY(geoExtension.getMinLatitudeDeg(), tilesCount);
+        TileRange tilesRange = new TileRange();
+        tilesRange.set(zoom, minX, maxX, minY, maxY);
+        return tilesRange;
+    }
+
+    private static int getWebMercatorTileX(double lonDeg, int tilesCount) {
+        int x = (int) Math.floor((lonDeg + 180.0) / 360.0 * tilesCount);
+        return Math.max(0, Math.min(tilesCount - 1, x));
+    }
+
+    private static int getWebMercatorTileY(double latDeg, int tilesCount) {
+        double latRad = Math.toRadians(Math.max(-WEB_MERCATOR_MAX_LATITUDE, Math.min(WEB_MERCATOR_MAX_LATITUDE, latDeg)));
+        double y = (1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0 * tilesCount;
+        return Math.max(0, Math.min(tilesCount - 1, (int) Math.floor(y)));
+    }
+
+    /**
+     * Makes & saves the Terrain-RGB tiles of the Web Mercator range (see selectWebMercatorTilesRange), in parallel.
+     */
+    public void makeTerrainRgbTiles(TileRange tilesRange, int tileSize) {
+        List<TileIndices> tileIndicesList = tilesRange.getTileIndices(null);
+        runInPool(() -> tileIndicesList.parallelStream().forEach(tileIndices -> makeAndSaveTerrainRgbTile(tileIndices, tileSize)));
+    }
+
+    private void makeAndSaveTerrainRgbTile(TileIndices tileIndices, int tileSize) {
+        int zoom = tileIndices.getL();
+        double tilesCount = 1 << zoom;
+        double pixelsCount = tilesCount * tileSize;
+
+        // the pixels are sampled at their centers, the rows are from north to south.***
+        double deltaLonDeg = 360.0 / pixelsCount;
+        double firstLonDeg = tileIndices.getX() * tileSize * deltaLonDeg - 180.0 + deltaLonDeg * 0.5;
+        double[] rowLatDegs = new double[tileSize];
+        for (int row = 0; row < tileSize; row++) {
+            double n = Math.PI - 2.0 * Math.PI * (tileIndices.getY() * tileSize + row + 0.5) / pixelsCount;
+            rowLatDegs[row] = Math.toDegrees(Math.atan(Math.sinh(n)));
+        }
+
+        GeographicExtension geoExtension = new GeographicExtension();
+        geoExtension.setDegrees(firstLonDeg, rowLatDegs[tileSize - 1], 0.0, firstLonDeg + (tileSize - 1) * deltaLonDeg, rowLatDegs[0], 0.0);
+        float[] heights = new float[tileSize * tileSize];
+        manager.getTerrainElevationDataManager().makeElevationGrid(geoExtension, tileSize, firstLonDeg, deltaLonDeg, rowLatDegs, heights, null);
+
+        int[] rgb = new int[heights.length];
+        for (int i = 0; i < heights.length; i++) {
+            long value = Math.round((heights[i] + TERRAIN_RGB_OFFSET) * TERRAIN_RGB_SCALE);
+            rgb[i] = (int) Math.max(0, Math.min(TERRAIN_RGB_MAX_VALUE, value));
+        }
+        BufferedImage image = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, tileSize, tileSize, rgb, 0, tileSize);
+
+        String tileFolderPath = globalOptions.getOutputPath() + File.separator + zoom + File.separator + tileIndices.getX();
+        FileUtils.createAllFoldersIfNoExist(tileFolderPath);
+        try {
+            ImageIO.write(image, "png", new File(tileFolderPath + File.separator + tileIndices.getY() + ".png"));
+        } catch (IOException e) {
+            log.error("Error:", e);
+        }
+    }
+
+    private void runInPool(Runnable task) {
+        try {
+            getPool().submit(task).get();
+        } catch (InterruptedException e) {
+            log.error("Error:", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Error:", e);
+        }
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return pool;
+    }
+
+    public synchronized void deleteObjects() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+}
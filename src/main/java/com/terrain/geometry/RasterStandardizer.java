@@ -1,8 +1,10 @@
 package com.terrain.geometry;
 
 import com.terrain.common.GlobalOptions;
+import com.utils.ThreadUtils;
 import it.geosolutions.jaiext.JAIExt;
-import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridEnvelope2D;
@@ -28,21 +30,26 @@ import java.awt.image.RenderedImage;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 /**
  * RasterStandardizer
  * This Class for Standardization data CRS and size.
  */
 @Slf4j
-@NoArgsConstructor
 public class RasterStandardizer {
 
     static {
@@ -64,47 +71,114 @@ public class RasterStandardizer {
         tileScheduler.setPriority(Thread.NORM_PRIORITY);
     }
 
+    // tiles being cropped, resampled or written by thread of the executor, bounds the memory of the resampled tiles
+    private static final int MAX_IN_FLIGHT_PER_THREAD = 2;
+
     private final GlobalOptions globalOptions = GlobalOptions.getInstance();
+    private final ExecutorService executorService;
+    private final int maxInFlightCount;
+
+    /**
+     * @param executorService executor of the standardization job (see newExecutorService), shared by all the source rasters and shut down by the job
+     */
+    public RasterStandardizer(ExecutorService executorService) {
+        this.executorService = executorService;
+        this.maxInFlightCount = Runtime.getRuntime().availableProcessors() * MAX_IN_FLIGHT_PER_THREAD;
+    }
+
+    public static ExecutorService newExecutorService() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), ThreadUtils.newDaemonThreadFactory("raster-standardize-"));
+    }
 
+    /**
+     * Splits the source in windows, and each window is cropped, resampled to the target CRS and written by a task of the executor.
+     * The producer waits when maxInFlightCount windows are in process, so only these tiles are in memory.
+     */
     public void standardize(GridCoverage2D source, File outputPath) {
         CoordinateReferenceSystem targetCRS = globalOptions.getTargetCRS();
+        Semaphore inFlightPermits = new Semaphore(maxInFlightCount);
+        List<Future<?>> futures = new ArrayList<>();
+        // set when the standardization fails, the windows not started are skipped
+        AtomicBoolean failed = new AtomicBoolean(false);
         try {
             /* split */
-            List<RasterInfo> splitTiles = split(source, globalOptions.getMaxRasterSize());
-
-            /* resampling */
-            ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
-            List<RasterInfo> resampledTiles = pool.submit(() -> splitTiles.parallelStream().map(tile -> {
-                        GridCoverage2D gridCoverage2D = tile.getGridCoverage2D();
-                        CoordinateReferenceSystem sourceCRS = gridCoverage2D.getCoordinateReferenceSystem();
-                        if (isSameCRS(sourceCRS, targetCRS)) {
-                            return tile;
-                        } else {
-                            tile.setGridCoverage2D(resample(gridCoverage2D, targetCRS));
-                        }
-
-                        return tile;
-                    }
-            ).collect(Collectors.toList())).get();
+            List<RasterWindow> windows = split(source, globalOptions.getMaxRasterSize());
 
-            int total = resampledTiles.size();
+            /* crop, resampling & write */
+            int total = windows.size();
             AtomicInteger count = new AtomicInteger(0);
-            resampledTiles.stream().forEach((tile) -> {
-                int index = count.incrementAndGet();
-                GridCoverage2D reprojectedTile = tile.getGridCoverage2D();
-                File tileFile = new File(outputPath, tile.getName() + ".tif");
-
-                log.info("[预处理][标准化][" + index + "/" + total + "] : " + tileFile.getAbsolutePath());
-                writeGeotiff(reprojectedTile, tileFile);
-            });
+            for (RasterWindow window : windows) {
+                inFlightPermits.acquire();
+                try {
+                    futures.add(executorService.submit(() -> {
+                        try {
+                            if (!failed.get()) {
+                                standardizeWindow(source, window, targetCRS, outputPath, count.incrementAndGet(), total);
+                            }
+                        } finally {
+                            inFlightPermits.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    inFlightPermits.release();
+                    throw e;
+                }
+            }
 
-        } catch (TransformException | IOException | InterruptedException | ExecutionException e) {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+            log.error("Failed to standardization.", e);
+            throw new RuntimeException(e);
+        } catch (TransformException | ExecutionException e) {
+            failed.set(true);
             log.error("Failed to standardization.", e);
             throw new RuntimeException(e);
         } finally {
+            // the running windows crop the source, so it's disposed when all the submitted windows are finished
+            awaitFutures(futures);
             source.dispose(true);
         }
+    }
+
+    private void awaitFutures(List<Future<?>> futures) {
+        // the interrupt status is restored after waiting
+        boolean interrupted = Thread.interrupted();
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    // already logged by the first failure
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void standardizeWindow(GridCoverage2D source, RasterWindow window, CoordinateReferenceSystem targetCRS, File outputPath, int index, int total) {
+        File tileFile = new File(outputPath, window.getName() + ".tif");
+        if (tileFile.exists() && tileFile.length() > 0) {
+            log.info("[栅格][输入输出] 文件已存在且不为空: " + tileFile.getAbsolutePath());
+            return;
+        }
 
+        GridCoverage2D tileCoverage = crop(source, window.getEnvelope());
+        if (!isSameCRS(tileCoverage.getCoordinateReferenceSystem(), targetCRS)) {
+            tileCoverage = resample(tileCoverage, targetCRS);
+        }
+
+        log.info("[预处理][标准化][" + index + "/" + total + "] : " + tileFile.getAbsolutePath());
+        writeGeotiff(tileCoverage, tileFile);
     }
 
     public GridCoverage2D readGeoTiff(File file) {
@@ -119,21 +193,29 @@ public class RasterStandardizer {
     }
 
     public void writeGeotiff(GridCoverage2D coverage, File outputFile) {
+        if (outputFile.exists() && outputFile.length() > 0) {
+            log.info("[栅格][输入输出] 文件已存在且不为空: " + outputFile.getAbsolutePath());
+            return;
+        }
+
+        // written in a temp file & renamed, so an interrupted write does not leave a not empty tile (skipped by the next run)
+        File tempFile = new File(outputFile.getParentFile(), outputFile.getName() + ".tmp");
         try {
-            if (outputFile.exists() && outputFile.length() > 0) {
-                log.info("[栅格][输入输出] 文件已存在且不为空: " + outputFile.getAbsolutePath());
-                return;
+            try (BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                GeoTiffWriter writer = new GeoTiffWriter(bufferedOutputStream);
+                try {
+                    writer.write(coverage, null);
+                } finally {
+                    writer.dispose();
+                }
             }
-            FileOutputStream outputStream = new FileOutputStream(outputFile);
-            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream);
-            GeoTiffWriter writer = new GeoTiffWriter(bufferedOutputStream);
-            writer.write(coverage, null);
-            writer.dispose();
-            outputStream.close();
-            bufferedOutputStream.close();
+            Files.move(tempFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
         } catch (Exception e) {
             log.error("Failed to write GeoTiff file : {}", outputFile.getAbsolutePath());
             log.error("Error : ", e);
+            if (tempFile.exists() && !tempFile.delete()) {
+                log.warn("Failed to delete temp file : {}", tempFile.getAbsolutePath());
+            }
         }
     }
 
@@ -150,8 +232,11 @@ public class RasterStandardizer {
         raster.getPixels(minX, minY, width, height, pixels);
     }
 
-    public List<RasterInfo> split(GridCoverage2D coverage, int tileSize) throws TransformException, IOException {
-        List<RasterInfo> tiles = new ArrayList<>();
+    /**
+     * Splits the coverage in windows of tileSize pixels (with margin). The windows are only envelopes, the pixels are read when each window is cropped.
+     */
+    public List<RasterWindow> split(GridCoverage2D coverage, int tileSize) throws TransformException {
+        List<RasterWindow> tiles = new ArrayList<>();
 
         GridGeometry2D gridGeometry = coverage.getGridGeometry();
         GridEnvelope gridRange = gridGeometry.getGridRange();
@@ -184,10 +269,8 @@ public class RasterStandardizer {
                 }
 
                 ReferencedEnvelope tileEnvelope = new ReferencedEnvelope(gridGeometry.gridToWorld(new GridEnvelope2D(xAux, yAux, xMax - x, yMax - y)), coverage.getCoordinateReferenceSystem());
-                GridCoverage2D gridCoverage2D = crop(coverage, tileEnvelope);
-                String tileName = gridCoverage2D.getName() + "-" + x / tileSize + "-" + y / tileSize;
-                RasterInfo tile = new RasterInfo(tileName, gridCoverage2D);
-                tiles.add(tile);
+                String tileName = coverage.getName() + "-" + x / tileSize + "-" + y / tileSize;
+                tiles.add(new RasterWindow(tileName, tileEnvelope));
             }
         }
         return tiles;
@@ -235,4 +318,11 @@ public class RasterStandardizer {
             return false;
         }
     }
+
+    @Getter
+    @AllArgsConstructor
+    public static class RasterWindow {
+        private final String name;
+        private final ReferencedEnvelope envelope;
+    }
 }
@@ -0,0 +1,456 @@
+package com.terrain.geometry;
+
+import com.terrain.common.GeographicExtension;
+import com.terrain.common.GlobalOptions;
+import com.terrain.io.QuantizedMeshCodec;
+import com.terrain.manager.QuantizedMesh;
+import com.terrain.manager.QuantizedMeshManager;
+import com.terrain.manager.TerrainElevationDataManager;
+import com.terrain.manager.TileIndices;
+import com.terrain.manager.TileWgs84Manager;
+import com.utils.FileUtils;
+import com.utils.GlobeUtils;
+import com.utils.OctNormalFactory;
+import com.utils.TileWgs84Utils;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * RTIN (right-triangulated irregular network) mesher, after the Martini algorithm.
+ * Each tile is sampled in a (2^k + 1) elevation grid, the errors of the grid are calculated bottom-up, and the mesh of the tile
+ * is extracted in one pass for the max error of the depth and encoded directly as a quantized mesh.
+ * The tiles are independent : the vertices of the borders are selected only from the border samples, which are shared with the neighbor tiles,
+ * so the borders of the neighbor tiles match without merging the meshes.
+ */
+@Slf4j
+public class RtinMesher {
+    private final static GlobalOptions globalOptions = GlobalOptions.getInstance();
+    private final static double QUANTIZED_MAX = 32767.0;
+
+    private final TileWgs84Manager manager;
+    private final int tileSize;
+    private final int gridSize;
+    private final int numTriangles;
+    private final int numParentTriangles;
+    // the ax, ay, bx, by coordinates of all the triangles of the hierarchy.***
+    private final int[] coords;
+    private ForkJoinPool pool = null;
+
+    public RtinMesher(int tileSize, TileWgs84Manager manager) {
+        if (tileSize <= 0 || (tileSize & (tileSize - 1)) != 0) {
+            throw new IllegalArgumentException("RTIN tile size must be a power of 2 : " + tileSize);
+        }
+        this.manager = manager;
+        this.tileSize = tileSize;
+        this.gridSize = tileSize + 1;
+        this.numTriangles = tileSize * tileSize * 2 - 2;
+        this.numParentTriangles = numTriangles - tileSize * tileSize;
+        this.coords = new int[numTriangles * 4];
+
+        for (int i = 0; i < numTriangles; i++) {
+            // the triangle id encodes the path from the root triangle.***
+            int id = i + 2;
+            int ax = 0, ay = 0, bx = 0, by = 0, cx = 0, cy = 0;
+            if ((id & 1) != 0) {
+                bx = by = cx = tileSize; // bottom-left triangle
+            } else {
+                ax = ay = cy = tileSize; // top-right triangle
+            }
+            while ((id >>= 1) > 1) {
+                int mx = (ax + bx) >> 1;
+                int my = (ay + by) >> 1;
+                if ((id & 1) != 0) { // left half
+                    bx = ax;
+                    by = ay;
+                    ax = cx;
+                    ay = cy;
+                } else { // right half
+                    ax = bx;
+                    ay = by;
+                    bx = cx;
+                    by = cy;
+                }
+                cx = mx;
+                cy = my;
+            }
+            int k = i * 4;
+            coords[k] = ax;
+            coords[k + 1] = ay;
+            coords[k + 2] = bx;
+            coords[k + 3] = by;
+        }
+    }
+
+    /**
+     * Makes & saves the quantized meshes of all the tiles of the range, in parallel.
+     */
+    public void makeTileMeshes(TileRange tilesRange) {
+        List<TileIndices> tileIndicesList = tilesRange.getTileIndices(null);
+        double maxError = manager.getMaxDiffBetweenGeoTiffSampleAndTrianglePlane(tilesRange.getTileDepth());
+        boolean calculateNormals = globalOptions.isCalculateNormals();
+        try {
+            getPool().submit(() -> tileIndicesList.parallelStream().forEach(tileIndices -> makeAndSaveTileMesh(tileIndices, maxError, calculateNormals))).get();
+        } catch (InterruptedException e) {
+            log.error("Error:", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Error:", e);
+        }
+    }
+
+    private void makeAndSaveTileMesh(TileIndices tileIndices, double maxError, boolean calculateNormals) {
+        GeographicExtension geoExtension = TileWgs84Utils.getGeographicExtentOfTileLXY(tileIndices.getL(), tileIndices.getX(), tileIndices.getY(),
+                null, manager.getImaginaryType(), manager.isOriginIsLeftUp());
+        QuantizedMesh quantizedMesh = makeQuantizedMesh(geoExtension, maxError, calculateNormals);
+        TileMetadataAvailability tileMetadataAvailability = manager.getTileMetadataAvailability();
+        if (tileMetadataAvailability != null) {
+            quantizedMesh.setMetadata(tileMetadataAvailability.makeMetadata(tileIndices.getL(), tileIndices.getX(), tileIndices.getY()));
+        }
+        // the tiles are meshed independently, so the skirts hide the cracks between neighbor tiles.***
+        if (globalOptions.isSkirt()) {
+            TileSkirt.addSkirts(quantizedMesh, TileSkirt.getSkirtHeight(tileIndices.getL()));
+        }
+
+        String tileFullPath = manager.getQuantizedMeshTilePath(tileIndices);
+        String tileFolderPath = manager.getQuantizedMeshTileFolderPath(tileIndices);
+        FileUtils.createAllFoldersIfNoExist(tileFolderPath);
+        try {
+            QuantizedMeshCodec.saveFile(quantizedMesh, Paths.get(tileFullPath), calculateNormals);
+        } catch (IOException e) {
+            log.error("Error:", e);
+            return;
+        }
+        manager.getTileAvailability().add(tileIndices.getL(), tileIndices.getX(), tileIndices.getY());
+    }
+
+    public QuantizedMesh makeQuantizedMesh(GeographicExtension geoExtension, double maxError, boolean calculateNormals) {
+        // the samples with data are kept only for the water mask.***
+        BitSet dataMask = manager.isWaterMask() ? new BitSet(gridSize * gridSize) : null;
+        float[] terrain = makeTerrainGrid(geoExtension, dataMask);
+
+        // select the border vertices from the border samples only.***
+        boolean[] fixed = new boolean[gridSize * gridSize];
+        int last = tileSize;
+        int[] borderStarts = {0, last * gridSize, 0, last}; // south, north, west, east
+        int[] borderStrides = {1, 1, gridSize, gridSize};
+        for (int i = 0; i < 4; i++) {
+            int start = borderStarts[i];
+            int stride = borderStrides[i];
+            fixed[start] = true;
+            fixed[start + last * stride] = true;
+            selectBorderVertices(terrain, start, stride, 0, last, maxError, fixed);
+        }
+
+        float[] errors = makeErrors(terrain, fixed);
+
+        // extract the mesh.***
+        int[] gridToVertex = new int[gridSize * gridSize];
+        Arrays.fill(gridToVertex, -1);
+        IntArrayList vertexGridIndices = new IntArrayList();
+        IntArrayList triangleIndices = new IntArrayList();
+        processTriangle(0, 0, last, last, last, 0, errors, maxError, gridToVertex, vertexGridIndices, triangleIndices);
+        processTriangle(last, last, 0, 0, 0, last, errors, maxError, gridToVertex, vertexGridIndices, triangleIndices);
+
+        // the border vertices that are not selected by the borders are moved onto the border polyline, so the neighbor tiles match.***
+        for (int i = 0; i < 4; i++) {
+            snapBorderVertices(terrain, borderStarts[i], borderStrides[i], fixed, gridToVertex);
+        }
+
+        QuantizedMesh quantizedMesh = encodeQuantizedMesh(geoExtension, terrain, gridToVertex, vertexGridIndices, triangleIndices, calculateNormals);
+        if (dataMask != null) {
+            quantizedMesh.setWaterMask(TileWaterMask.makeWaterMask(dataMask, gridSize, gridSize));
+        }
+        return quantizedMesh;
+    }
+
+    private float[] makeTerrainGrid(GeographicExtension geoExtension, BitSet dataMask) {
+        TerrainElevationDataManager terrainElevationDataManager = manager.getTerrainElevationDataManager();
+        double minLonDeg = geoExtension.getMinLongitudeDeg();
+        double minLatDeg = geoExtension.getMinLatitudeDeg();
+        double maxLonDeg = geoExtension.getMaxLongitudeDeg();
+        double maxLatDeg = geoExtension.getMaxLatitudeDeg();
+        double deltaLonDeg = (maxLonDeg - minLonDeg) / tileSize;
+        double deltaLatDeg = (maxLatDeg - minLatDeg) / tileSize;
+
+        float[] terrain = new float[gridSize * gridSize];
+        terrainElevationDataManager.makeElevationGrid(geoExtension, gridSize, gridSize, minLonDeg, minLatDeg, deltaLonDeg, deltaLatDeg, terrain, dataMask);
+
+        // the north row & the east column are sampled again at the exact extent, so the samples are the same as in the neighbor tiles.***
+        float[] border = new float[gridSize];
+        terrainElevationDataManager.makeElevationGrid(geoExtension, gridSize, 1, minLonDeg, maxLatDeg, deltaLonDeg, deltaLatDeg, border);
+        System.arraycopy(border, 0, terrain, tileSize * gridSize, gridSize);
+        terrainElevationDataManager.makeElevationGrid(geoExtension, 1, gridSize, maxLonDeg, minLatDeg, deltaLonDeg, deltaLatDeg, border);
+        for (int row = 0; row < gridSize; row++) {
+            terrain[row * gridSize + tileSize] = border[row];
+        }
+        terrainElevationDataManager.makeElevationGrid(geoExtension, 1, 1, maxLonDeg, maxLatDeg, deltaLonDeg, deltaLatDeg, border);
+        terrain[gridSize * gridSize - 1] = border[0];
+        return terrain;
+    }
+
+    /**
+     * Selects the vertices of a border by 1D bisection of the border samples : a midpoint is selected if its error is greater than maxError,
+     * or if any of its descendants is selected.
+     *
+     * @return true if any vertex between a & b is selected
+     */
+    private boolean selectBorderVertices(float[] terrain, int start, int stride, int a, int b, double maxError, boolean[] fixed) {
+        if (b - a <= 1) {
+            return false;
+        }
+        int m = (a + b) >> 1;
+        boolean leftSelected = selectBorderVertices(terrain, start, stride, a, m, maxError, fixed);
+        boolean rightSelected = selectBorderVertices(terrain, start, stride, m, b, maxError, fixed);
+        int middleIndex = start + m * stride;
+        float interpolatedHeight = (terrain[start + a * stride] + terrain[start + b * stride]) / 2;
+        float middleError = Math.abs(interpolatedHeight - terrain[middleIndex]);
+        if (leftSelected || rightSelected || middleError > maxError) {
+            fixed[middleIndex] = true;
+            return true;
+        }
+        return false;
+    }
+
+    private float[] makeErrors(float[] terrain, boolean[] fixed) {
+        float[] errors = new float[gridSize * gridSize];
+        // the selected border vertices are always split.***
+        for (int i = 0; i < errors.length; i++) {
+            if (fixed[i]) {
+                errors[i] = Float.POSITIVE_INFINITY;
+            }
+        }
+
+        // iterate over all the triangles, from the smallest to the biggest.***
+        for (int i = numTriangles - 1; i >= 0; i--) {
+            int k = i * 4;
+            int ax = coords[k];
+            int ay = coords[k + 1];
+            int bx = coords[k + 2];
+            int by = coords[k + 3];
+            int mx = (ax + bx) >> 1;
+            int my = (ay + by) >> 1;
+            int cx = mx + my - ay;
+            int cy = my + ax - mx;
+
+            // the error of the hypotenuse midpoint.***
+            float interpolatedHeight = (terrain[ay * gridSize + ax] + terrain[by * gridSize + bx]) / 2;
+            int middleIndex = my * gridSize + mx;
+            float middleError = Math.abs(interpolatedHeight - terrain[middleIndex]);
+            errors[middleIndex] = Math.max(errors[middleIndex], middleError);
+
+            // the parent triangles take the errors of the children, so the mesh has no cracks.***
+            if (i < numParentTriangles) {
+                int leftChildIndex = ((ay + cy) >> 1) * gridSize + ((ax + cx) >> 1);
+                int rightChildIndex = ((by + cy) >> 1) * gridSize + ((bx + cx) >> 1);
+                errors[middleIndex] = Math.max(errors[middleIndex], Math.max(errors[leftChildIndex], errors[rightChildIndex]));
+            }
+        }
+        return errors;
+    }
+
+    private void processTriangle(int ax, int ay, int bx, int by, int cx, int cy, float[] errors, double maxError,
+                                 int[] gridToVertex, IntArrayList vertexGridIndices, IntArrayList triangleIndices) {
+        int mx = (ax + bx) >> 1;
+        int my = (ay + by) >> 1;
+        if (Math.abs(ax - cx) + Math.abs(ay - cy) > 1 && errors[my * gridSize + mx] > maxError) {
+            processTriangle(cx, cy, ax, ay, mx, my, errors, maxError, gridToVertex, vertexGridIndices, triangleIndices);
+            processTriangle(bx, by, cx, cy, mx, my, errors, maxError, gridToVertex, vertexGridIndices, triangleIndices);
+            return;
+        }
+
+        // the quantized mesh triangles are counter-clockwise (x = east, y = north).***
+        long cross = (long) (bx - ax) * (cy - ay) - (long) (by - ay) * (cx - ax);
+        int secondGridIndex = cross >= 0 ? by * gridSize + bx : cy * gridSize + cx;
+        int thirdGridIndex = cross >= 0 ? cy * gridSize + cx : by * gridSize + bx;
+
+        // the vertices are numbered in the emitted order, so each new vertex is the highest index + 1 (high water mark encoding).***
+        triangleIndices.add(getVertexIndex(ay * gridSize + ax, gridToVertex, vertexGridIndices));
+        triangleIndices.add(getVertexIndex(secondGridIndex, gridToVertex, vertexGridIndices));
+        triangleIndices.add(getVertexIndex(thirdGridIndex, gridToVertex, vertexGridIndices));
+    }
+
+    private int getVertexIndex(int gridIndex, int[] gridToVertex, IntArrayList vertexGridIndices) {
+        int vertexIndex = gridToVertex[gridIndex];
+        if (vertexIndex < 0) {
+            vertexIndex = vertexGridIndices.size();
+            gridToVertex[gridIndex] = vertexIndex;
+            vertexGridIndices.add(gridIndex);
+        }
+        return vertexIndex;
+    }
+
+    private void snapBorderVertices(float[] terrain, int start, int stride, boolean[] fixed, int[] gridToVertex) {
+        int prevFixed = 0;
+        for (int p = 1; p <= tileSize; p++) {
+            if (!fixed[start + p * stride]) {
+                continue;
+            }
+            float prevHeight = terrain[start + prevFixed * stride];
+            float nextHeight = terrain[start + p * stride];
+            for (int q = prevFixed + 1; q < p; q++) {
+                int gridIndex = start + q * stride;
+                if (gridToVertex[gridIndex] >= 0) {
+                    float factor = (float) (q - prevFixed) / (p - prevFixed);
+                    terrain[gridIndex] = prevHeight + (nextHeight - prevHeight) * factor;
+                }
+            }
+            prevFixed = p;
+        }
+    }
+
+    private QuantizedMesh encodeQuantizedMesh(GeographicExtension geoExtension, float[] terrain, int[] gridToVertex,
+                                              IntArrayList vertexGridIndices, IntArrayList triangleIndices, boolean calculateNormals) {
+        int vertexCount = vertexGridIndices.size();
+        int triangleCount = triangleIndices.size() / 3;
+        double minLonDeg = geoExtension.getMinLongitudeDeg();
+        double minLatDeg = geoExtension.getMinLatitudeDeg();
+        double deltaLonDeg = geoExtension.getLongitudeRangeDegree() / tileSize;
+        double deltaLatDeg = geoExtension.getLatitudeRangeDegree() / tileSize;
+
+        // heights range & positions in world coordinates.***
+        double minimumHeight = Double.MAX_VALUE;
+        double maximumHeight = -Double.MAX_VALUE;
+        double[] positionsWC = new double[vertexCount * 3];
+        for (int i = 0; i < vertexCount; i++) {
+            int gridIndex = vertexGridIndices.get(i);
+            double height = terrain[gridIndex];
+            minimumHeight = Math.min(minimumHeight, height);
+            maximumHeight = Math.max(maximumHeight, height);
+
+            double lonDeg = minLonDeg + (gridIndex % gridSize) * deltaLonDeg;
+            double latDeg = minLatDeg + (gridIndex / gridSize) * deltaLatDeg;
+            GlobeUtils.geographicToCartesianWgs84(lonDeg, latDeg, height, positionsWC, i * 3);
+        }
+
+        QuantizedMeshManager quantizedMeshManager = new QuantizedMeshManager();
+        QuantizedMesh quantizedMesh = new QuantizedMesh();
+        quantizedMesh.setHeader(quantizedMeshManager.makeHeader(geoExtension, minimumHeight, maximumHeight, positionsWC, vertexCount));
+        quantizedMesh.setVertexCount(vertexCount);
+        quantizedMesh.setTriangleCount(triangleCount);
+
+        double heightRange = maximumHeight - minimumHeight;
+        if (heightRange == 0.0) heightRange = 1.0;
+        double heightScale = QUANTIZED_MAX / heightRange;
+        short[] uBuffer = new short[vertexCount];
+        short[] vBuffer = new short[vertexCount];
+        short[] heightBuffer = new short[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            int gridIndex = vertexGridIndices.get(i);
+            uBuffer[i] = (short) Math.round((gridIndex % gridSize) * QUANTIZED_MAX / tileSize);
+            vBuffer[i] = (short) Math.round((gridIndex / gridSize) * QUANTIZED_MAX / tileSize);
+            heightBuffer[i] = (short) ((terrain[gridIndex] - minimumHeight) * heightScale);
+        }
+        quantizedMesh.setUBuffer(uBuffer);
+        quantizedMesh.setVBuffer(vBuffer);
+        quantizedMesh.setHeightBuffer(heightBuffer);
+        quantizedMesh.setTriangleIndices(triangleIndices.toArray());
+
+        // edge indices : west up to down, south left to right, east down to up, north right to left.***
+        int last = tileSize;
+        int[] westIndices = getBorderVertexIndices(last * gridSize, -gridSize, gridToVertex);
+        int[] southIndices = getBorderVertexIndices(0, 1, gridToVertex);
+        int[] eastIndices = getBorderVertexIndices(last, gridSize, gridToVertex);
+        int[] northIndices = getBorderVertexIndices(last * gridSize + last, -1, gridToVertex);
+        quantizedMesh.setWestIndices(westIndices);
+        quantizedMesh.setWestVertexCount(westIndices.length);
+        quantizedMesh.setSouthIndices(southIndices);
+        quantizedMesh.setSouthVertexCount(southIndices.length);
+        quantizedMesh.setEastIndices(eastIndices);
+        quantizedMesh.setEastVertexCount(eastIndices.length);
+        quantizedMesh.setNorthIndices(northIndices);
+        quantizedMesh.setNorthVertexCount(northIndices.length);
+
+        if (calculateNormals) {
+            quantizedMesh.setOctEncodedNormals(makeOctEncodedNormals(positionsWC, vertexCount, quantizedMesh.getTriangleIndices()));
+            // Terrain Lighting, extension Id: 1
+            quantizedMesh.setExtensionId((byte) 1);
+            quantizedMesh.setExtensionLength(vertexCount * 2);
+        }
+        return quantizedMesh;
+    }
+
+    private int[] getBorderVertexIndices(int start, int stride, int[] gridToVertex) {
+        IntArrayList borderIndices = new IntArrayList();
+        for (int p = 0; p <= tileSize; p++) {
+            int vertexIndex = gridToVertex[start + p * stride];
+            if (vertexIndex >= 0) {
+                borderIndices.add(vertexIndex);
+            }
+        }
+        return borderIndices.toArray();
+    }
+
+    private byte[] makeOctEncodedNormals(double[] positionsWC, int vertexCount, int[] triangleIndices) {
+        double[] normals = new double[vertexCount * 3];
+        for (int i = 0; i < triangleIndices.length; i += 3) {
+            int a = triangleIndices[i] * 3;
+            int b = triangleIndices[i + 1] * 3;
+            int c = triangleIndices[i + 2] * 3;
+            double abx = positionsWC[b] - positionsWC[a];
+            double aby = positionsWC[b + 1] - positionsWC[a + 1];
+            double abz = positionsWC[b + 2] - positionsWC[a + 2];
+            double acx = positionsWC[c] - positionsWC[a];
+            double acy = positionsWC[c + 1] - positionsWC[a + 1];
+            double acz = positionsWC[c + 2] - positionsWC[a + 2];
+            double nx = aby * acz - abz * acy;
+            double ny = abz * acx - abx * acz;
+            double nz = abx * acy - aby * acx;
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length == 0.0) {
+                continue;
+            }
+            nx /= length;
+            ny /= length;
+            nz /= length;
+            normals[a] += nx;
+            normals[a + 1] += ny;
+            normals[a + 2] += nz;
+            normals[b] += nx;
+            normals[b + 1] += ny;
+            normals[b + 2] += nz;
+            normals[c] += nx;
+            normals[c + 1] += ny;
+            normals[c + 2] += nz;
+        }
+
+        // the oct encoding doesn't need normalized normals, so the sums are encoded directly, without allocations.***
+        byte[] octEncodedNormals = new byte[vertexCount * 2];
+        float[] normal = new float[3];
+        for (int i = 0; i < vertexCount; i++) {
+            int k = i * 3;
+            normal[0] = (float) normals[k];
+            normal[1] = (float) normals[k + 1];
+            normal[2] = (float) normals[k + 2];
+            if (normal[0] == 0.0f && normal[1] == 0.0f && normal[2] == 0.0f) {
+                // the ellipsoid normal (not normalized).***
+                normal[0] = (float) (positionsWC[k] / GlobeUtils.EQUATORIAL_RADIUS_SQUARED);
+                normal[1] = (float) (positionsWC[k + 1] / GlobeUtils.EQUATORIAL_RADIUS_SQUARED);
+                normal[2] = (float) (positionsWC[k + 2] / GlobeUtils.POLAR_RADIUS_SQUARED);
+            }
+            OctNormalFactory.encodeOctNormal(normal, 0, octEncodedNormals, i * 2);
+        }
+        return octEncodedNormals;
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return pool;
+    }
+
+    public synchronized void deleteObjects() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+}
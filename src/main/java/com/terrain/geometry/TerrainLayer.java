@@ -75,22 +75,47 @@ public class TerrainLayer {
      * 地形图层的地理边界数组，包含四个元素，分别为最小经度、最小纬度、最大经度、最大纬度。
      */
     private double[] bounds = null;
+    /**
+     * 瓦片 metadata 扩展中包含的子瓦片可用性层级数，0 表示瓦片不包含 metadata 扩展。
+     * 层级为该值整数倍的瓦片包含其后续层级的子瓦片可用性，这些层级不再写入 available 数组。
+     */
+    private int metadataAvailability = 0;
 
 
     public TerrainLayer() {
         this.setDefault();
     }
 
-    public HashMap<Integer, TileRange> getTilesRangeMap() {
-        HashMap<Integer, TileRange> tilesRangeMap = new HashMap<>();
+    /**
+     * 按层级分组可用瓦片范围，每个层级可以包含多个矩形范围。
+     *
+     * @return 以瓦片层级排序的瓦片范围映射表
+     */
+    public TreeMap<Integer, List<TileRange>> getTilesRangeMap() {
+        TreeMap<Integer, List<TileRange>> tilesRangeMap = new TreeMap<>();
 
         for (TileRange tilesRange : this.available) {
-            tilesRangeMap.put(tilesRange.getTileDepth(), tilesRange);
+            tilesRangeMap.computeIfAbsent(tilesRange.getTileDepth(), key -> new ArrayList<>()).add(tilesRange);
         }
 
         return tilesRangeMap;
     }
 
+    /**
+     * 使用瓦片可用性位图设置可用瓦片范围。
+     * 每个层级的位图被合并为多个矩形范围，替换当前的 available 列表。
+     *
+     * @param tileAvailability 记录已生成瓦片的可用性位图
+     */
+    public void makeAvailable(TileAvailability tileAvailability) {
+        // 清空原有的可用瓦片范围
+        this.available.clear();
+        // 按层级添加位图合并后的矩形范围
+        for (Integer tileDepth : tileAvailability.getDepths()) {
+            this.available.addAll(tileAvailability.getTileRanges(tileDepth));
+        }
+    }
+
     public void setDefault() {
         this.tilejson = "2.1.0";
         this.name = "insert name here";
@@ -116,7 +141,56 @@ public class TerrainLayer {
         if (this.extensions == null) {
             this.extensions = new ArrayList<>();
         }
-        this.extensions.add(extension);
+        // 扩展不重复添加（增量更新时图层从已有的 layer.json 读取）
+        if (!this.extensions.contains(extension)) {
+            this.extensions.add(extension);
+        }
+    }
+
+    public boolean hasExtension(String extension) {
+        return this.extensions != null && this.extensions.contains(extension);
+    }
+
+    /**
+     * 读取已有瓦片集的 layer.json，保留图层的基本属性、扩展列表和 metadataAvailability。
+     * available 数组不读取，由 generateAvailableTiles 重新生成。
+     *
+     * @param outputDirectory 瓦片集目录的路径
+     * @param layerJsonName   JSON 文件的名称
+     * @return 读取的地形图层，如果文件不存在或读取失败则返回 null
+     */
+    public static TerrainLayer loadJsonFile(String outputDirectory, String layerJsonName) {
+        File layerJsonFile = new File(outputDirectory + File.separator + layerJsonName);
+        if (!layerJsonFile.isFile()) {
+            return null;
+        }
+
+        try {
+            JsonNode root = new ObjectMapper().readTree(layerJsonFile);
+            TerrainLayer terrainLayer = new TerrainLayer();
+            terrainLayer.setTilejson(root.path("tilejson").asText(terrainLayer.getTilejson()));
+            terrainLayer.setName(root.path("name").asText(terrainLayer.getName()));
+            terrainLayer.setDescription(root.path("description").asText(terrainLayer.getDescription()));
+            terrainLayer.setVersion(root.path("version").asText(terrainLayer.getVersion()));
+            terrainLayer.setFormat(root.path("format").asText(terrainLayer.getFormat()));
+            terrainLayer.setAttribution(root.path("attribution").asText(terrainLayer.getAttribution()));
+            terrainLayer.setTemplate(root.path("template").asText(terrainLayer.getTemplate()));
+            terrainLayer.setLegend(root.path("legend").asText(terrainLayer.getLegend()));
+            terrainLayer.setScheme(root.path("scheme").asText(terrainLayer.getScheme()));
+            terrainLayer.setProjection(root.path("projection").asText(terrainLayer.getProjection()));
+            JsonNode tilesNode = root.path("tiles");
+            if (tilesNode.isArray() && tilesNode.size() > 0) {
+                terrainLayer.getTiles()[0] = tilesNode.get(0).asText();
+            }
+            for (JsonNode extensionNode : root.path("extensions")) {
+                terrainLayer.addExtension(extensionNode.asText());
+            }
+            terrainLayer.setMetadataAvailability(root.path("metadataAvailability").asInt(0));
+            return terrainLayer;
+        } catch (IOException e) {
+            log.error("Error:", e);
+            return null;
+        }
     }
 
     public boolean isInteger(String s) {
@@ -130,9 +204,10 @@ public class TerrainLayer {
 
     /**
      * 生成可用瓦片信息并计算图层边界。
-     * 该方法会遍历指定输入目录下的文件结构，提取瓦片的层级、X 坐标和 Y 坐标信息，
-     * 并将这些信息封装到 TileRange 对象中添加到 available 列表里。
-     * 最后根据最高层级的瓦片信息计算图层的地理边界。
+     * 该方法优先读取瓦片集中保存的可用性位图（生成瓦片时增量记录），
+     * 若不存在则并行扫描输入目录下的 {z}/{x}/{y}.terrain 文件结构。
+     * 每个层级的可用瓦片被合并为多个矩形范围添加到 available 列表里，
+     * 最后根据最高层级的瓦片范围计算图层的地理边界。
      *
      * @param inputPath 包含瓦片文件的输入目录路径
      */
@@ -146,90 +221,36 @@ public class TerrainLayer {
             return;
         }
 
-        // 用于存储所有检测到的瓦片深度（Z 坐标），使用 LinkedHashSet 保持插入顺序
-        Set<Integer> depthZ = new LinkedHashSet<>();
-        // 获取输入目录下的所有文件和文件夹
-        File[] depthFiles = inputDirectory.listFiles();
-        // 对获取到的文件和文件夹进行排序
-        assert depthFiles != null;
-        Arrays.sort(depthFiles);
-        // 遍历输入目录下的每个文件和文件夹
-        for (File depthFile : depthFiles) {
-            // 检查当前文件是否为文件夹
-            if (depthFile.isDirectory()) {
-                // 检查文件夹名称是否为整数
-                if (!isInteger(depthFile.getName())) {
-                    // 若不是整数，跳过当前循环
-                    continue;
-                }
-                // 用于存储当前深度下所有检测到的瓦片 X 坐标
-                Set<Integer> tileX = new LinkedHashSet<>();
-                // 用于存储当前深度下所有检测到的瓦片 Y 坐标
-                Set<Integer> tileY = new LinkedHashSet<>();
-                // 将文件夹名称转换为整数作为瓦片深度
-                int tileDepth = Integer.parseInt(depthFile.getName());
-
-                // 记录开始处理当前深度瓦片的日志信息
-                log.info("[生成][layer.json] 开始生成 layer.json 文件。瓦片层级: " + tileDepth);
-
-                // 将当前瓦片深度添加到 depthZ 集合中
-                depthZ.add(tileDepth);
-                // 获取当前深度文件夹下的所有文件和文件夹
-                File[] tileXFiles = depthFile.listFiles();
-                // 遍历当前深度文件夹下的每个文件和文件夹
-                for (File tileXFile : tileXFiles) {
-                    // 检查当前文件是否为文件夹
-                    if (tileXFile.isDirectory()) {
-                        // 检查文件夹名称是否为整数
-                        if (!isInteger(tileXFile.getName())) {
-                            // 若不是整数，跳过当前循环
-                            continue;
-                        }
-
-                        // 将文件夹名称转换为整数并添加到 tileX 集合中
-                        tileX.add(Integer.parseInt(tileXFile.getName()));
-                        // 获取当前 X 坐标文件夹下的所有文件和文件夹
-                        File[] tileYFiles = tileXFile.listFiles();
-                        // 遍历当前 X 坐标文件夹下的每个文件和文件夹
-                        assert tileYFiles != null;
-                        for (File tileYFile : tileYFiles) {
-                            // 检查当前文件是否为普通文件
-                            if (tileYFile.isFile()) {
-                                // 获取文件名并按点分割，取第一部分
-                                String tileYFileName = tileYFile.getName().split("\\.")[0];
-                                // 检查分割后的文件名是否为整数
-                                if (!isInteger(tileYFileName)) {
-                                    // 若不是整数，跳过当前循环
-                                    continue;
-                                }
-                                // 将分割后的文件名转换为整数并添加到 tileY 集合中
-                                tileY.add(Integer.parseInt(tileYFileName));
-                            }
-                        }
-                    }
-                }
-                // 创建一个新的 TileRange 对象
-                TileRange tilesRange = new TileRange();
-                // 设置 TileRange 对象的瓦片深度
-                tilesRange.setTileDepth(tileDepth);
-                // 设置 TileRange 对象的最小 X 坐标
-                tilesRange.setMinTileX(Collections.min(tileX));
-                // 设置 TileRange 对象的最大 X 坐标
-                tilesRange.setMaxTileX(Collections.max(tileX));
-                // 设置 TileRange 对象的最小 Y 坐标
-                tilesRange.setMinTileY(Collections.min(tileY));
-                // 设置 TileRange 对象的最大 Y 坐标
-                tilesRange.setMaxTileY(Collections.max(tileY));
-                // 将 TileRange 对象添加到 available 列表中
-                available.add(tilesRange);
-            }
+        // 读取保存的可用性位图，若不存在则扫描瓦片文件
+        TileAvailability tileAvailability = TileAvailability.loadOrScan(inputPath);
+        // 检查是否检测到瓦片
+        if (tileAvailability.isEmpty()) {
+            // 若没有瓦片，记录错误日志并返回
+            log.error("输入路径中没有瓦片: {}", inputPath);
+            return;
         }
-        // 记录所有可用瓦片的信息日志
-        log.info("可用瓦片: " + available);
+        // 将每个层级的位图合并为矩形范围
+        this.makeAvailable(tileAvailability);
+
         // 记录所有检测到的瓦片深度信息日志
-        log.info("瓦片深度: " + depthZ);
-        // 对 available 列表按瓦片深度进行排序
-        available.sort(Comparator.comparingInt(TileRange::getTileDepth));
+        log.info("瓦片深度: {}", tileAvailability.getDepths());
+        // 记录可用瓦片矩形范围数量的日志
+        log.info("可用瓦片范围数量: {}", available.size());
+
+        // 获取最高层级的瓦片深度
+        List<Integer> depths = tileAvailability.getDepths();
+        int lastTileDepth = depths.get(depths.size() - 1);
+        // 计算最高层级所有矩形范围的外包范围
+        int lastMinTileX = Integer.MAX_VALUE;
+        int lastMaxTileX = Integer.MIN_VALUE;
+        int lastMinTileY = Integer.MAX_VALUE;
+        int lastMaxTileY = Integer.MIN_VALUE;
+        for (TileRange tilesRange : tileAvailability.getTileRanges(lastTileDepth)) {
+            lastMinTileX = Math.min(lastMinTileX, tilesRange.getMinTileX());
+            lastMaxTileX = Math.max(lastMaxTileX, tilesRange.getMaxTileX());
+            lastMinTileY = Math.min(lastMinTileY, tilesRange.getMinTileY());
+            lastMaxTileY = Math.max(lastMaxTileY, tilesRange.getMaxTileY());
+        }
 
         // 初始化地理边界的最小经度、最大经度、最小纬度和最大纬度
         double minLon = -180.0;
@@ -237,19 +258,6 @@ public class TerrainLayer {
         double minLat = -90.0;
         double maxLat = 90.0;
 
-        // 获取 available 列表中最后一个 TileRange 对象，即最高层级的瓦片信息
-        TileRange lastTilesRange = available.get(available.size() - 1);
-        // 获取最高层级的瓦片深度
-        int lastTileDepth = lastTilesRange.getTileDepth();
-        // 获取最高层级的最小 X 坐标
-        int lastMinTileX = lastTilesRange.getMinTileX();
-        // 获取最高层级的最大 X 坐标
-        int lastMaxTileX = lastTilesRange.getMaxTileX();
-        // 获取最高层级的最小 Y 坐标
-        int lastMinTileY = lastTilesRange.getMinTileY();
-        // 获取最高层级的最大 Y 坐标
-        int lastMaxTileY = lastTilesRange.getMaxTileY();
-
         // 计算最高层级瓦片的宽度
         double tileWidth = 360.0 / Math.pow(2, lastTileDepth + 1);
         // 计算最高层级瓦片的高度
@@ -258,19 +266,13 @@ public class TerrainLayer {
         double calcMinLon = lastMinTileX * tileWidth + minLon;
         // 计算最大经度
         double calcMaxLon = (lastMaxTileX + 1) * tileWidth + minLon;
-        // 计算最小纬度
-        double calcMinLat = (lastMaxTileY + 1) * tileHeight + minLat;
+        // 计算最小纬度（tms 方案，Y 坐标从南向北递增）
+        double calcMinLat = lastMinTileY * tileHeight + minLat;
         // 计算最大纬度
-        double calcMaxLat = lastMinTileY * tileHeight + minLat;
+        double calcMaxLat = (lastMaxTileY + 1) * tileHeight + minLat;
 
-        // 记录计算得到的最小经度信息日志
-        log.info("计算最小经度: " + calcMinLon);
-        // 记录计算得到的最大经度信息日志
-        log.info("计算最大经度: " + calcMaxLon);
-        // 记录计算得到的最小纬度信息日志
-        log.info("计算最小纬度: " + calcMinLat);
-        // 记录计算得到的最大纬度信息日志
-        log.info("计算最大纬度: " + calcMaxLat);
+        // 记录计算得到的边界信息日志
+        log.info("计算边界: 经度 {} ~ {}, 纬度 {} ~ {}", calcMinLon, calcMaxLon, calcMinLat, calcMaxLat);
 
         // 更新最小经度，取当前值和计算值中的较大值
         minLon = Math.max(minLon, calcMinLon);
@@ -289,6 +291,23 @@ public class TerrainLayer {
     }
 
 
+    /**
+     * 判断瓦片层级的可用性是否由祖先瓦片的 metadata 扩展提供。
+     * 层级 tileDepth 的可用性包含在其上方最近的 metadataAvailability 整数倍层级的瓦片中，该层级必须存在瓦片。
+     *
+     * @param tileDepth     瓦片层级
+     * @param tilesRangeMap 按层级分组的瓦片范围映射表
+     * @return 若可用性由 metadata 扩展提供则返回 true
+     */
+    private boolean isMetadataAvailable(int tileDepth, TreeMap<Integer, List<TileRange>> tilesRangeMap) {
+        if (this.metadataAvailability <= 0 || tileDepth <= 0) {
+            return false;
+        }
+        // 包含该层级可用性的祖先瓦片层级
+        int metadataTileDepth = (tileDepth - 1) / this.metadataAvailability * this.metadataAvailability;
+        return tilesRangeMap.containsKey(metadataTileDepth);
+    }
+
     /**
      * 将地形图层信息保存为 JSON 文件。
      * 该方法会根据地形图层的属性构建 JSON 结构，并将其写入指定目录下的指定文件中。
@@ -334,29 +353,43 @@ public class TerrainLayer {
             objectNodeRoot.set("extensions", objectNodeExtensions);
         }
 
+        // 若瓦片包含 metadata 扩展，则添加子瓦片可用性层级数
+        if (this.metadataAvailability > 0) {
+            objectNodeRoot.put("metadataAvailability", this.metadataAvailability);
+        }
+
         // 创建 available 数组节点
         ArrayNode objectNodeAvailable = objectMapper.createArrayNode();
-        // 获取瓦片范围映射表
-        HashMap<Integer, TileRange> tilesRangeMap = this.getTilesRangeMap();
-        // 遍历瓦片范围映射表
+        // 获取按层级分组的瓦片范围映射表
+        TreeMap<Integer, List<TileRange>> tilesRangeMap = this.getTilesRangeMap();
+        // available 数组的下标即瓦片层级，因此从第 0 层写到最高层级，没有瓦片的层级写入空数组
+        // 由祖先瓦片的 metadata 扩展提供可用性的层级不写入瓦片范围，数组只写到最后一个需要写入的层级
+        int maxTileDepth = -1;
         for (Integer tileDepth : tilesRangeMap.keySet()) {
-            // 获取当前层级的瓦片范围
-            TileRange tilesRange = tilesRangeMap.get(tileDepth);
+            if (!isMetadataAvailable(tileDepth, tilesRangeMap)) {
+                maxTileDepth = tileDepth;
+            }
+        }
+        for (int tileDepth = 0; tileDepth <= maxTileDepth; tileDepth++) {
             // 创建当前层级的瓦片范围数组节点
             ArrayNode objectNodeTileDepth_array = objectMapper.createArrayNode();
-            // 创建当前层级的瓦片范围对象节点
-            ObjectNode objectNodeTileDepth = objectMapper.createObjectNode();
-            // 向对象节点添加瓦片范围的起始 X 坐标
-            objectNodeTileDepth.put("startX", tilesRange.getMinTileX());
-            // 向对象节点添加瓦片范围的结束 X 坐标
-            objectNodeTileDepth.put("endX", tilesRange.getMaxTileX());
-            // 向对象节点添加瓦片范围的起始 Y 坐标
-            objectNodeTileDepth.put("startY", tilesRange.getMinTileY());
-            // 向对象节点添加瓦片范围的结束 Y 坐标
-            objectNodeTileDepth.put("endY", tilesRange.getMaxTileY());
-
-            // 将当前层级的瓦片范围对象节点添加到数组节点中
-            objectNodeTileDepth_array.add(objectNodeTileDepth);
+            // 由 metadata 扩展提供可用性的层级写入空数组
+            List<TileRange> tilesRanges = isMetadataAvailable(tileDepth, tilesRangeMap) ? Collections.emptyList() : tilesRangeMap.getOrDefault(tileDepth, Collections.emptyList());
+            // 遍历当前层级的所有矩形范围
+            for (TileRange tilesRange : tilesRanges) {
+                // 创建当前矩形范围的对象节点
+                ObjectNode objectNodeTileDepth = objectMapper.createObjectNode();
+                // 向对象节点添加瓦片范围的起始 X 坐标
+                objectNodeTileDepth.put("startX", tilesRange.getMinTileX());
+                // 向对象节点添加瓦片范围的结束 X 坐标
+                objectNodeTileDepth.put("endX", tilesRange.getMaxTileX());
+                // 向对象节点添加瓦片范围的起始 Y 坐标
+                objectNodeTileDepth.put("startY", tilesRange.getMinTileY());
+                // 向对象节点添加瓦片范围的结束 Y 坐标
+                objectNodeTileDepth.put("endY", tilesRange.getMaxTileY());
+                // 将矩形范围对象节点添加到数组节点中
+                objectNodeTileDepth_array.add(objectNodeTileDepth);
+            }
             // 将当前层级的瓦片范围数组节点添加到 available 数组节点中
             objectNodeAvailable.add(objectNodeTileDepth_array);
         }
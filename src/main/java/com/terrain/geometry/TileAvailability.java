@@ -0,0 +1,298 @@
+package com.terrain.geometry;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.collections.api.iterator.LongIterator;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.LongLongHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Available tiles of a tileset, by depth, used to make the "available" of the layer.json.
+ * Each depth is a sparse bitmap of 64 tiles words, keyed by (y, x / 64), so the tiles are added while they are written,
+ * and the bitmap is merged into rectangles (see getTileRanges) instead of one min/max range by depth.
+ * The bitmaps are saved with the tileset (FILE_NAME), so the continue mode & the layer.json generation don't scan the tile files,
+ * and the tile files are scanned only for the tilesets without this file (see scan).
+ */
+@Slf4j
+public class TileAvailability {
+    public static final String FILE_NAME = "availability.bin";
+    private static final int FILE_MAGIC = 0x54415631; // "TAV1"
+    private static final int WORD_BITS = 64;
+
+    private final Map<Integer, LongLongHashMap> depthBitmaps = new TreeMap<>();
+
+    public synchronized void add(int depth, int x, int y) {
+        LongLongHashMap bitmap = depthBitmaps.computeIfAbsent(depth, key -> new LongLongHashMap());
+        long key = wordKey(x, y);
+        bitmap.put(key, bitmap.get(key) | (1L << (x & (WORD_BITS - 1))));
+    }
+
+    public synchronized void addColumn(int depth, int x, IntArrayList ys) {
+        for (int i = 0; i < ys.size(); i++) {
+            add(depth, x, ys.get(i));
+        }
+    }
+
+    public synchronized boolean contains(int depth, int x, int y) {
+        LongLongHashMap bitmap = depthBitmaps.get(depth);
+        if (bitmap == null) {
+            return false;
+        }
+        return (bitmap.get(wordKey(x, y)) & (1L << (x & (WORD_BITS - 1)))) != 0;
+    }
+
+    public synchronized boolean isEmpty() {
+        return depthBitmaps.isEmpty();
+    }
+
+    public synchronized List<Integer> getDepths() {
+        return new ArrayList<>(depthBitmaps.keySet());
+    }
+
+    private static long wordKey(int x, int y) {
+        return ((long) y << 32) | (x >>> 6);
+    }
+
+    /**
+     * Merges the bitmap of the depth into rectangles : the runs of each row are extended to the next row when the next row has the same run.
+     */
+    public synchronized List<TileRange> getTileRanges(int depth) {
+        List<TileRange> tileRanges = new ArrayList<>();
+        LongLongHashMap bitmap = depthBitmaps.get(depth);
+        if (bitmap == null || bitmap.isEmpty()) {
+            return tileRanges;
+        }
+
+        // the keys sorted by row & by column.***
+        LongArrayList keys = new LongArrayList(bitmap.size());
+        LongIterator iterator = bitmap.keySet().longIterator();
+        while (iterator.hasNext()) {
+            keys.add(iterator.next());
+        }
+        keys.sortThis();
+
+        Map<Long, TileRange> openRanges = new HashMap<>();
+        IntArrayList runs = new IntArrayList();
+        int prevY = -2;
+        int keyIdx = 0;
+        int keysCount = keys.size();
+        while (keyIdx < keysCount) {
+            int y = (int) (keys.get(keyIdx) >>> 32);
+            runs.clear();
+            int runStart = -1;
+            int runEnd = -2;
+            for (; keyIdx < keysCount && (int) (keys.get(keyIdx) >>> 32) == y; keyIdx++) {
+                long key = keys.get(keyIdx);
+                int base = (int) (key & 0xFFFFFFFFL) * WORD_BITS;
+                long word = bitmap.get(key);
+                while (word != 0) {
+                    int startBit = Long.numberOfTrailingZeros(word);
+                    int length = Long.numberOfTrailingZeros(~(word >>> startBit));
+                    int start = base + startBit;
+                    int end = start + length - 1;
+                    if (start == runEnd + 1) {
+                        runEnd = end;
+                    } else {
+                        if (runStart >= 0) {
+                            runs.add(runStart);
+                            runs.add(runEnd);
+                        }
+                        runStart = start;
+                        runEnd = end;
+                    }
+                    int endBit = startBit + length;
+                    word = endBit >= WORD_BITS ? 0 : word & (-1L << endBit);
+                }
+            }
+            if (runStart >= 0) {
+                runs.add(runStart);
+                runs.add(runEnd);
+            }
+
+            Map<Long, TileRange> nextOpenRanges = new HashMap<>();
+            for (int i = 0; i < runs.size(); i += 2) {
+                int minX = runs.get(i);
+                int maxX = runs.get(i + 1);
+                Long runKey = ((long) minX << 32) | maxX;
+                TileRange tileRange = (y == prevY + 1) ? openRanges.get(runKey) : null;
+                if (tileRange == null) {
+                    tileRange = new TileRange();
+                    tileRange.set(depth, minX, maxX, y, y);
+                    tileRanges.add(tileRange);
+                } else {
+                    tileRange.setMaxTileY(y);
+                }
+                nextOpenRanges.put(runKey, tileRange);
+            }
+            openRanges = nextOpenRanges;
+            prevY = y;
+        }
+        return tileRanges;
+    }
+
+    /**
+     * Saves the bitmaps in the tileset folder (write & rename, so an interrupted save keeps the previous file).
+     */
+    public synchronized void save(String tilesetPath) {
+        File file = new File(tilesetPath, FILE_NAME);
+        File tempFile = new File(tilesetPath, FILE_NAME + ".tmp");
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+            outputStream.writeInt(FILE_MAGIC);
+            outputStream.writeInt(depthBitmaps.size());
+            for (Map.Entry<Integer, LongLongHashMap> entry : depthBitmaps.entrySet()) {
+                LongLongHashMap bitmap = entry.getValue();
+                outputStream.writeInt(entry.getKey());
+                outputStream.writeInt(bitmap.size());
+                LongIterator iterator = bitmap.keySet().longIterator();
+                while (iterator.hasNext()) {
+                    long key = iterator.next();
+                    outputStream.writeLong(key);
+                    outputStream.writeLong(bitmap.get(key));
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error:", e);
+            return;
+        }
+
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.error("Error:", e);
+        }
+    }
+
+    /**
+     * Loads the saved bitmaps of the tileset, or scans the tile files if the tileset has no saved bitmaps.
+     */
+    public static TileAvailability loadOrScan(String tilesetPath) {
+        File file = new File(tilesetPath, FILE_NAME);
+        if (file.isFile()) {
+            try {
+                return load(file);
+            } catch (IOException e) {
+                log.error("Error:", e);
+            }
+        }
+
+        try {
+            return scan(tilesetPath);
+        } catch (IOException e) {
+            log.error("Error:", e);
+            return new TileAvailability();
+        }
+    }
+
+    private static TileAvailability load(File file) throws IOException {
+        TileAvailability tileAvailability = new TileAvailability();
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (inputStream.readInt() != FILE_MAGIC) {
+                throw new IOException("Invalid availability file : " + file.getAbsolutePath());
+            }
+            int depthsCount = inputStream.readInt();
+            for (int i = 0; i < depthsCount; i++) {
+                int depth = inputStream.readInt();
+                int wordsCount = inputStream.readInt();
+                LongLongHashMap bitmap = new LongLongHashMap(wordsCount);
+                for (int j = 0; j < wordsCount; j++) {
+                    long key = inputStream.readLong();
+                    bitmap.put(key, inputStream.readLong());
+                }
+                tileAvailability.depthBitmaps.put(depth, bitmap);
+            }
+        }
+        return tileAvailability;
+    }
+
+    /**
+     * Scans the {depth}/{x}/{y}.terrain files of a tileset. The X folders are scanned in parallel,
+     * and the Y files are recognized by the name only (no file attributes are read).
+     */
+    public static TileAvailability scan(String tilesetPath) throws IOException {
+        TileAvailability tileAvailability = new TileAvailability();
+        Path rootPath = Paths.get(tilesetPath);
+        if (!Files.isDirectory(rootPath)) {
+            log.error("Tileset folder does not exist : {}", tilesetPath);
+            return tileAvailability;
+        }
+
+        List<Path> xFolderPaths = new ArrayList<>();
+        IntArrayList xFolderDepths = new IntArrayList();
+        try (DirectoryStream<Path> depthStream = Files.newDirectoryStream(rootPath)) {
+            for (Path depthPath : depthStream) {
+                int depth = parseTileNumber(depthPath.getFileName().toString());
+                if (depth < 0 || !Files.isDirectory(depthPath)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> xStream = Files.newDirectoryStream(depthPath)) {
+                    for (Path xPath : xStream) {
+                        if (parseTileNumber(xPath.getFileName().toString()) >= 0) {
+                            xFolderPaths.add(xPath);
+                            xFolderDepths.add(depth);
+                        }
+                    }
+                }
+            }
+        }
+
+        IntStream.range(0, xFolderPaths.size()).parallel().forEach(i -> {
+            Path xPath = xFolderPaths.get(i);
+            int x = parseTileNumber(xPath.getFileName().toString());
+            IntArrayList ys = new IntArrayList();
+            try (DirectoryStream<Path> yStream = Files.newDirectoryStream(xPath)) {
+                for (Path yPath : yStream) {
+                    String fileName = yPath.getFileName().toString();
+                    int dotIdx = fileName.indexOf('.');
+                    if (dotIdx <= 0) {
+                        continue;
+                    }
+                    int y = parseTileNumber(fileName.substring(0, dotIdx));
+                    if (y >= 0) {
+                        ys.add(y);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Error:", e);
+            }
+            tileAvailability.addColumn(xFolderDepths.get(i), x, ys);
+        });
+        return tileAvailability;
+    }
+
+    /**
+     * Parses a non-negative tile number, or returns -1 if the text is not a number.
+     */
+    private static int parseTileNumber(String text) {
+        int length = text.length();
+        if (length == 0 || length > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -2,8 +2,8 @@ package com.terrain.geometry;
 
 import com.terrain.common.*;
 import com.terrain.enums.TerrainObjectStatus;
+import com.terrain.io.QuantizedMeshWriter;
 import com.terrain.manager.*;
-import com.twelvemonkeys.io.LittleEndianDataOutputStream;
 import com.utils.FileUtils;
 import com.utils.GeometryUtils;
 import com.utils.GlobeUtils;
@@ -16,15 +16,11 @@ import org.joml.Vector3d;
 import org.joml.Vector3f;
 import org.opengis.referencing.operation.TransformException;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.PriorityQueue;
 
 import static java.lang.Math.abs;
 
@@ -32,12 +28,17 @@ import static java.lang.Math.abs;
 public class TileMatrix {
 
     private static final GlobalOptions globalOptions = GlobalOptions.getInstance();
+    // triangles budget of the refinement, by tile of the mosaic (the budget is shared by the tiles of the mosaic, so it does not bound the
+    // vertices of each tile : the 16 or 32 bits indices of the quantized mesh depend on the vertex count, see QuantizedMeshCodec.isIndices32)
+    private static final int MAX_REFINED_TRIANGLES_PER_TILE = 65536;
     private final TileRange tilesRange;
     private final List<List<TileWgs84>> tilesMatrixRowCol = new ArrayList<>();
     public TileWgs84Manager manager;
 
     List<TerrainVertex> listVertices = new ArrayList<>();
     List<TerrainHalfEdge> listHalfEdges = new ArrayList<>();
+    // counters of the refinement of this mosaic, reported once by makeMatrixMesh
+    private final RefineCounters refineCounters = new RefineCounters();
 
     public TileMatrix(TileRange tilesRange, TileWgs84Manager manager) {
         this.tilesRange = tilesRange;
@@ -226,6 +227,7 @@ public class TileMatrix {
 
             this.recalculateElevation(resultMesh, tilesRange);
             this.refineMesh(resultMesh, tilesRange);
+            this.logRefineCounters();
 
             // check if you must calculate normals
             if (globalOptions.isCalculateNormals()) {
@@ -258,6 +260,11 @@ public class TileMatrix {
     public void saveQuantizedMeshes(List<TerrainMesh> separatedMeshes) throws IOException {
         boolean originIsLeftUp = this.manager.isOriginIsLeftUp();
         boolean calculateNormals = globalOptions.isCalculateNormals();
+        QuantizedMeshManager quantizedMeshManager = new QuantizedMeshManager();
+        QuantizedMeshWriter quantizedMeshWriter = this.manager.getQuantizedMeshWriter();
+        TileMetadataAvailability tileMetadataAvailability = this.manager.getTileMetadataAvailability();
+        boolean waterMask = this.manager.isWaterMask();
+        TerrainElevationDataManager terrainElevationDataManager = this.manager.getTerrainElevationDataManager();
 
         for (TerrainMesh mesh : separatedMeshes) {
             TerrainTriangle triangle = mesh.triangles.get(0); // take the first triangle
@@ -269,17 +276,25 @@ public class TileMatrix {
             tile.setGeographicExtension(TileWgs84Utils.getGeographicExtentOfTileLXY(tileIndices.getL(), tileIndices.getX(), tileIndices.getY(), null, imageryType, originIsLeftUp));
             tile.setMesh(mesh);
 
-            QuantizedMeshManager quantizedMeshManager = new QuantizedMeshManager();
-            QuantizedMesh quantizedMesh = quantizedMeshManager.getQuantizedMeshFromTile(tile, calculateNormals);
+            // the meshes share the border vertices, so the snapshot is made here, and the encoding & writing are done by the writer pools
+            QuantizedMeshSnapshot snapshot = quantizedMeshManager.makeSnapshot(tile, calculateNormals);
+            if (snapshot == null) {
+                continue;
+            }
+            if (waterMask) {
+                // the raster of the tile is already loaded by the mosaic, so the water mask is made from its cells with data
+                TileWgs84Raster tileRaster = terrainElevationDataManager.getTileWgs84Raster(tileIndices, this.manager);
+                snapshot.setWaterMask(tileRaster.makeWaterMask());
+            }
+            if (tileMetadataAvailability != null) {
+                snapshot.setMetadata(tileMetadataAvailability.makeMetadata(tileIndices.getL(), tileIndices.getX(), tileIndices.getY()));
+            }
             String tileFullPath = this.manager.getQuantizedMeshTilePath(tileIndices);
             String tileFolderPath = this.manager.getQuantizedMeshTileFolderPath(tileIndices);
             FileUtils.createAllFoldersIfNoExist(tileFolderPath);
 
-            LittleEndianDataOutputStream dataOutputStream = new LittleEndianDataOutputStream(new BufferedOutputStream(new FileOutputStream(tileFullPath)));
-
-            // save the tile
-            quantizedMesh.saveDataOutputStream(dataOutputStream, calculateNormals);
-            dataOutputStream.close();
+            // the tile is available only when its file is written.***
+            quantizedMeshWriter.submit(snapshot, tileFullPath, calculateNormals, this.manager.getTileAvailability());
         }
     }
 
@@ -291,17 +306,14 @@ public class TileMatrix {
 
             TerrainTriangle triangle = mesh.triangles.get(0);
             TileIndices tileIndices = triangle.getOwnerTileIndices();
-            String tileTempDirectory = globalOptions.getTileTempPath();
-            String tileFilePath = TileWgs84Utils.getTileFilePath(tileIndices.getX(), tileIndices.getY(), tileIndices.getL());
-            String tileFullPath = tileTempDirectory + File.separator + tileFilePath;
 
             if (counter >= 100) {
                 counter = 0;
-                log.debug("正在保存分离后的瓦片... 层级 : " + tileIndices.getL() + " 序号 : " + i + " / " + meshesCount);
+                log.debug("正在保存分离后的瓦片... 层级 : {} 序号 : {} / {}", tileIndices.getL(), i, meshesCount);
             }
 
             try {
-                mesh.saveFile(tileFullPath);
+                this.manager.getTileTempStore().put(tileIndices, mesh);
             } catch (IOException e) {
                 log.error("Error:", e);
                 return false;
@@ -337,14 +349,14 @@ public class TileMatrix {
         TerrainElevationDataManager terrainElevationDataManager = this.manager.getTerrainElevationDataManager();
 
         int verticesCount = verticesOfCurrentTile.size();
-        log.debug("recalculating elevations... vertices count : " + verticesCount);
+        log.debug("recalculating elevations... vertices count : {}", verticesCount);
         TileIndices tileIndicesAux = new TileIndices();
         boolean originIsLeftUp = this.manager.isOriginIsLeftUp();
         int currDepth = tilesRange.getTileDepth();
         for (int i = 0; i < verticesCount; i++) {
             TerrainVertex vertex = verticesOfCurrentTile.get(i);
             TileWgs84Utils.selectTileIndices(currDepth, vertex.getPosition().x, vertex.getPosition().y, tileIndicesAux, originIsLeftUp);
-            vertex.getPosition().z = terrainElevationDataManager.getElevationBilinearRasterTile(tileIndicesAux, this.manager, vertex.getPosition().x, vertex.getPosition().y);
+            vertex.getPosition().z = terrainElevationDataManager.getElevationBilinearRasterTile(tileIndicesAux, this.manager, vertex.getPosition().x, vertex.getPosition().y, vertex.getPosition().z);
         }
     }
 
@@ -357,9 +369,21 @@ public class TileMatrix {
      * @return 如果需要细分则返回 true，否则返回 false
      */
     public boolean mustRefineTriangle(TerrainTriangle triangle) {
+        return getTriangleRefineError(triangle) > 1.0;
+    }
+
+    /**
+     * 计算三角形的细分误差，即栅格高程与三角形平面的最大垂直距离相对于最大允许差值的比例。
+     * 大于 1.0 表示需要细分，值越大越优先细分；返回 0.0 表示不需要细分。
+     *
+     * @param triangle 要计算细分误差的三角形
+     * @return 细分误差比例
+     */
+    public double getTriangleRefineError(TerrainTriangle triangle) {
         // 检查该三角形是否已经检查过细分，若检查过则不再进行细分
         if (triangle.isRefineChecked()) {
-            return false;
+            refineCounters.filteredChecked++;
+            return 0.0;
         }
 
         // 获取地形高程数据管理器
@@ -409,36 +433,56 @@ public class TileMatrix {
         if (triangleMaxLengthMeters < minTriangleSizeForDepth) {
             // 标记该三角形已检查过细分
             triangle.setRefineChecked(true);
-            log.debug("因三角形最小尺寸过滤 : 层级 : " + tileIndices.getL() + " # 三角形最大边长（米）: " + triangleMaxLengthMeters + " # 当前层级三角形最小尺寸: " + minTriangleSizeForDepth);
-            return false;
+            refineCounters.filteredByMinSize++;
+            if (log.isTraceEnabled()) {
+                log.trace("因三角形最小尺寸过滤 : 层级 : {} # 三角形最大边长（米）: {} # 当前层级三角形最小尺寸: {}", tileIndices.getL(), triangleMaxLengthMeters, minTriangleSizeForDepth);
+            }
+            return 0.0;
         }
 
         // 获取当前层级下三角形的最大尺寸
         double maxTriangleSizeForDepth = this.manager.getMaxTriangleSizeForTileDepth(triangle.getOwnerTileIndices().getL());
         if (triangleMaxLengthMeters > maxTriangleSizeForDepth) {
-            log.debug("因三角形最大尺寸过滤 : 层级 : " + tileIndices.getL() + " # 三角形最大边长（米）: " + triangleMaxLengthMeters + " # 当前层级三角形最大尺寸: " + maxTriangleSizeForDepth);
-            return true;
+            refineCounters.splitByMaxSize++;
+            if (log.isTraceEnabled()) {
+                log.trace("因三角形最大尺寸过滤 : 层级 : {} # 三角形最大边长（米）: {} # 当前层级三角形最大尺寸: {}", tileIndices.getL(), triangleMaxLengthMeters, maxTriangleSizeForDepth);
+            }
+            // 尺寸过大的三角形优先细分，越大越优先
+            return 1.0 + triangleMaxLengthMeters / maxTriangleSizeForDepth;
+        }
+
+        // 区域更新模式：与更新范围不相交的三角形保留已有瓦片集的网格，不进行细分
+        GeographicExtension updateGeographicExtension = this.manager.getUpdateGeographicExtension();
+        if (updateGeographicExtension != null && !updateGeographicExtension.overlapsBox(bboxTriangle.getMinX(), bboxTriangle.getMinY(), bboxTriangle.getMaxX(), bboxTriangle.getMaxY())) {
+            triangle.setRefineChecked(true);
+            refineCounters.filteredOutsideData++;
+            return 0.0;
         }
 
         // 检查三角形是否与地形数据相交
         GeographicExtension rootGeographicExtension = terrainElevationDataManager.getRootGeographicExtension();
-        if (!rootGeographicExtension.intersectsBox(bboxTriangle.getMinX(), bboxTriangle.getMinY(), bboxTriangle.getMaxX(), bboxTriangle.getMaxY())) {
+        if (updateGeographicExtension == null && !rootGeographicExtension.intersectsBox(bboxTriangle.getMinX(), bboxTriangle.getMinY(), bboxTriangle.getMaxX(), bboxTriangle.getMaxY())) {
             // 仅检查三角形的三个顶点
             this.listVertices.clear();
             this.listHalfEdges.clear();
             this.listVertices = triangle.getVertices(this.listVertices, this.listHalfEdges);
+            double maxVertexZ = 0.0;
             for (TerrainVertex vertex : this.listVertices) {
-                if (vertex.getPosition().z > maxDiff) {
-                    return true;
-                }
+                maxVertexZ = Math.max(maxVertexZ, vertex.getPosition().z);
             }
 
-            return false;
+            if (maxVertexZ > maxDiff) {
+                refineCounters.splitOutsideData++;
+                return maxVertexZ / maxDiff;
+            }
+            refineCounters.filteredOutsideData++;
+            return 0.0;
         }
 
         // 检查栅格瓦片是否存在
         if (tileRaster == null) {
-            return false;
+            refineCounters.filteredNoRaster++;
+            return 0.0;
         }
 
         // 计算三角形法线与瓦片中心笛卡尔坐标法线的夹角余弦值
@@ -484,12 +528,17 @@ public class TileMatrix {
 
         // 计算高程与平面高程的距离，并乘以夹角余弦值
         double distToPlane = abs(elevation - planeElevation) * cosAng;
+        // 区域更新模式：重心在更新范围外时不检查重心
+        boolean isBarycenterUpdated = updateGeographicExtension == null || updateGeographicExtension.intersects(barycenterLonDeg, barycenterLatDeg);
 
-        if (distToPlane > maxDiff) {
+        if (isBarycenterUpdated && distToPlane > maxDiff) {
             // 因重心点距离平面过远，需要细分
-            log.debug("因重心点过滤 : 层级 : " + tileIndices.getL() + " # 列号 : " + colIdx + " # 行号 : " + rowIdx + " # 到平面的距离 : " + distToPlane + " # 最大差值 : " + maxDiff);
+            refineCounters.splitByBarycenter++;
+            if (log.isTraceEnabled()) {
+                log.trace("因重心点过滤 : 层级 : {} # 列号 : {} # 行号 : {} # 到平面的距离 : {} # 最大差值 : {}", tileIndices.getL(), colIdx, rowIdx, distToPlane, maxDiff);
+            }
 
-            return true;
+            return distToPlane / maxDiff;
         }
 
         // 获取三角形在栅格瓦片中的边界框
@@ -505,7 +554,8 @@ public class TileMatrix {
         // 如果列数或行数小于 6，则不进行细分
         if (colsCount < 6 || rowsCount < 6) {
             triangle.setRefineChecked(true);
-            return false;
+            refineCounters.filteredBySmallRaster++;
+            return 0.0;
         }
 
         // 获取三角形在栅格瓦片中的表示
@@ -541,6 +591,8 @@ public class TileMatrix {
         int rowAux = 0;
 
         boolean intersects = false;
+        // 三角形内像素到平面的最大距离
+        double maxDistToPlane = 0.0;
         // 遍历三角形边界框内的所有像素
         for (int col = startCol; col <= endCol; col++) {
             rowAux = 0;
@@ -594,6 +646,12 @@ public class TileMatrix {
 
                 posY = startLatDeg + rowAux * deltaLatDeg;
 
+                // 区域更新模式：跳过更新范围外的像素（栅格瓦片在该范围外没有数据）
+                if (updateGeographicExtension != null && !updateGeographicExtension.intersects(posX, posY)) {
+                    rowAux++;
+                    continue;
+                }
+
                 // 获取栅格瓦片在该像素位置的高程
                 float elevationFloat = tileRaster.getElevation(col, row);
 
@@ -602,35 +660,43 @@ public class TileMatrix {
 
                 // 计算高程与平面高程的距离，并乘以夹角余弦值
                 distToPlane = abs(elevationFloat - planeElevation) * cosAng;
-                if (distToPlane > maxDiff) {
-                    // 因栅格瓦片内像素距离平面过远，需要细分
-                    log.debug("因栅格瓦片过滤 : 层级 : " + tileIndices.getL() + " # 列号 : " + col + " / " + colsCount + " # 行号 : " + row + " / " + rowsCount + " # 夹角余弦值 : " + cosAng + " # 到平面的距离 : " + distToPlane + " # 最大差值 : " + maxDiff);
-
-                    return true;
-                }
+                maxDistToPlane = Math.max(maxDistToPlane, distToPlane);
                 rowAux++;
             }
             colAux++;
         }
+
+        if (maxDistToPlane > maxDiff) {
+            // 因栅格瓦片内像素距离平面过远，需要细分，误差为最大距离
+            refineCounters.splitByRasterPixels++;
+            if (log.isTraceEnabled()) {
+                log.trace("因栅格瓦片过滤 : 层级 : {} # 夹角余弦值 : {} # 到平面的最大距离 : {} # 最大差值 : {}", tileIndices.getL(), cosAng, maxDistToPlane, maxDiff);
+            }
+            return maxDistToPlane / maxDiff;
+        }
+
         // 标记该三角形已检查过细分
         triangle.setRefineChecked(true);
-        log.debug("因栅格瓦片过滤 : 层级 : " + tileIndices.getL() + " # 列号 : " + colAux + " / " + colsCount + " # 行号 : " + rowAux + " / " + rowsCount + " # 夹角余弦值 : " + cosAng + " # 到平面的距离 : " + distToPlane + " # 最大差值 : " + maxDiff);
-        return false;
+        refineCounters.filteredByRasterPixels++;
+        return 0.0;
     }
 
 
-    private boolean refineMeshOneIteration(TerrainMesh mesh, TileRange tilesRange) throws TransformException, IOException {
-        // Inside the mesh, there are triangles of 9 different tiles
-        // Here refine only the triangles of the current tile
+    public void refineMesh(TerrainMesh mesh, TileRange tilesRange) throws TransformException, IOException {
+        // Inside the mesh, there are triangles of n different tiles
+        // Here refine only the triangles of the tiles of TilesRange
+        // The triangles are refined by error order (max-heap), and only the new triangles are evaluated after each split
+
+        double maxDiff = this.manager.getMaxDiffBetweenGeoTiffSampleAndTrianglePlane(tilesRange.getTileDepth());
+        log.debug("[RefineMesh] Tile Level : {} # MaxDiff(m) : {}", tilesRange.getTileDepth(), maxDiff);
 
-        // refine the mesh
-        AtomicBoolean refined = new AtomicBoolean(false);
-        AtomicInteger splitCount = new AtomicInteger();
-        int trianglesCount = mesh.triangles.size();
-        log.debug("[RefineMesh] Triangles count : {}", trianglesCount);
-        for (int i = 0; i < trianglesCount; i++) {
-            TerrainTriangle triangle = mesh.triangles.get(i);
+        int maxGeneration = this.manager.getTriangleRefinementMaxIterations();
+        int tilesCount = (tilesRange.getMaxTileX() - tilesRange.getMinTileX() + 1) * (tilesRange.getMaxTileY() - tilesRange.getMinTileY() + 1);
+        long maxTrianglesCount = (long) tilesCount * MAX_REFINED_TRIANGLES_PER_TILE;
 
+        PriorityQueue<RefineCandidate> refineQueue = new PriorityQueue<>();
+        long trianglesCount = 0;
+        for (TerrainTriangle triangle : mesh.triangles) {
             if (triangle.getObjectStatus() == TerrainObjectStatus.DELETED) {
                 continue;
             }
@@ -638,50 +704,118 @@ public class TileMatrix {
             if (!tilesRange.intersects(triangle.getOwnerTileIndices())) {
                 continue;
             }
-            if (mustRefineTriangle(triangle)) {
-                this.manager.getTriangleList().clear();
-                this.listHalfEdges.clear();
-                mesh.splitTriangle(triangle, this.manager.getTerrainElevationDataManager(), this.manager.getTriangleList(), this.listHalfEdges);
-                this.listHalfEdges.clear();
+            trianglesCount++;
+            pushRefineCandidate(refineQueue, triangle, 0, maxGeneration);
+        }
+        log.debug("[RefineMesh] Triangles count : {}", trianglesCount);
+
+        int splitCount = 0;
+        List<TerrainTriangle> newTriangles = this.manager.getTriangleList();
+        while (!refineQueue.isEmpty() && trianglesCount < maxTrianglesCount) {
+            RefineCandidate candidate = refineQueue.poll();
+            TerrainTriangle triangle = candidate.triangle;
+            // the triangle can be split by the split of an adjacent triangle
+            if (triangle.getObjectStatus() == TerrainObjectStatus.DELETED) {
+                continue;
+            }
+
+            // the new triangles are added at the end of the mesh triangles list (also the triangles of the adjacent splits)
+            int firstNewTriangleIdx = mesh.triangles.size();
+            newTriangles.clear();
+            this.listHalfEdges.clear();
+            mesh.splitTriangle(triangle, this.manager.getTerrainElevationDataManager(), newTriangles, this.listHalfEdges);
+            this.listHalfEdges.clear();
+            newTriangles.clear();
 
-                if (!this.manager.getTriangleList().isEmpty()) {
-                    splitCount.getAndIncrement();
-                    refined.set(true);
+            int lastNewTriangleIdx = mesh.triangles.size();
+            if (lastNewTriangleIdx == firstNewTriangleIdx) {
+                continue;
+            }
+            splitCount++;
+            refineCounters.splitCount++;
+            // each split replaces n triangles by 2n triangles
+            trianglesCount += (lastNewTriangleIdx - firstNewTriangleIdx) / 2;
+
+            for (int i = firstNewTriangleIdx; i < lastNewTriangleIdx; i++) {
+                TerrainTriangle newTriangle = mesh.triangles.get(i);
+                if (newTriangle.getObjectStatus() == TerrainObjectStatus.DELETED) {
+                    continue;
                 }
-                this.manager.getTriangleList().clear();
+
+                if (!tilesRange.intersects(newTriangle.getOwnerTileIndices())) {
+                    continue;
+                }
+                pushRefineCandidate(refineQueue, newTriangle, candidate.generation + 1, maxGeneration);
             }
         }
 
-        if (refined.get()) {
+        if (trianglesCount >= maxTrianglesCount) {
+            refineCounters.budgetReached = true;
+        }
+
+        if (splitCount > 0) {
             log.debug("Removing deleted Meshes : Splited count : {}", splitCount);
             mesh.removeDeletedObjects();
             mesh.setObjectsIdInList();
         }
-
-        return refined.get();
     }
 
-    public void refineMesh(TerrainMesh mesh, TileRange tilesRange) throws TransformException, IOException {
-        // Inside the mesh, there are triangles of n different tiles
-        // Here refine only the triangles of the tiles of TilesRange
+    private void pushRefineCandidate(PriorityQueue<RefineCandidate> refineQueue, TerrainTriangle triangle, int generation, int maxGeneration) {
+        if (generation >= maxGeneration) {
+            return;
+        }
 
-        double maxDiff = this.manager.getMaxDiffBetweenGeoTiffSampleAndTrianglePlane(tilesRange.getTileDepth());
-        log.debug("[RefineMesh] Tile Level : {} # MaxDiff(m) : {}", tilesRange.getTileDepth(), maxDiff);
+        double error = getTriangleRefineError(triangle);
+        if (error > 1.0) {
+            refineQueue.add(new RefineCandidate(triangle, error, generation));
+        }
+    }
 
-        // refine the mesh
-        boolean finished = false;
-        int splitCount = 0;
-        int maxIterations = this.manager.getTriangleRefinementMaxIterations();
-        while (!finished) {
-            if (!this.refineMeshOneIteration(mesh, tilesRange)) {
-                finished = true;
-            }
+    private void logRefineCounters() {
+        long rasterMissCount = this.manager.getTerrainElevationDataManager().getAndResetRasterMissCount();
+        RefineCounters counters = this.refineCounters;
+        log.info("[RefineMesh][{}] splits : {} (max size : {}, outside data : {}, barycenter : {}, raster : {}) # filtered : checked : {}, min size : {}, outside data : {}, no raster : {}, small raster : {}, raster : {} # raster misses : {}{}",
+                tilesRange.getTileDepth(), counters.splitCount, counters.splitByMaxSize, counters.splitOutsideData, counters.splitByBarycenter, counters.splitByRasterPixels,
+                counters.filteredChecked, counters.filteredByMinSize, counters.filteredOutsideData, counters.filteredNoRaster, counters.filteredBySmallRaster, counters.filteredByRasterPixels,
+                rasterMissCount, counters.budgetReached ? " # triangles budget reached" : "");
+    }
 
-            splitCount++;
+    /**
+     * Counters of the refine decisions (see getTriangleRefineError) of a mosaic, instead of logging each decision in the hot loop.
+     */
+    private static class RefineCounters {
+        private long splitCount = 0;
+        private long splitByMaxSize = 0;
+        private long splitOutsideData = 0;
+        private long splitByBarycenter = 0;
+        private long splitByRasterPixels = 0;
+        private long filteredChecked = 0;
+        private long filteredByMinSize = 0;
+        private long filteredOutsideData = 0;
+        private long filteredNoRaster = 0;
+        private long filteredBySmallRaster = 0;
+        private long filteredByRasterPixels = 0;
+        private boolean budgetReached = false;
+    }
 
-            if (splitCount >= maxIterations) {
-                finished = true;
-            }
+    /**
+     * Triangle to refine, ordered by error (the bigger error first).
+     * The generation is the count of splits from the triangles of the original mesh, limited by the refinement iterations of the depth.
+     */
+    private static class RefineCandidate implements Comparable<RefineCandidate> {
+        private final TerrainTriangle triangle;
+        private final double error;
+        private final int generation;
+
+        RefineCandidate(TerrainTriangle triangle, double error, int generation) {
+            this.triangle = triangle;
+            this.error = error;
+            this.generation = generation;
+        }
+
+        @Override
+        public int compareTo(RefineCandidate other) {
+            return Double.compare(other.error, this.error);
         }
     }
 }
@@ -0,0 +1,117 @@
+package com.terrain.geometry;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Child availability written in the "metadata" extension of the quantized meshes (layer.json "metadataAvailability").
+ * The tiles at the depths multiple of "levels" contain the available tiles of their subtree for the next "levels" depths,
+ * so the clients learn the availability lazily instead of reading the whole "available" array of the layer.json.
+ * The parent tiles are written before their children, so the availability is made from the tiles ranges that the process will make
+ * (and from the existent tiles in the update mode), not from the written tiles.
+ */
+@Slf4j
+public class TileMetadataAvailability {
+    public static final String EXTENSION_NAME = "metadata";
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Getter
+    private final int levels;
+    private final Map<Integer, List<TileRange>> depthTileRanges = new TreeMap<>();
+
+    public TileMetadataAvailability(int levels) {
+        this.levels = levels;
+    }
+
+    public synchronized void addTileRange(TileRange tileRange) {
+        TileRange copy = new TileRange();
+        copy.set(tileRange.getTileDepth(), tileRange.getMinTileX(), tileRange.getMaxTileX(), tileRange.getMinTileY(), tileRange.getMaxTileY());
+        depthTileRanges.computeIfAbsent(copy.getTileDepth(), key -> new ArrayList<>()).add(copy);
+    }
+
+    public void addTileAvailability(TileAvailability tileAvailability) {
+        for (Integer depth : tileAvailability.getDepths()) {
+            for (TileRange tileRange : tileAvailability.getTileRanges(depth)) {
+                addTileRange(tileRange);
+            }
+        }
+    }
+
+    /**
+     * The tiles of the depth contain the metadata availability.
+     */
+    public boolean hasMetadata(int depth) {
+        return levels > 0 && depth % levels == 0;
+    }
+
+    /**
+     * Returns the available tiles ranges inside the tile (L, X, Y), for the depths L + 1 to L + levels.
+     */
+    public synchronized List<List<TileRange>> getChildTileRanges(int depth, int x, int y) {
+        List<List<TileRange>> childTileRanges = new ArrayList<>(levels);
+        for (int level = 1; level <= levels; level++) {
+            int childDepth = depth + level;
+            // the children of the tile at the child depth
+            int minX = x << level;
+            int maxX = ((x + 1) << level) - 1;
+            int minY = y << level;
+            int maxY = ((y + 1) << level) - 1;
+
+            List<TileRange> levelTileRanges = new ArrayList<>();
+            for (TileRange tileRange : depthTileRanges.getOrDefault(childDepth, Collections.emptyList())) {
+                int startX = Math.max(minX, tileRange.getMinTileX());
+                int endX = Math.min(maxX, tileRange.getMaxTileX());
+                int startY = Math.max(minY, tileRange.getMinTileY());
+                int endY = Math.min(maxY, tileRange.getMaxTileY());
+                if (startX <= endX && startY <= endY) {
+                    TileRange intersection = new TileRange();
+                    intersection.set(childDepth, startX, endX, startY, endY);
+                    levelTileRanges.add(intersection);
+                }
+            }
+            childTileRanges.add(levelTileRanges);
+        }
+        return childTileRanges;
+    }
+
+    /**
+     * Makes the json of the metadata extension of the tile : {"available":[[{"startX":..,"startY":..,"endX":..,"endY":..}], ...]},
+     * or null if the tile has no metadata.
+     */
+    public byte[] makeMetadata(int depth, int x, int y) {
+        if (!hasMetadata(depth)) {
+            return null;
+        }
+
+        ObjectNode objectNodeRoot = OBJECT_MAPPER.createObjectNode();
+        ArrayNode objectNodeAvailable = objectNodeRoot.putArray("available");
+        for (List<TileRange> levelTileRanges : getChildTileRanges(depth, x, y)) {
+            ArrayNode objectNodeLevel = objectNodeAvailable.addArray();
+            for (TileRange tileRange : levelTileRanges) {
+                ObjectNode objectNodeTileRange = objectNodeLevel.addObject();
+                objectNodeTileRange.put("startX", tileRange.getMinTileX());
+                objectNodeTileRange.put("startY", tileRange.getMinTileY());
+                objectNodeTileRange.put("endX", tileRange.getMaxTileX());
+                objectNodeTileRange.put("endY", tileRange.getMaxTileY());
+            }
+        }
+
+        try {
+            return OBJECT_MAPPER.writeValueAsString(objectNodeRoot).getBytes(StandardCharsets.UTF_8);
+        } catch (JsonProcessingException e) {
+            log.error("Error:", e);
+            return null;
+        }
+    }
+}
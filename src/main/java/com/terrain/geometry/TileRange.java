@@ -65,6 +65,16 @@ public class TileRange {
 
     }
 
+    /**
+     * Returns the tiles range of the ancestorDepth that contains this tiles range.
+     */
+    public TileRange getAncestorTileRange(int ancestorDepth) {
+        int shift = tileDepth - ancestorDepth;
+        TileRange ancestorTilesRange = new TileRange();
+        ancestorTilesRange.set(ancestorDepth, minTileX >> shift, maxTileX >> shift, minTileY >> shift, maxTileY >> shift);
+        return ancestorTilesRange;
+    }
+
     public boolean intersects(TileIndices tileIndices) {
         if (tileIndices.getL() != tileDepth) {
             return false;
@@ -0,0 +1,184 @@
+package com.terrain.geometry;
+
+import com.terrain.common.GlobalOptions;
+import com.terrain.manager.QuantizedMesh;
+import com.terrain.manager.QuantizedMeshHeader;
+
+import java.util.Arrays;
+
+/**
+ * Skirts of the quantized meshes : a vertical wall hanging down from each edge of the tile, that hides the cracks between neighbor tiles
+ * meshed independently. Each edge vertex (see the edge indices of the QuantizedMesh) gets a skirt vertex at the same u, v, and 2 triangles
+ * are added by edge segment. The skirt vertices & triangles are appended after the vertices & triangles of the tile, so they can be removed
+ * when the tile is loaded again (see removeSkirts).
+ */
+public class TileSkirt {
+    private final static GlobalOptions globalOptions = GlobalOptions.getInstance();
+    private static final double QUANTIZED_MAX = 32767.0;
+    private static final double MAXIMUM_RADIUS = 6378137.0;
+    private static final double MAX_SKIRT_HEIGHT = 1000.0;
+
+    private TileSkirt() {
+    }
+
+    /**
+     * Returns the skirt height of the depth : the option, or as Cesium, 5 times the maximum geometric error of the level (at most 1000 m).
+     */
+    public static double getSkirtHeight(int tileDepth) {
+        double skirtHeight = globalOptions.getSkirtHeight();
+        if (skirtHeight > 0.0) {
+            return skirtHeight;
+        }
+
+        // the geometric error of a 65 x 65 heightmap, the level 0 has 2 tiles in longitude.***
+        double levelZeroMaximumGeometricError = MAXIMUM_RADIUS * 2.0 * Math.PI * 0.25 / (65.0 * 2.0);
+        double levelMaximumGeometricError = levelZeroMaximumGeometricError / (1L << tileDepth);
+        return Math.min(levelMaximumGeometricError * 5.0, MAX_SKIRT_HEIGHT);
+    }
+
+    /**
+     * Adds the skirts to the quantized mesh. The minimum height of the header is lowered by the skirt height, and the heights are quantized again.
+     */
+    public static void addSkirts(QuantizedMesh quantizedMesh, double skirtHeight) {
+        int vertexCount = quantizedMesh.getVertexCount();
+        int[] westIndices = quantizedMesh.getWestIndices();
+        int[] southIndices = quantizedMesh.getSouthIndices();
+        int[] eastIndices = quantizedMesh.getEastIndices();
+        int[] northIndices = quantizedMesh.getNorthIndices();
+        int skirtVertexCount = getSkirtVertexCount(westIndices) + getSkirtVertexCount(southIndices) + getSkirtVertexCount(eastIndices) + getSkirtVertexCount(northIndices);
+        if (skirtVertexCount == 0 || skirtHeight <= 0.0) {
+            return;
+        }
+        int skirtTriangleCount = getSkirtTriangleCount(westIndices) + getSkirtTriangleCount(southIndices) + getSkirtTriangleCount(eastIndices) + getSkirtTriangleCount(northIndices);
+
+        // the skirt vertices are at the new minimum height, so the heights of the tile are quantized again.***
+        QuantizedMeshHeader header = quantizedMesh.getHeader();
+        double minimumHeight = header.getMinimumHeight();
+        double maximumHeight = header.getMaximumHeight();
+        double heightRange = maximumHeight - minimumHeight;
+        if (heightRange == 0.0) heightRange = 1.0;
+        double skirtMinimumHeight = minimumHeight - skirtHeight;
+        double skirtHeightRange = maximumHeight - skirtMinimumHeight;
+        header.setMinimumHeight((float) skirtMinimumHeight);
+
+        int totalVertexCount = vertexCount + skirtVertexCount;
+        short[] uBuffer = Arrays.copyOf(quantizedMesh.getUBuffer(), totalVertexCount);
+        short[] vBuffer = Arrays.copyOf(quantizedMesh.getVBuffer(), totalVertexCount);
+        short[] heightBuffer = new short[totalVertexCount];
+        short[] tileHeights = quantizedMesh.getHeightBuffer();
+        for (int i = 0; i < vertexCount; i++) {
+            double height = minimumHeight + (tileHeights[i] & 0xFFFF) * heightRange / QUANTIZED_MAX;
+            heightBuffer[i] = (short) Math.round((height - skirtMinimumHeight) * QUANTIZED_MAX / skirtHeightRange);
+        }
+
+        int triangleCount = quantizedMesh.getTriangleCount();
+        int[] triangleIndices = Arrays.copyOf(quantizedMesh.getTriangleIndices(), (triangleCount + skirtTriangleCount) * 3);
+
+        byte[] octEncodedNormals = quantizedMesh.getOctEncodedNormals();
+        byte[] skirtOctEncodedNormals = octEncodedNormals != null ? Arrays.copyOf(octEncodedNormals, totalVertexCount * 2) : null;
+
+        // the edges are counterclockwise (west up to down, south left to right, east down to up, north right to left),
+        // so the skirt triangles face outside.***
+        int skirtVertex = vertexCount;
+        int indexOffset = triangleCount * 3;
+        for (int[] edgeIndices : new int[][]{westIndices, southIndices, eastIndices, northIndices}) {
+            if (getSkirtVertexCount(edgeIndices) == 0) {
+                continue;
+            }
+            for (int j = 0; j < edgeIndices.length; j++, skirtVertex++) {
+                int edgeVertex = edgeIndices[j];
+                uBuffer[skirtVertex] = uBuffer[edgeVertex];
+                vBuffer[skirtVertex] = vBuffer[edgeVertex];
+                heightBuffer[skirtVertex] = 0;
+                if (skirtOctEncodedNormals != null) {
+                    skirtOctEncodedNormals[skirtVertex * 2] = skirtOctEncodedNormals[edgeVertex * 2];
+                    skirtOctEncodedNormals[skirtVertex * 2 + 1] = skirtOctEncodedNormals[edgeVertex * 2 + 1];
+                }
+                if (j == 0) {
+                    continue;
+                }
+
+                int previousEdgeVertex = edgeIndices[j - 1];
+                int previousSkirtVertex = skirtVertex - 1;
+                triangleIndices[indexOffset++] = previousEdgeVertex;
+                triangleIndices[indexOffset++] = previousSkirtVertex;
+                triangleIndices[indexOffset++] = edgeVertex;
+                triangleIndices[indexOffset++] = edgeVertex;
+                triangleIndices[indexOffset++] = previousSkirtVertex;
+                triangleIndices[indexOffset++] = skirtVertex;
+            }
+        }
+
+        quantizedMesh.setVertexCount(totalVertexCount);
+        quantizedMesh.setUBuffer(uBuffer);
+        quantizedMesh.setVBuffer(vBuffer);
+        quantizedMesh.setHeightBuffer(heightBuffer);
+        quantizedMesh.setTriangleCount(triangleCount + skirtTriangleCount);
+        quantizedMesh.setTriangleIndices(triangleIndices);
+        if (skirtOctEncodedNormals != null) {
+            quantizedMesh.setOctEncodedNormals(skirtOctEncodedNormals);
+            quantizedMesh.setExtensionLength(skirtOctEncodedNormals.length);
+        }
+    }
+
+    /**
+     * Removes the skirts of a loaded quantized mesh, if it has skirts (see addSkirts). The heights are not quantized again,
+     * they are decoded with the minimum height of the header.
+     *
+     * @return true if the skirts were removed
+     */
+    public static boolean removeSkirts(QuantizedMesh quantizedMesh) {
+        int[] westIndices = quantizedMesh.getWestIndices();
+        int[] southIndices = quantizedMesh.getSouthIndices();
+        int[] eastIndices = quantizedMesh.getEastIndices();
+        int[] northIndices = quantizedMesh.getNorthIndices();
+        int skirtVertexCount = getSkirtVertexCount(westIndices) + getSkirtVertexCount(southIndices) + getSkirtVertexCount(eastIndices) + getSkirtVertexCount(northIndices);
+        int skirtTriangleCount = getSkirtTriangleCount(westIndices) + getSkirtTriangleCount(southIndices) + getSkirtTriangleCount(eastIndices) + getSkirtTriangleCount(northIndices);
+        int vertexCount = quantizedMesh.getVertexCount() - skirtVertexCount;
+        int triangleCount = quantizedMesh.getTriangleCount() - skirtTriangleCount;
+        if (skirtVertexCount == 0 || vertexCount <= 0 || triangleCount <= 0) {
+            return false;
+        }
+
+        // the mesh has skirts if the last vertices are the edge vertices at the minimum height.***
+        short[] uBuffer = quantizedMesh.getUBuffer();
+        short[] vBuffer = quantizedMesh.getVBuffer();
+        short[] heightBuffer = quantizedMesh.getHeightBuffer();
+        int skirtVertex = vertexCount;
+        for (int[] edgeIndices : new int[][]{westIndices, southIndices, eastIndices, northIndices}) {
+            if (getSkirtVertexCount(edgeIndices) == 0) {
+                continue;
+            }
+            for (int edgeVertex : edgeIndices) {
+                if (edgeVertex >= vertexCount || uBuffer[skirtVertex] != uBuffer[edgeVertex] || vBuffer[skirtVertex] != vBuffer[edgeVertex] || heightBuffer[skirtVertex] != 0) {
+                    return false;
+                }
+                skirtVertex++;
+            }
+        }
+
+        quantizedMesh.setVertexCount(vertexCount);
+        quantizedMesh.setUBuffer(Arrays.copyOf(uBuffer, vertexCount));
+        quantizedMesh.setVBuffer(Arrays.copyOf(vBuffer, vertexCount));
+        quantizedMesh.setHeightBuffer(Arrays.copyOf(heightBuffer, vertexCount));
+        quantizedMesh.setTriangleCount(triangleCount);
+        quantizedMesh.setTriangleIndices(Arrays.copyOf(quantizedMesh.getTriangleIndices(), triangleCount * 3));
+
+        byte[] octEncodedNormals = quantizedMesh.getOctEncodedNormals();
+        if (octEncodedNormals != null && octEncodedNormals.length >= vertexCount * 2) {
+            byte[] tileOctEncodedNormals = Arrays.copyOf(octEncodedNormals, vertexCount * 2);
+            quantizedMesh.setOctEncodedNormals(tileOctEncodedNormals);
+            quantizedMesh.setExtensionLength(tileOctEncodedNormals.length);
+        }
+        return true;
+    }
+
+    // an edge of less than 2 vertices has no skirt.***
+    private static int getSkirtVertexCount(int[] edgeIndices) {
+        return edgeIndices != null && edgeIndices.length >= 2 ? edgeIndices.length : 0;
+    }
+
+    private static int getSkirtTriangleCount(int[] edgeIndices) {
+        return getSkirtVertexCount(edgeIndices) > 0 ? (edgeIndices.length - 1) * 2 : 0;
+    }
+}
@@ -0,0 +1,49 @@
+package com.terrain.geometry;
+
+import java.util.BitSet;
+
+/**
+ * Water mask of the "watermask" extension of the quantized meshes, made from the cells with data of an elevation grid :
+ * the cells without data are water, the cells with data are land.
+ * The mask is 1 byte (0 = land, 255 = water) if the tile is all land or all water, or 256 x 256 bytes, from north to south & west to east.
+ */
+public class TileWaterMask {
+    public static final String EXTENSION_NAME = "watermask";
+    public static final int MASK_SIZE = 256;
+    public static final byte LAND = 0;
+    public static final byte WATER = (byte) 255;
+
+    private TileWaterMask() {
+    }
+
+    /**
+     * Makes the water mask from the cells with data of a grid of columns x rows, row 0 at the south (see TerrainElevationDataManager.makeElevationGrid).
+     */
+    public static byte[] makeWaterMask(BitSet dataMask, int columns, int rows) {
+        int cellsCount = columns * rows;
+        int dataCount = dataMask.cardinality();
+        if (dataCount >= cellsCount) {
+            return new byte[]{LAND};
+        } else if (dataCount == 0) {
+            return new byte[]{WATER};
+        }
+
+        // nearest cell of each mask pixel.***
+        int[] columnOfPixel = new int[MASK_SIZE];
+        for (int i = 0; i < MASK_SIZE; i++) {
+            columnOfPixel[i] = Math.min(columns - 1, (int) ((i + 0.5) * columns / MASK_SIZE));
+        }
+
+        byte[] waterMask = new byte[MASK_SIZE * MASK_SIZE];
+        for (int maskRow = 0; maskRow < MASK_SIZE; maskRow++) {
+            // the mask rows are from north to south.***
+            int row = rows - 1 - Math.min(rows - 1, (int) ((maskRow + 0.5) * rows / MASK_SIZE));
+            int rowOffset = row * columns;
+            int maskRowOffset = maskRow * MASK_SIZE;
+            for (int maskCol = 0; maskCol < MASK_SIZE; maskCol++) {
+                waterMask[maskRowOffset + maskCol] = dataMask.get(rowOffset + columnOfPixel[maskCol]) ? LAND : WATER;
+            }
+        }
+        return waterMask;
+    }
+}
@@ -1,7 +1,6 @@
 package com.terrain.geometry;
 
 import com.terrain.common.*;
-import com.terrain.manager.TerrainElevationData;
 import com.terrain.manager.TerrainElevationDataManager;
 import com.terrain.manager.TileIndices;
 import com.terrain.manager.TileWgs84Manager;
@@ -14,9 +13,8 @@ import org.joml.Vector2i;
 import org.joml.Vector3d;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 
 @Slf4j
 @Getter
@@ -26,6 +24,8 @@ public class TileWgs84Raster {
     private TileIndices tileIndices;
     private GeographicExtension geographicExtension;
     private float[] elevations = null;
+    // cells with elevation data, only made if the water mask is written (null otherwise)
+    private BitSet dataMask = null;
     private int rasterWidth = 0;
     private int rasterHeight = 0;
     private double deltaLonDeg = 0;
@@ -86,7 +86,7 @@ public class TileWgs84Raster {
         int row = getRow(latDeg);
 
         if (col < 0 || col >= rasterWidth || row < 0 || row >= rasterHeight) {
-            log.info("getElevationBilinear: col or row is out of range. col = " + col + ", row = " + row);
+            // the misses are counted by the TerrainElevationDataManager.***
             return Float.NaN;
         }
 
@@ -113,6 +113,17 @@ public class TileWgs84Raster {
     public void deleteObjects() {
         this.geographicExtension = null;
         this.elevations = null;
+        this.dataMask = null;
+    }
+
+    /**
+     * Makes the water mask of the tile from the cells without data, or returns null if the data mask was not made.
+     */
+    public byte[] makeWaterMask() {
+        if (dataMask == null) {
+            return null;
+        }
+        return TileWaterMask.makeWaterMask(dataMask, rasterWidth, rasterHeight);
     }
 
     public void makeElevations(TerrainElevationDataManager terrainElevationDataManager, int rasterWidth, int rasterHeight) {
@@ -137,25 +148,93 @@ public class TileWgs84Raster {
         double semiDeltaLonDeg = deltaLonDeg * 0.5;
         double semiDeltaLatDeg = deltaLatDeg * 0.5;
 
-        // make intersected terrainElevationDataList.***
-        GeographicExtension geoExtension = this.getGeographicExtension();
-        List<TerrainElevationData> resultTerrainElevDataArray = this.manager.getTerrainElevationDataList();
-        resultTerrainElevDataArray.clear();
-        // Debug : check if the terrainElevationDataList is intersected with the geoExtension.***
-        Map<TerrainElevationData, TerrainElevationData> terrainElevDataMap = new HashMap<>();
-        terrainElevationDataManager.getTerrainElevationDataArray(geoExtension, terrainElevDataMap);
-        resultTerrainElevDataArray = new ArrayList<>(terrainElevDataMap.keySet());
+        // the cells with data are kept only for the water mask.***
+        this.dataMask = manager.isWaterMask() ? new BitSet(elevationsCount) : null;
+
+        // the elevations are sampled at the center of each cell.***
+        terrainElevationDataManager.makeElevationGrid(this.getGeographicExtension(), rasterWidth, rasterHeight,
+                minLonDeg + semiDeltaLonDeg, minLatDeg + semiDeltaLatDeg, deltaLonDeg, deltaLatDeg, elevations, dataMask);
+    }
+
+    /**
+     * Makes the elevations by bilinear upsampling of the raster tile of an ancestor depth that contains this tile, instead of sampling the geoTiffs.
+     * Used for the depths without new source detail (see TerrainElevationDataManager.setSourceRasterDepth).
+     */
+    public void makeElevationsFromSourceRaster(TileWgs84Raster sourceRaster, int rasterWidth, int rasterHeight) {
+        this.rasterWidth = rasterWidth;
+        this.rasterHeight = rasterHeight;
 
+        int elevationsCount = rasterWidth * rasterHeight;
+        this.elevations = new float[elevationsCount];
+
+        double minLonDeg = this.geographicExtension.getMinLongitudeDeg();
+        double minLatDeg = this.geographicExtension.getMinLatitudeDeg();
+        deltaLonDeg = (this.geographicExtension.getMaxLongitudeDeg() - minLonDeg) / (rasterWidth - 1);
+        deltaLatDeg = (this.geographicExtension.getMaxLatitudeDeg() - minLatDeg) / (rasterHeight - 1);
+
+        int sourceWidth = sourceRaster.getRasterWidth();
+        int sourceHeight = sourceRaster.getRasterHeight();
+        float[] sourceElevations = sourceRaster.getElevations();
+        BitSet sourceDataMask = sourceRaster.getDataMask();
+        this.dataMask = manager.isWaterMask() && sourceDataMask != null ? new BitSet(elevationsCount) : null;
+
+        // the source cells & the weights of each column and each row, the samples of both rasters are at the center of the cells.***
+        int[] sourceColumns = new int[rasterWidth];
+        float[] columnWeights = new float[rasterWidth];
+        double sourceMinLonDeg = sourceRaster.getGeographicExtension().getMinLongitudeDeg();
         for (int col = 0; col < rasterWidth; col++) {
-            double lonDeg = minLonDeg + semiDeltaLonDeg + col * deltaLonDeg;
-            for (int row = 0; row < rasterHeight; row++) {
-                double latDeg = minLatDeg + semiDeltaLatDeg + row * deltaLatDeg;
-                int idx = row * rasterWidth + col;
-                elevations[idx] = (float) terrainElevationDataManager.getElevation(lonDeg, latDeg, resultTerrainElevDataArray);
+            double lonDeg = minLonDeg + (col + 0.5) * deltaLonDeg;
+            double sourceCol = (lonDeg - sourceMinLonDeg) / sourceRaster.getDeltaLonDeg() - 0.5;
+            sourceColumns[col] = getSourceCell(sourceCol, sourceWidth);
+            columnWeights[col] = (float) Math.max(0.0, Math.min(1.0, sourceCol - sourceColumns[col]));
+        }
+
+        int[] sourceRows = new int[rasterHeight];
+        float[] rowWeights = new float[rasterHeight];
+        double sourceMinLatDeg = sourceRaster.getGeographicExtension().getMinLatitudeDeg();
+        for (int row = 0; row < rasterHeight; row++) {
+            double latDeg = minLatDeg + (row + 0.5) * deltaLatDeg;
+            double sourceRow = (latDeg - sourceMinLatDeg) / sourceRaster.getDeltaLatDeg() - 0.5;
+            sourceRows[row] = getSourceCell(sourceRow, sourceHeight);
+            rowWeights[row] = (float) Math.max(0.0, Math.min(1.0, sourceRow - sourceRows[row]));
+        }
+
+        for (int row = 0; row < rasterHeight; row++) {
+            int sourceRowOffset0 = sourceRows[row] * sourceWidth;
+            int sourceRowOffset1 = sourceRowOffset0 + sourceWidth;
+            float rowWeight = rowWeights[row];
+            int rowOffset = row * rasterWidth;
+            for (int col = 0; col < rasterWidth; col++) {
+                int sourceCol = sourceColumns[col];
+                float columnWeight = columnWeights[col];
+
+                float z00 = sourceElevations[sourceRowOffset0 + sourceCol];
+                float z10 = sourceElevations[sourceRowOffset0 + sourceCol + 1];
+                float z01 = sourceElevations[sourceRowOffset1 + sourceCol];
+                float z11 = sourceElevations[sourceRowOffset1 + sourceCol + 1];
+
+                float z0 = z00 + (z10 - z00) * columnWeight;
+                float z1 = z01 + (z11 - z01) * columnWeight;
+                elevations[rowOffset + col] = z0 + (z1 - z0) * rowWeight;
+
+                if (dataMask != null) {
+                    // the data mask takes the nearest source cell.***
+                    int nearestOffset = (rowWeight < 0.5f ? sourceRowOffset0 : sourceRowOffset1) + sourceCol + (columnWeight < 0.5f ? 0 : 1);
+                    if (sourceDataMask.get(nearestOffset)) {
+                        dataMask.set(rowOffset + col);
+                    }
+                }
             }
         }
     }
 
+    /**
+     * Returns the first of the 2 source cells used to interpolate the continuous cell coordinate, clamped to the raster.
+     */
+    private static int getSourceCell(double sourceCell, int sourceSize) {
+        return Math.max(0, Math.min(sourceSize - 2, (int) Math.floor(sourceCell)));
+    }
+
     public RasterTriangle getRasterTriangle(TerrainTriangle triangle) {
         RasterTriangle rasterTriangle = new RasterTriangle();
 
@@ -0,0 +1,230 @@
+package com.terrain.io;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Raw float32 elevation grid (little-endian, row major), memory mapped for reading.
+ * Header : magic(int) + version(int) + width(int) + height(int) + source length(long) + source last modified time(long), then width * height floats.
+ * The noData samples are stored as NaN. The grid is made again when the source geoTiff changes (see isUpToDate).
+ * The mapping is divided in segments of complete rows, so grids bigger than 2GB can be mapped too.
+ */
+@Slf4j
+@Getter
+public class MappedFloatGrid {
+    public static final String FILE_EXTENSION = ".f32grid";
+    private static final int MAGIC = 0x44495247; // "GRID" little-endian
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+    private static final int WRITE_STRIP_ROWS = 256;
+
+    private final int width;
+    private final int height;
+    private final int rowsPerSegment;
+    private final FloatBuffer[] segments;
+
+    private MappedFloatGrid(int width, int height, int rowsPerSegment, FloatBuffer[] segments) {
+        this.width = width;
+        this.height = height;
+        this.rowsPerSegment = rowsPerSegment;
+        this.segments = segments;
+    }
+
+    public static String getGridFilePath(String gridFolderPath, String geoTiffFilePath) {
+        // the geoTiff can be in the input folder, so the grid is saved in the temp folder, named by the geoTiff absolute path
+        File geoTiffFile = new File(geoTiffFilePath);
+        String pathHash = Integer.toHexString(geoTiffFile.getAbsolutePath().hashCode());
+        return gridFolderPath + File.separator + geoTiffFile.getName() + "_" + pathHash + FILE_EXTENSION;
+    }
+
+    /**
+     * Returns true if the grid file exists and was written from the current version of the source geoTiff (same length & last modified time).
+     */
+    public static boolean isUpToDate(String gridFilePath, String sourceFilePath) {
+        File gridFile = new File(gridFilePath);
+        if (!gridFile.isFile()) {
+            return false;
+        }
+        File sourceFile = new File(sourceFilePath);
+        try (FileChannel channel = FileChannel.open(gridFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, gridFilePath);
+            header.position(HEADER_SIZE - 2 * Long.BYTES);
+            return header.getLong() == sourceFile.length() && header.getLong() == sourceFile.lastModified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel, String gridFilePath) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header) < 0) {
+                throw new IOException("Invalid grid file : " + gridFilePath);
+            }
+        }
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Invalid grid file : " + gridFilePath);
+        }
+        return header;
+    }
+
+    public static MappedFloatGrid open(String gridFilePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(gridFilePath).toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, gridFilePath);
+            int width = header.getInt();
+            int height = header.getInt();
+            long rowBytes = (long) width * Float.BYTES;
+            if (width <= 0 || height <= 0 || channel.size() < HEADER_SIZE + rowBytes * height) {
+                throw new IOException("Invalid grid file : " + gridFilePath);
+            }
+
+            int rowsPerSegment = (int) Math.max(1, Math.min(height, MAX_SEGMENT_BYTES / rowBytes));
+            int segmentsCount = (height + rowsPerSegment - 1) / rowsPerSegment;
+            FloatBuffer[] segments = new FloatBuffer[segmentsCount];
+            for (int i = 0; i < segmentsCount; i++) {
+                int segmentRows = Math.min(rowsPerSegment, height - i * rowsPerSegment);
+                long position = HEADER_SIZE + rowBytes * i * rowsPerSegment;
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, rowBytes * segmentRows);
+                segments[i] = mapped.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            }
+            // the mapping remains valid after closing the channel
+            return new MappedFloatGrid(width, height, rowsPerSegment, segments);
+        }
+    }
+
+    /**
+     * Writes the first band of the image as a grid file, stamped with the length & last modified time of the source geoTiff.
+     * The image is read by strips of rows, not in one heap copy.
+     */
+    public static void write(RenderedImage image, Double noDataValue, String gridFilePath, String sourceFilePath) throws IOException {
+        File sourceFile = new File(sourceFilePath);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int minX = image.getMinX();
+        int minY = image.getMinY();
+
+        Path path = new File(gridFilePath).toPath();
+        File folder = path.toFile().getParentFile();
+        if (folder != null && !folder.exists() && !folder.mkdirs() && !folder.exists()) {
+            throw new IOException("Failed to create folder: " + folder.getAbsolutePath());
+        }
+        Path tempPath = new File(gridFilePath + ".tmp").toPath();
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(width);
+            header.putInt(height);
+            header.putLong(sourceFile.length());
+            header.putLong(sourceFile.lastModified());
+            header.flip();
+            writeFully(channel, header);
+
+            float[] samples = new float[width * Math.min(WRITE_STRIP_ROWS, height)];
+            ByteBuffer stripBuffer = ByteBuffer.allocate(samples.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int row = 0; row < height; row += WRITE_STRIP_ROWS) {
+                int stripRows = Math.min(WRITE_STRIP_ROWS, height - row);
+                int count = width * stripRows;
+                Raster strip = image.getData(new Rectangle(minX, minY + row, width, stripRows));
+                strip.getSamples(minX, minY + row, width, stripRows, 0, samples);
+                if (noDataValue != null) {
+                    float noData = noDataValue.floatValue();
+                    for (int i = 0; i < count; i++) {
+                        if (samples[i] == noData) {
+                            samples[i] = Float.NaN;
+                        }
+                    }
+                }
+                stripBuffer.clear();
+                stripBuffer.asFloatBuffer().put(samples, 0, count);
+                stripBuffer.limit(count * Float.BYTES);
+                writeFully(channel, stripBuffer);
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Returns the sample (NaN if noData). The column & row are clamped into the grid.
+     */
+    public float get(int column, int row) {
+        if (column < 0) {
+            column = 0;
+        } else if (column >= width) {
+            column = width - 1;
+        }
+        if (row < 0) {
+            row = 0;
+        } else if (row >= height) {
+            row = height - 1;
+        }
+        int segmentIdx = row / rowsPerSegment;
+        int segmentRow = row - segmentIdx * rowsPerSegment;
+        return segments[segmentIdx].get(segmentRow * width + column);
+    }
+
+    /**
+     * Copies "count" samples of the row, starting at "column", into "result" (clamped like get).
+     */
+    public void getRow(int row, int column, int count, float[] result) {
+        if (row < 0) {
+            row = 0;
+        } else if (row >= height) {
+            row = height - 1;
+        }
+        int segmentIdx = row / rowsPerSegment;
+        int rowOffset = (row - segmentIdx * rowsPerSegment) * width;
+        FloatBuffer segment = segments[segmentIdx];
+        for (int i = 0; i < count; i++) {
+            int col = column + i;
+            if (col < 0) {
+                col = 0;
+            } else if (col >= width) {
+                col = width - 1;
+            }
+            result[i] = segment.get(rowOffset + col);
+        }
+    }
+
+    /**
+     * Copies the samples of the row at columns[i] into result[i], for i in [start, end] (clamped like get).
+     */
+    public void gatherRow(int row, int[] columns, int start, int end, float[] result) {
+        if (row < 0) {
+            row = 0;
+        } else if (row >= height) {
+            row = height - 1;
+        }
+        int segmentIdx = row / rowsPerSegment;
+        int rowOffset = (row - segmentIdx * rowsPerSegment) * width;
+        int lastColumn = width - 1;
+        FloatBuffer segment = segments[segmentIdx];
+        for (int i = start; i <= end; i++) {
+            int col = Math.min(Math.max(columns[i], 0), lastColumn);
+            result[i] = segment.get(rowOffset + col);
+        }
+    }
+}
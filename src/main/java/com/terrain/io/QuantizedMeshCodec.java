@@ -0,0 +1,469 @@
+package com.terrain.io;
+
+import com.terrain.manager.QuantizedMesh;
+import com.terrain.manager.QuantizedMeshHeader;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Little-endian codec of the quantized-mesh-1.0 tiles (.terrain), over a single ByteBuffer (heap or memory-mapped).
+ * Layout : header(88 bytes) + vertexData(vertexCount, u, v & height zig-zag deltas) + padding + indexData(triangleCount, high-water mark codes)
+ * + edgeIndices(west, south, east, north) + extensions(id, length, data).
+ * The arrays are read & written in bulk, and decoded in primitive loops, without per value stream calls.
+ */
+@Slf4j
+public class QuantizedMeshCodec {
+    public static final int HEADER_SIZE = 88;
+    public static final byte EXTENSION_OCT_VERTEX_NORMALS = 1;
+    public static final byte EXTENSION_WATER_MASK = 2;
+    public static final byte EXTENSION_METADATA = 4;
+    // the tiles with more vertices use 32 bits indices
+    public static final int MAX_VERTEX_COUNT_16 = 64 * 1024;
+    // the smaller files are read in heap, the bigger ones are mapped
+    private static final long MAP_THRESHOLD = 256 * 1024;
+
+    public static boolean isIndices32(int vertexCount) {
+        return vertexCount > MAX_VERTEX_COUNT_16;
+    }
+
+    /**
+     * Offset of the triangleCount : the index data is aligned to its index size.
+     */
+    public static int getIndexDataOffset(int vertexCount) {
+        int offset = HEADER_SIZE + Integer.BYTES + vertexCount * 3 * Short.BYTES;
+        int indexSize = isIndices32(vertexCount) ? Integer.BYTES : Short.BYTES;
+        return (offset + indexSize - 1) / indexSize * indexSize;
+    }
+
+    public static void saveFile(QuantizedMesh mesh, Path path, boolean saveNormals) throws IOException {
+        writeFile(encode(mesh, saveNormals), path);
+    }
+
+    /**
+     * Writes the buffer in a temp file that replaces the file, so the file is never read partially written.
+     */
+    public static void writeFile(ByteBuffer buffer, Path path) throws IOException {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static QuantizedMesh loadFile(Path path) throws IOException {
+        return decode(readFile(path));
+    }
+
+    public static QuantizedMeshView openView(Path path) throws IOException {
+        return new QuantizedMeshView(readFile(path));
+    }
+
+    public static ByteBuffer readFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Quantized mesh file too large : " + path);
+            }
+            if (size >= MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    public static ByteBuffer encode(QuantizedMesh mesh, boolean saveNormals) {
+        int vertexCount = mesh.getVertexCount();
+        int triangleCount = mesh.getTriangleCount();
+        int indicesCount = triangleCount * 3;
+        boolean indices32 = isIndices32(vertexCount);
+        int indexSize = indices32 ? Integer.BYTES : Short.BYTES;
+        int edgeIndicesCount = mesh.getWestVertexCount() + mesh.getSouthVertexCount() + mesh.getEastVertexCount() + mesh.getNorthVertexCount();
+
+        int indexDataOffset = getIndexDataOffset(vertexCount);
+        int size = indexDataOffset + Integer.BYTES + indicesCount * indexSize + 4 * Integer.BYTES + edgeIndicesCount * indexSize;
+        byte[] octEncodedNormals = mesh.getOctEncodedNormals();
+        if (saveNormals) {
+            size += 1 + Integer.BYTES + octEncodedNormals.length;
+        }
+        byte[] waterMask = mesh.getWaterMask();
+        if (waterMask != null) {
+            size += 1 + Integer.BYTES + waterMask.length;
+        }
+        byte[] metadata = mesh.getMetadata();
+        if (metadata != null) {
+            size += 1 + Integer.BYTES + Integer.BYTES + metadata.length;
+        }
+
+        // the high water mark codes need the vertices in first use order, the other meshes are renumbered.***
+        short[] uBuffer = mesh.getUBuffer();
+        short[] vBuffer = mesh.getVBuffer();
+        short[] heightBuffer = mesh.getHeightBuffer();
+        int[] triangleIndices = mesh.getTriangleIndices();
+        int[] westIndices = mesh.getWestIndices();
+        int[] southIndices = mesh.getSouthIndices();
+        int[] eastIndices = mesh.getEastIndices();
+        int[] northIndices = mesh.getNorthIndices();
+        int[] newVertexIndices = getFirstUseVertexIndices(triangleIndices, indicesCount, vertexCount);
+        if (newVertexIndices != null) {
+            uBuffer = renumberValues(uBuffer, newVertexIndices, vertexCount);
+            vBuffer = renumberValues(vBuffer, newVertexIndices, vertexCount);
+            heightBuffer = renumberValues(heightBuffer, newVertexIndices, vertexCount);
+            triangleIndices = renumberIndices(triangleIndices, indicesCount, newVertexIndices);
+            westIndices = renumberIndices(westIndices, mesh.getWestVertexCount(), newVertexIndices);
+            southIndices = renumberIndices(southIndices, mesh.getSouthVertexCount(), newVertexIndices);
+            eastIndices = renumberIndices(eastIndices, mesh.getEastVertexCount(), newVertexIndices);
+            northIndices = renumberIndices(northIndices, mesh.getNorthVertexCount(), newVertexIndices);
+            if (saveNormals) {
+                octEncodedNormals = renumberNormals(octEncodedNormals, newVertexIndices, vertexCount);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        putHeader(buffer, mesh.getHeader());
+
+        // vertex data
+        buffer.putInt(vertexCount);
+        short[] codes = new short[vertexCount];
+        putZigZagDeltas(buffer, uBuffer, vertexCount, codes);
+        putZigZagDeltas(buffer, vBuffer, vertexCount, codes);
+        putZigZagDeltas(buffer, heightBuffer, vertexCount, codes);
+
+        // index data (the padding bytes are zero)
+        buffer.position(indexDataOffset);
+        buffer.putInt(triangleCount);
+        if (indices32) {
+            int[] indexCodes = new int[indicesCount];
+            int highest = 0;
+            for (int i = 0; i < indicesCount; i++) {
+                int code = highest - triangleIndices[i];
+                indexCodes[i] = code;
+                if (code == 0) {
+                    highest++;
+                }
+            }
+            putInts(buffer, indexCodes, indicesCount);
+        } else {
+            short[] indexCodes = new short[indicesCount];
+            int highest = 0;
+            for (int i = 0; i < indicesCount; i++) {
+                int code = highest - triangleIndices[i];
+                indexCodes[i] = (short) code;
+                if (code == 0) {
+                    highest++;
+                }
+            }
+            putShorts(buffer, indexCodes, indicesCount);
+        }
+
+        // edge indices
+        putEdgeIndices(buffer, westIndices, mesh.getWestVertexCount(), indices32);
+        putEdgeIndices(buffer, southIndices, mesh.getSouthVertexCount(), indices32);
+        putEdgeIndices(buffer, eastIndices, mesh.getEastVertexCount(), indices32);
+        putEdgeIndices(buffer, northIndices, mesh.getNorthVertexCount(), indices32);
+
+        // extensions
+        if (saveNormals) {
+            buffer.put(mesh.getExtensionId());
+            buffer.putInt(mesh.getExtensionLength());
+            buffer.put(octEncodedNormals);
+        }
+        if (waterMask != null) {
+            buffer.put(EXTENSION_WATER_MASK);
+            buffer.putInt(waterMask.length);
+            buffer.put(waterMask);
+        }
+        if (metadata != null) {
+            // the metadata data is the json length & the json
+            buffer.put(EXTENSION_METADATA);
+            buffer.putInt(Integer.BYTES + metadata.length);
+            buffer.putInt(metadata.length);
+            buffer.put(metadata);
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    public static QuantizedMesh decode(ByteBuffer buffer) throws IOException {
+        buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE + Integer.BYTES) {
+            throw new IOException("Invalid quantized mesh : " + buffer.remaining() + " bytes");
+        }
+
+        QuantizedMesh mesh = new QuantizedMesh();
+        getHeader(buffer, mesh.getHeader());
+
+        // vertex data
+        int vertexCount = buffer.getInt();
+        mesh.setVertexCount(vertexCount);
+        mesh.setUBuffer(getZigZagDeltas(buffer, vertexCount));
+        mesh.setVBuffer(getZigZagDeltas(buffer, vertexCount));
+        mesh.setHeightBuffer(getZigZagDeltas(buffer, vertexCount));
+
+        // index data
+        buffer.position(getIndexDataOffset(vertexCount));
+        boolean indices32 = isIndices32(vertexCount);
+        int triangleCount = buffer.getInt();
+        int indicesCount = triangleCount * 3;
+        int[] triangleIndices = new int[indicesCount];
+        if (indices32) {
+            getInts(buffer, triangleIndices, indicesCount);
+            int highest = 0;
+            for (int i = 0; i < indicesCount; i++) {
+                int code = triangleIndices[i];
+                triangleIndices[i] = highest - code;
+                if (code == 0) {
+                    highest++;
+                }
+            }
+        } else {
+            short[] indexCodes = new short[indicesCount];
+            getShorts(buffer, indexCodes, indicesCount);
+            int highest = 0;
+            for (int i = 0; i < indicesCount; i++) {
+                int code = indexCodes[i] & 0xFFFF;
+                // the 16 bits indices wrap as unsigned values
+                triangleIndices[i] = (highest - code) & 0xFFFF;
+                if (code == 0) {
+                    highest++;
+                }
+            }
+        }
+        mesh.setTriangleCount(triangleCount);
+        mesh.setTriangleIndices(triangleIndices);
+
+        // edge indices
+        mesh.setWestIndices(getEdgeIndices(buffer, indices32));
+        mesh.setWestVertexCount(mesh.getWestIndices().length);
+        mesh.setSouthIndices(getEdgeIndices(buffer, indices32));
+        mesh.setSouthVertexCount(mesh.getSouthIndices().length);
+        mesh.setEastIndices(getEdgeIndices(buffer, indices32));
+        mesh.setEastVertexCount(mesh.getEastIndices().length);
+        mesh.setNorthIndices(getEdgeIndices(buffer, indices32));
+        mesh.setNorthVertexCount(mesh.getNorthIndices().length);
+
+        // extensions
+        while (buffer.remaining() >= 1 + Integer.BYTES) {
+            byte extensionId = buffer.get();
+            int extensionLength = buffer.getInt();
+            if (extensionLength < 0 || extensionLength > buffer.remaining()) {
+                log.warn("Invalid quantized mesh extension : id {}, length {}", extensionId, extensionLength);
+                break;
+            }
+            if (extensionId == EXTENSION_OCT_VERTEX_NORMALS) {
+                byte[] octEncodedNormals = new byte[extensionLength];
+                buffer.get(octEncodedNormals);
+                mesh.setExtensionId(extensionId);
+                mesh.setExtensionLength(extensionLength);
+                mesh.setOctEncodedNormals(octEncodedNormals);
+            } else if (extensionId == EXTENSION_WATER_MASK) {
+                byte[] waterMask = new byte[extensionLength];
+                buffer.get(waterMask);
+                mesh.setWaterMask(waterMask);
+            } else if (extensionId == EXTENSION_METADATA && extensionLength >= Integer.BYTES) {
+                int jsonLength = buffer.getInt();
+                if (jsonLength < 0 || jsonLength > extensionLength - Integer.BYTES) {
+                    log.warn("Invalid quantized mesh metadata length : {}", jsonLength);
+                    break;
+                }
+                byte[] metadata = new byte[jsonLength];
+                buffer.get(metadata);
+                buffer.position(buffer.position() + extensionLength - Integer.BYTES - jsonLength);
+                mesh.setMetadata(metadata);
+            } else {
+                buffer.position(buffer.position() + extensionLength);
+            }
+        }
+        return mesh;
+    }
+
+    /**
+     * Returns the new index of each vertex in first use order of the triangles (the vertices without triangles at the end),
+     * or null if the vertices are already in first use order.
+     */
+    private static int[] getFirstUseVertexIndices(int[] triangleIndices, int indicesCount, int vertexCount) {
+        int highest = 0;
+        boolean ordered = true;
+        for (int i = 0; i < indicesCount; i++) {
+            int index = triangleIndices[i];
+            if (index > highest) {
+                ordered = false;
+                break;
+            }
+            if (index == highest) {
+                highest++;
+            }
+        }
+        if (ordered) {
+            return null;
+        }
+
+        int[] newVertexIndices = new int[vertexCount];
+        Arrays.fill(newVertexIndices, -1);
+        int newVertexCount = 0;
+        for (int i = 0; i < indicesCount; i++) {
+            int index = triangleIndices[i];
+            if (newVertexIndices[index] < 0) {
+                newVertexIndices[index] = newVertexCount++;
+            }
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            if (newVertexIndices[i] < 0) {
+                newVertexIndices[i] = newVertexCount++;
+            }
+        }
+        return newVertexIndices;
+    }
+
+    private static short[] renumberValues(short[] values, int[] newVertexIndices, int vertexCount) {
+        short[] result = new short[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            result[newVertexIndices[i]] = values[i];
+        }
+        return result;
+    }
+
+    private static byte[] renumberNormals(byte[] octEncodedNormals, int[] newVertexIndices, int vertexCount) {
+        if (octEncodedNormals.length < vertexCount * 2) {
+            return octEncodedNormals;
+        }
+        byte[] result = octEncodedNormals.clone();
+        for (int i = 0; i < vertexCount; i++) {
+            int newIndex = newVertexIndices[i];
+            result[newIndex * 2] = octEncodedNormals[i * 2];
+            result[newIndex * 2 + 1] = octEncodedNormals[i * 2 + 1];
+        }
+        return result;
+    }
+
+    private static int[] renumberIndices(int[] indices, int count, int[] newVertexIndices) {
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = newVertexIndices[indices[i]];
+        }
+        return result;
+    }
+
+    public static void putHeader(ByteBuffer buffer, QuantizedMeshHeader header) {
+        buffer.putDouble(header.getCenterX());
+        buffer.putDouble(header.getCenterY());
+        buffer.putDouble(header.getCenterZ());
+
+        buffer.putFloat(header.getMinimumHeight());
+        buffer.putFloat(header.getMaximumHeight());
+
+        buffer.putDouble(header.getBoundingSphereCenterX());
+        buffer.putDouble(header.getBoundingSphereCenterY());
+        buffer.putDouble(header.getBoundingSphereCenterZ());
+        buffer.putDouble(header.getBoundingSphereRadius());
+
+        buffer.putDouble(header.getHorizonOcclusionPointX());
+        buffer.putDouble(header.getHorizonOcclusionPointY());
+        buffer.putDouble(header.getHorizonOcclusionPointZ());
+    }
+
+    public static void getHeader(ByteBuffer buffer, QuantizedMeshHeader header) {
+        header.setCenterX(buffer.getDouble());
+        header.setCenterY(buffer.getDouble());
+        header.setCenterZ(buffer.getDouble());
+
+        header.setMinimumHeight(buffer.getFloat());
+        header.setMaximumHeight(buffer.getFloat());
+
+        header.setBoundingSphereCenterX(buffer.getDouble());
+        header.setBoundingSphereCenterY(buffer.getDouble());
+        header.setBoundingSphereCenterZ(buffer.getDouble());
+        header.setBoundingSphereRadius(buffer.getDouble());
+
+        header.setHorizonOcclusionPointX(buffer.getDouble());
+        header.setHorizonOcclusionPointY(buffer.getDouble());
+        header.setHorizonOcclusionPointZ(buffer.getDouble());
+    }
+
+    private static void putZigZagDeltas(ByteBuffer buffer, short[] values, int count, short[] codes) {
+        int prev = 0;
+        for (int i = 0; i < count; i++) {
+            int curr = values[i];
+            int diff = curr - prev;
+            codes[i] = (short) ((diff << 1) ^ (diff >> 31));
+            prev = curr;
+        }
+        putShorts(buffer, codes, count);
+    }
+
+    private static short[] getZigZagDeltas(ByteBuffer buffer, int count) {
+        short[] values = new short[count];
+        getShorts(buffer, values, count);
+        // decode in place
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int code = values[i] & 0xFFFF;
+            value += (code >>> 1) ^ -(code & 1);
+            values[i] = (short) value;
+        }
+        return values;
+    }
+
+    private static void putEdgeIndices(ByteBuffer buffer, int[] indices, int count, boolean indices32) {
+        buffer.putInt(count);
+        if (indices32) {
+            putInts(buffer, indices, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                buffer.putShort((short) indices[i]);
+            }
+        }
+    }
+
+    private static int[] getEdgeIndices(ByteBuffer buffer, boolean indices32) {
+        int count = buffer.getInt();
+        int[] indices = new int[count];
+        if (indices32) {
+            getInts(buffer, indices, count);
+        } else {
+            // the 16 bits indices are unsigned
+            for (int i = 0; i < count; i++) {
+                indices[i] = buffer.getShort() & 0xFFFF;
+            }
+        }
+        return indices;
+    }
+
+    private static void putShorts(ByteBuffer buffer, short[] values, int count) {
+        buffer.asShortBuffer().put(values, 0, count);
+        buffer.position(buffer.position() + count * Short.BYTES);
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values, int count) {
+        buffer.asIntBuffer().put(values, 0, count);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+    }
+
+    private static void getShorts(ByteBuffer buffer, short[] values, int count) {
+        buffer.asShortBuffer().get(values, 0, count);
+        buffer.position(buffer.position() + count * Short.BYTES);
+    }
+
+    private static void getInts(ByteBuffer buffer, int[] values, int count) {
+        buffer.asIntBuffer().get(values, 0, count);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+    }
+}
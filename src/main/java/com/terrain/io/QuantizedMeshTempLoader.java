@@ -0,0 +1,144 @@
+package com.terrain.io;
+
+import com.terrain.common.GlobalOptions;
+import com.terrain.geometry.TileRange;
+import com.terrain.manager.QuantizedMesh;
+import com.terrain.manager.QuantizedMeshManager;
+import com.terrain.manager.TileIndices;
+import com.terrain.manager.TileWgs84;
+import com.terrain.manager.TileWgs84Manager;
+import com.utils.TerrainMeshUtils;
+import com.utils.ThreadUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Makes the temp meshes of the first depth of the continue mode from the quantized meshes of the previous depth.
+ * The parent tiles of a mosaic are read on an I/O pool, and converted & split in their 4 children on CPU workers, only when
+ * the mosaic is about to be processed (the children of the next mosaic are made while the current mosaic is meshed).
+ * Each parent tile is converted once, and the count of parent tiles in flight is bounded.
+ */
+@Slf4j
+public class QuantizedMeshTempLoader implements Closeable {
+    private static final int MAX_PENDING_PER_THREAD = 4;
+    private static final int READ_THREADS = 2;
+
+    private final TileWgs84Manager manager;
+    private final GlobalOptions globalOptions = GlobalOptions.getInstance();
+    private final ExecutorService readExecutor;
+    private final ExecutorService convertExecutor;
+    // submits the parent tiles of the next mosaic
+    private final ExecutorService prefetchExecutor;
+    // one permit by parent tile in flight
+    private final Semaphore pendingPermits;
+    // packed keys of the parent tiles already submitted
+    private final Set<Long> submittedParentKeys = ConcurrentHashMap.newKeySet();
+    private CompletableFuture<Void> prefetchFuture = null;
+
+    public QuantizedMeshTempLoader(TileWgs84Manager manager) {
+        this.manager = manager;
+        int convertThreads = Runtime.getRuntime().availableProcessors();
+        this.readExecutor = Executors.newFixedThreadPool(READ_THREADS, ThreadUtils.newDaemonThreadFactory("quantized-mesh-read-"));
+        this.convertExecutor = Executors.newFixedThreadPool(convertThreads, ThreadUtils.newDaemonThreadFactory("quantized-mesh-convert-"));
+        this.prefetchExecutor = Executors.newSingleThreadExecutor(ThreadUtils.newDaemonThreadFactory("quantized-mesh-prefetch-"));
+        this.pendingPermits = new Semaphore(convertThreads * MAX_PENDING_PER_THREAD);
+    }
+
+    /**
+     * Makes the temp meshes of the tiles range (the children of its parent tiles), and waits until they are saved.
+     */
+    public void makeChildren(TileRange tilesRange) {
+        // the prefetched children can be tiles of this range, so they must be saved before.***
+        if (prefetchFuture != null) {
+            prefetchFuture.join();
+            prefetchFuture = null;
+        }
+        submitChildren(tilesRange).join();
+    }
+
+    /**
+     * Starts making the temp meshes of the tiles range in background (the next mosaic).
+     */
+    public void prefetchChildren(TileRange tilesRange) {
+        if (prefetchFuture != null) {
+            prefetchFuture.join();
+        }
+        prefetchFuture = CompletableFuture.supplyAsync(() -> submitChildren(tilesRange), prefetchExecutor)
+                .thenCompose(future -> future);
+    }
+
+    private CompletableFuture<Void> submitChildren(TileRange tilesRange) {
+        int parentDepth = tilesRange.getTileDepth() - 1;
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int X = tilesRange.getMinTileX() >> 1; X <= tilesRange.getMaxTileX() >> 1; X++) {
+            for (int Y = tilesRange.getMinTileY() >> 1; Y <= tilesRange.getMaxTileY() >> 1; Y++) {
+                TileIndices parentTileIndices = new TileIndices();
+                parentTileIndices.set(X, Y, parentDepth);
+                if (!parentTileIndices.isValid() || !submittedParentKeys.add(parentTileIndices.getPackedKey())) {
+                    continue;
+                }
+
+                String quantizedMeshFilePath = manager.getQuantizedMeshTilePath(parentTileIndices);
+                if (!new File(quantizedMeshFilePath).isFile()) {
+                    continue;
+                }
+
+                pendingPermits.acquireUninterruptibly();
+                CompletableFuture<Void> future = CompletableFuture
+                        .supplyAsync(() -> read(quantizedMeshFilePath), readExecutor)
+                        .thenAcceptAsync(quantizedMesh -> convert(quantizedMesh, parentTileIndices), convertExecutor)
+                        .whenComplete((result, e) -> {
+                            if (e != null) {
+                                log.error("Error loading quantized mesh file: {}", quantizedMeshFilePath, e);
+                            }
+                            pendingPermits.release();
+                        });
+                futures.add(future.exceptionally(e -> null));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    private QuantizedMesh read(String quantizedMeshFilePath) {
+        try {
+            return QuantizedMeshCodec.loadFile(Paths.get(quantizedMeshFilePath));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void convert(QuantizedMesh quantizedMesh, TileIndices parentTileIndices) {
+        TileWgs84 tileWgs84 = new QuantizedMeshManager().getTileWgs84FromQuantizedMesh(quantizedMesh, parentTileIndices, manager);
+        if (tileWgs84 == null) {
+            log.error("TileWgs84 is null: {}", parentTileIndices.getString());
+            return;
+        }
+
+        // save the children meshes in the temp store.***
+        TerrainMeshUtils.save4ChildrenMeshes(tileWgs84.getMesh(), manager, globalOptions);
+    }
+
+    @Override
+    public void close() {
+        if (prefetchFuture != null) {
+            prefetchFuture.join();
+            prefetchFuture = null;
+        }
+        prefetchExecutor.shutdown();
+        readExecutor.shutdown();
+        convertExecutor.shutdown();
+    }
+}
@@ -0,0 +1,97 @@
+package com.terrain.io;
+
+import com.terrain.manager.QuantizedMesh;
+import com.terrain.manager.QuantizedMeshHeader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Read only view over an encoded quantized-mesh tile : the header fields and the counts are read at their offsets,
+ * without decoding the vertices & the indices (the tile is decoded only by decode()).
+ */
+public class QuantizedMeshView {
+    private final ByteBuffer buffer;
+
+    public QuantizedMeshView(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (this.buffer.remaining() < QuantizedMeshCodec.HEADER_SIZE + Integer.BYTES) {
+            throw new IOException("Invalid quantized mesh : " + this.buffer.remaining() + " bytes");
+        }
+    }
+
+    public double getCenterX() {
+        return buffer.getDouble(0);
+    }
+
+    public double getCenterY() {
+        return buffer.getDouble(8);
+    }
+
+    public double getCenterZ() {
+        return buffer.getDouble(16);
+    }
+
+    public float getMinimumHeight() {
+        return buffer.getFloat(24);
+    }
+
+    public float getMaximumHeight() {
+        return buffer.getFloat(28);
+    }
+
+    public double getBoundingSphereCenterX() {
+        return buffer.getDouble(32);
+    }
+
+    public double getBoundingSphereCenterY() {
+        return buffer.getDouble(40);
+    }
+
+    public double getBoundingSphereCenterZ() {
+        return buffer.getDouble(48);
+    }
+
+    public double getBoundingSphereRadius() {
+        return buffer.getDouble(56);
+    }
+
+    public double getHorizonOcclusionPointX() {
+        return buffer.getDouble(64);
+    }
+
+    public double getHorizonOcclusionPointY() {
+        return buffer.getDouble(72);
+    }
+
+    public double getHorizonOcclusionPointZ() {
+        return buffer.getDouble(80);
+    }
+
+    public int getVertexCount() {
+        return buffer.getInt(QuantizedMeshCodec.HEADER_SIZE);
+    }
+
+    public boolean isIndices32() {
+        return QuantizedMeshCodec.isIndices32(getVertexCount());
+    }
+
+    public int getTriangleCount() {
+        return buffer.getInt(QuantizedMeshCodec.getIndexDataOffset(getVertexCount()));
+    }
+
+    public int getByteLength() {
+        return buffer.limit();
+    }
+
+    public QuantizedMeshHeader getHeader() {
+        QuantizedMeshHeader header = new QuantizedMeshHeader();
+        QuantizedMeshCodec.getHeader(buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN), header);
+        return header;
+    }
+
+    public QuantizedMesh decode() throws IOException {
+        return QuantizedMeshCodec.decode(buffer.duplicate());
+    }
+}
@@ -0,0 +1,121 @@
+package com.terrain.io;
+
+import com.terrain.geometry.TileAvailability;
+import com.terrain.manager.QuantizedMesh;
+import com.terrain.manager.QuantizedMeshManager;
+import com.terrain.manager.QuantizedMeshSnapshot;
+import com.terrain.manager.TileIndices;
+import com.utils.ThreadUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Pipeline that encodes the quantized meshes on CPU workers and writes the .terrain files on an I/O pool,
+ * so the mosaic thread continues with the next mosaic while the tiles of the previous one are saved.
+ * The count of tiles in flight is bounded, and submit blocks when the pipeline is full.
+ */
+@Slf4j
+public class QuantizedMeshWriter implements Closeable {
+    private static final int MAX_PENDING_PER_THREAD = 32;
+    private static final int WRITE_THREADS = 2;
+
+    private final ExecutorService encodeExecutor;
+    private final ExecutorService writeExecutor;
+    private final int maxPendingCount;
+    // one permit by tile in flight
+    private final Semaphore pendingPermits;
+    // last write in flight of each tile path
+    private final Map<String, CompletableFuture<Void>> tileWriteFutures = new ConcurrentHashMap<>();
+
+    public QuantizedMeshWriter() {
+        int encodeThreads = Runtime.getRuntime().availableProcessors();
+        this.encodeExecutor = Executors.newFixedThreadPool(encodeThreads, ThreadUtils.newDaemonThreadFactory("quantized-mesh-encode-"));
+        this.writeExecutor = Executors.newFixedThreadPool(WRITE_THREADS, ThreadUtils.newDaemonThreadFactory("quantized-mesh-write-"));
+        this.maxPendingCount = encodeThreads * MAX_PENDING_PER_THREAD;
+        this.pendingPermits = new Semaphore(maxPendingCount);
+    }
+
+    /**
+     * Encodes the snapshot and writes it in tileFullPath. The folder of the tile must exist.
+     * The tile of the snapshot is added to the tileAvailability (if not null) only when the file is written.
+     */
+    public void submit(QuantizedMeshSnapshot snapshot, String tileFullPath, boolean calculateNormals, TileAvailability tileAvailability) {
+        try {
+            pendingPermits.acquire();
+        } catch (InterruptedException e) {
+            log.error("Error:", e);
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        CompletableFuture<ByteBuffer> encodeFuture;
+        try {
+            encodeFuture = CompletableFuture.supplyAsync(() -> encode(snapshot, calculateNormals), encodeExecutor);
+        } catch (RejectedExecutionException e) {
+            pendingPermits.release();
+            throw e;
+        }
+
+        // a tile can be submitted again by the next mosaic (border tiles), so the writes of a tile are done in submit order,
+        // after the previous write of the tile (the encodings still run in parallel).***
+        CompletableFuture<Void> writeFuture = tileWriteFutures.compute(tileFullPath, (path, previousFuture) -> {
+            CompletableFuture<Void> previous = previousFuture != null ? previousFuture.exceptionally(e -> null) : CompletableFuture.completedFuture(null);
+            return previous.thenCombine(encodeFuture, (result, buffer) -> buffer)
+                    .thenAcceptAsync(buffer -> {
+                        TileIndices tileIndices = snapshot.getTileIndices();
+                        if (write(buffer, tileFullPath) && tileAvailability != null && tileIndices != null) {
+                            tileAvailability.add(tileIndices.getL(), tileIndices.getX(), tileIndices.getY());
+                        }
+                    }, writeExecutor);
+        });
+        writeFuture.whenComplete((result, e) -> {
+            if (e != null) {
+                log.error("Error:", e);
+            }
+            tileWriteFutures.remove(tileFullPath, writeFuture);
+            pendingPermits.release();
+        });
+    }
+
+    private ByteBuffer encode(QuantizedMeshSnapshot snapshot, boolean calculateNormals) {
+        QuantizedMesh quantizedMesh = new QuantizedMeshManager().getQuantizedMeshFromSnapshot(snapshot, calculateNormals);
+        return QuantizedMeshCodec.encode(quantizedMesh, calculateNormals);
+    }
+
+    private boolean write(ByteBuffer buffer, String tileFullPath) {
+        try {
+            QuantizedMeshCodec.writeFile(buffer, Paths.get(tileFullPath));
+            return true;
+        } catch (IOException e) {
+            log.error("Error:", e);
+            return false;
+        }
+    }
+
+    /**
+     * Waits until all the submitted tiles are written.
+     */
+    public void awaitPending() {
+        // all the permits are free when there are no tiles in flight
+        pendingPermits.acquireUninterruptibly(maxPendingCount);
+        pendingPermits.release(maxPendingCount);
+    }
+
+    @Override
+    public void close() {
+        awaitPending();
+        encodeExecutor.shutdown();
+        writeExecutor.shutdown();
+    }
+}
@@ -0,0 +1,353 @@
+package com.terrain.io;
+
+import com.terrain.common.TerrainHalfEdge;
+import com.terrain.common.TerrainMesh;
+import com.terrain.common.TerrainTriangle;
+import com.terrain.common.TerrainVertex;
+import com.terrain.enums.TerrainHalfEdgeType;
+import com.terrain.manager.TileIndices;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact little-endian binary format for the temp (.til) meshes.
+ * Layout : header(32 bytes) + payload, the payload stores the mesh as flat primitive arrays :
+ * vertices(positions xyz, outingHEdge), triangles(halfEdge, ownerTile XYL, splitDepth), halfEdges(startVertex, next, twin, triangle, type).
+ * Every pointer is stored as the list index of the pointed object, so the load rebuilds the pointers by array access.
+ */
+@Slf4j
+public class TerrainMeshCodec {
+    public static final int MAGIC = 0x4853_4D54; // "TMSH" little-endian
+    public static final short VERSION = 1;
+    public static final short FLAG_DEFLATE = 0x01;
+    public static final int HEADER_SIZE = 32;
+
+    private static final int VERTEX_SIZE = 3 * Double.BYTES + Integer.BYTES;
+    private static final int TRIANGLE_SIZE = 5 * Integer.BYTES;
+    private static final int HALF_EDGE_SIZE = 4 * Integer.BYTES + 1;
+
+    public static boolean isCompactFormat(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return false;
+        }
+        return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+    }
+
+    public static void saveFile(TerrainMesh mesh, Path path, boolean compress) throws IOException {
+        ByteBuffer buffer = encode(mesh, compress);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    public static TerrainMesh loadFile(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Temp mesh file too large : " + path);
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+        }
+        return decode(buffer);
+    }
+
+    public static ByteBuffer encode(TerrainMesh mesh, boolean compress) {
+        mesh.setObjectsIdInList();
+        mesh.setHalfEdgesStartVertexAsOutingHEdges();// this function is used when the vertices belong to different tiles
+
+        List<TerrainVertex> vertices = mesh.vertices;
+        List<TerrainTriangle> triangles = mesh.triangles;
+        List<TerrainHalfEdge> halfEdges = mesh.halfEdges;
+        int verticesCount = vertices.size();
+        int trianglesCount = triangles.size();
+        int halfEdgesCount = halfEdges.size();
+
+        // vertices
+        double[] positions = new double[verticesCount * 3];
+        int[] vertexOutingHEdges = new int[verticesCount];
+        for (int i = 0; i < verticesCount; i++) {
+            TerrainVertex vertex = vertices.get(i);
+            positions[i * 3] = vertex.getPosition().x;
+            positions[i * 3 + 1] = vertex.getPosition().y;
+            positions[i * 3 + 2] = vertex.getPosition().z;
+            vertexOutingHEdges[i] = indexOf(halfEdges, vertex.getOutingHEdge());
+        }
+
+        // triangles
+        int[] triangleInts = new int[trianglesCount * 5];
+        for (int i = 0; i < trianglesCount; i++) {
+            TerrainTriangle triangle = triangles.get(i);
+            int offset = i * 5;
+            triangleInts[offset] = indexOf(halfEdges, triangle.getHalfEdge());
+            TileIndices ownerTileIndices = triangle.getOwnerTileIndices();
+            if (ownerTileIndices == null) {
+                triangleInts[offset + 1] = -1;
+                triangleInts[offset + 2] = -1;
+                triangleInts[offset + 3] = -1;
+            } else {
+                triangleInts[offset + 1] = ownerTileIndices.getX();
+                triangleInts[offset + 2] = ownerTileIndices.getY();
+                triangleInts[offset + 3] = ownerTileIndices.getL();
+            }
+            triangleInts[offset + 4] = triangle.getSplitDepth();
+        }
+
+        // halfEdges
+        int[] halfEdgeInts = new int[halfEdgesCount * 4];
+        byte[] halfEdgeTypes = new byte[halfEdgesCount];
+        for (int i = 0; i < halfEdgesCount; i++) {
+            TerrainHalfEdge halfEdge = halfEdges.get(i);
+            int offset = i * 4;
+            halfEdgeInts[offset] = indexOf(vertices, halfEdge.getStartVertex());
+            halfEdgeInts[offset + 1] = indexOf(halfEdges, halfEdge.getNext());
+            halfEdgeInts[offset + 2] = indexOf(halfEdges, halfEdge.getTwin());
+            halfEdgeInts[offset + 3] = indexOf(triangles, halfEdge.getTriangle());
+            halfEdgeTypes[i] = (byte) halfEdge.getType().getValue();
+        }
+
+        int payloadSize = verticesCount * VERTEX_SIZE + trianglesCount * TRIANGLE_SIZE + halfEdgesCount * HALF_EDGE_SIZE;
+        ByteBuffer payload = ByteBuffer.allocate(payloadSize).order(ByteOrder.LITTLE_ENDIAN);
+        putDoubles(payload, positions);
+        putInts(payload, vertexOutingHEdges);
+        putInts(payload, triangleInts);
+        putInts(payload, halfEdgeInts);
+        payload.put(halfEdgeTypes);
+
+        byte[] storedPayload = payload.array();
+        int storedSize = payloadSize;
+        short flags = 0;
+        if (compress && payloadSize > 0) {
+            storedPayload = deflate(payload.array());
+            storedSize = storedPayload.length;
+            flags |= FLAG_DEFLATE;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + storedSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort(flags);
+        buffer.putInt(mesh.id);
+        buffer.putInt(verticesCount);
+        buffer.putInt(trianglesCount);
+        buffer.putInt(halfEdgesCount);
+        buffer.putInt(payloadSize);
+        buffer.putInt(storedSize);
+        buffer.put(storedPayload, 0, storedSize);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static TerrainMesh decode(ByteBuffer buffer) throws IOException {
+        if (!isCompactFormat(buffer)) {
+            return decodeLegacy(buffer);
+        }
+
+        buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.getInt(); // magic
+        short version = buffer.getShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported temp mesh version : " + version);
+        }
+        short flags = buffer.getShort();
+        int meshId = buffer.getInt();
+        int verticesCount = buffer.getInt();
+        int trianglesCount = buffer.getInt();
+        int halfEdgesCount = buffer.getInt();
+        int payloadSize = buffer.getInt();
+        int storedSize = buffer.getInt();
+
+        ByteBuffer payload;
+        if ((flags & FLAG_DEFLATE) != 0) {
+            byte[] compressed = new byte[storedSize];
+            buffer.get(compressed);
+            payload = ByteBuffer.wrap(inflate(compressed, payloadSize)).order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+            payload = buffer;
+        }
+
+        double[] positions = new double[verticesCount * 3];
+        int[] vertexOutingHEdges = new int[verticesCount];
+        int[] triangleInts = new int[trianglesCount * 5];
+        int[] halfEdgeInts = new int[halfEdgesCount * 4];
+        byte[] halfEdgeTypes = new byte[halfEdgesCount];
+        getDoubles(payload, positions);
+        getInts(payload, vertexOutingHEdges);
+        getInts(payload, triangleInts);
+        getInts(payload, halfEdgeInts);
+        payload.get(halfEdgeTypes);
+
+        TerrainMesh mesh = new TerrainMesh();
+        mesh.id = meshId;
+        TerrainVertex[] vertices = new TerrainVertex[verticesCount];
+        TerrainTriangle[] triangles = new TerrainTriangle[trianglesCount];
+        TerrainHalfEdge[] halfEdges = new TerrainHalfEdge[halfEdgesCount];
+        for (int i = 0; i < verticesCount; i++) {
+            TerrainVertex vertex = mesh.newVertex();
+            vertex.setId(i);
+            vertex.getPosition().set(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]);
+            vertices[i] = vertex;
+        }
+        for (int i = 0; i < trianglesCount; i++) {
+            TerrainTriangle triangle = mesh.newTriangle();
+            triangle.setId(i);
+            int offset = i * 5;
+            triangle.getOwnerTileIndices().set(triangleInts[offset + 1], triangleInts[offset + 2], triangleInts[offset + 3]);
+            triangle.setSplitDepth(triangleInts[offset + 4]);
+            triangles[i] = triangle;
+        }
+        for (int i = 0; i < halfEdgesCount; i++) {
+            TerrainHalfEdge halfEdge = mesh.newHalfEdge();
+            halfEdge.setId(i);
+            halfEdge.setType(TerrainHalfEdgeType.fromValue(halfEdgeTypes[i]));
+            halfEdges[i] = halfEdge;
+        }
+
+        // now, find pointing objects
+        for (int i = 0; i < halfEdgesCount; i++) {
+            TerrainHalfEdge halfEdge = halfEdges[i];
+            int offset = i * 4;
+            int vertexIdx = halfEdgeInts[offset];
+            if (vertexIdx != -1) {
+                halfEdge.setStartVertex(vertices[vertexIdx]);
+            }
+            int nextIdx = halfEdgeInts[offset + 1];
+            if (nextIdx != -1) {
+                halfEdge.setNext(halfEdges[nextIdx]);
+            }
+            // twin can be null
+            int twinIdx = halfEdgeInts[offset + 2];
+            if (twinIdx != -1) {
+                halfEdge.setTwin(halfEdges[twinIdx]);
+            }
+            int triangleIdx = halfEdgeInts[offset + 3];
+            if (triangleIdx != -1) {
+                halfEdge.setTriangle(triangles[triangleIdx]);
+            }
+        }
+        for (int i = 0; i < verticesCount; i++) {
+            int outingIdx = vertexOutingHEdges[i];
+            if (outingIdx != -1) {
+                vertices[i].setOutingHEdge(halfEdges[outingIdx]);
+            }
+        }
+        for (int i = 0; i < trianglesCount; i++) {
+            int halfEdgeIdx = triangleInts[i * 5];
+            if (halfEdgeIdx != -1) {
+                triangles[i].halfEdge = halfEdges[halfEdgeIdx];
+            }
+        }
+        return mesh;
+    }
+
+    private static TerrainMesh decodeLegacy(ByteBuffer buffer) throws IOException {
+        // old big-endian field by field format
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        TerrainMesh mesh = new TerrainMesh();
+        try (BigEndianDataInputStream dataInputStream = new BigEndianDataInputStream(new ByteArrayInputStream(bytes))) {
+            mesh.loadDataInputStream(dataInputStream);
+        }
+        return mesh;
+    }
+
+    private static <T> int indexOf(List<T> list, T object) {
+        // the ids are the indices in list (setObjectsIdInList), but the pointed object can belong to other mesh
+        if (object == null) {
+            return -1;
+        }
+        int id;
+        if (object instanceof TerrainVertex) {
+            id = ((TerrainVertex) object).getId();
+        } else if (object instanceof TerrainTriangle) {
+            id = ((TerrainTriangle) object).getId();
+        } else {
+            id = ((TerrainHalfEdge) object).getId();
+        }
+        if (id < 0 || id >= list.size() || list.get(id) != object) {
+            return -1;
+        }
+        return id;
+    }
+
+    private static void putDoubles(ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Double.BYTES);
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Integer.BYTES);
+    }
+
+    private static void getDoubles(ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Double.BYTES);
+    }
+
+    private static void getInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Integer.BYTES);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] chunk = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(chunk);
+                outputStream.write(chunk, 0, count);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int rawSize) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[rawSize];
+            int offset = 0;
+            while (offset < rawSize && !inflater.finished()) {
+                int count = inflater.inflate(result, offset, rawSize - offset);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += count;
+            }
+            if (offset != rawSize) {
+                throw new IOException("Corrupted temp mesh payload.");
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted temp mesh payload.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.terrain.io;
+
+import com.terrain.common.TerrainMesh;
+import com.terrain.manager.TileIndices;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.collections.impl.map.mutable.primitive.LongLongHashMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only store for the temp tile meshes : one file per depth (L{depth}.tiles) instead of one .til file per tile.
+ * Record : key(long, packed L-X-Y) + length(int) + mesh bytes (TerrainMeshCodec).
+ * The index (key -> record offset) is kept in memory, and it's rebuilt by scanning the records when the store file already exists (continue mode).
+ * When a tile is saved again, the new record is appended and the index points to the last one. When the replaced records are more than
+ * half of the file, the file is compacted (the last record of each tile is copied in a new file that replaces it).
+ */
+@Slf4j
+public class TileTempStore implements Closeable {
+    private static final String FILE_EXTENSION = ".tiles";
+    private static final int RECORD_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final long COMPACT_MIN_DEAD_BYTES = 64L * 1024 * 1024;
+    private static final double COMPACT_DEAD_RATIO = 0.5;
+
+    private final String folderPath;
+    private final boolean compress;
+    private final Map<Integer, DepthStore> depthStores = new HashMap<>();
+
+    public TileTempStore(String folderPath, boolean compress) {
+        this.folderPath = folderPath;
+        this.compress = compress;
+    }
+
+    public void put(TileIndices tileIndices, TerrainMesh mesh) throws IOException {
+        // encode out of the lock
+        ByteBuffer meshBuffer = TerrainMeshCodec.encode(mesh, compress);
+        getDepthStore(tileIndices.getL(), true).append(tileIndices.getPackedKey(), meshBuffer);
+    }
+
+    public TerrainMesh get(TileIndices tileIndices) throws IOException {
+        DepthStore depthStore = getDepthStore(tileIndices.getL(), false);
+        if (depthStore == null) {
+            return null;
+        }
+        ByteBuffer meshBuffer = depthStore.read(tileIndices.getPackedKey());
+        if (meshBuffer == null) {
+            return null;
+        }
+        return TerrainMeshCodec.decode(meshBuffer);
+    }
+
+    public boolean exists(TileIndices tileIndices) throws IOException {
+        DepthStore depthStore = getDepthStore(tileIndices.getL(), false);
+        return depthStore != null && depthStore.contains(tileIndices.getPackedKey());
+    }
+
+    public boolean existsDepth(int depth) throws IOException {
+        DepthStore depthStore = getDepthStore(depth, false);
+        return depthStore != null && depthStore.size() > 0;
+    }
+
+    /**
+     * Returns the packed keys (see TileIndices.packKey) of all the tiles stored for the depth.
+     */
+    public long[] getKeys(int depth) throws IOException {
+        DepthStore depthStore = getDepthStore(depth, false);
+        if (depthStore == null) {
+            return new long[0];
+        }
+        return depthStore.keys();
+    }
+
+    /**
+     * Closes the file of the depth, used when the depth is no longer necessary.
+     */
+    public synchronized void closeDepth(int depth) {
+        DepthStore depthStore = depthStores.remove(depth);
+        if (depthStore != null) {
+            depthStore.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (DepthStore depthStore : depthStores.values()) {
+            depthStore.close();
+        }
+        depthStores.clear();
+    }
+
+    public String getDepthFilePath(int depth) {
+        return folderPath + File.separator + "L" + depth + FILE_EXTENSION;
+    }
+
+    private synchronized DepthStore getDepthStore(int depth, boolean create) throws IOException {
+        DepthStore depthStore = depthStores.get(depth);
+        if (depthStore != null) {
+            return depthStore;
+        }
+
+        File file = new File(getDepthFilePath(depth));
+        if (!file.exists()) {
+            if (!create) {
+                return null;
+            }
+            File folder = file.getParentFile();
+            if (folder != null && !folder.exists() && !folder.mkdirs()) {
+                throw new IOException("Failed to create folder: " + folder.getAbsolutePath());
+            }
+        }
+
+        depthStore = new DepthStore(file.toPath());
+        depthStores.put(depth, depthStore);
+        return depthStore;
+    }
+
+    private static class DepthStore {
+        private final Path path;
+        private final LongLongHashMap index = new LongLongHashMap();
+        // the appends & the compaction are exclusive, the reads are concurrent
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private FileChannel channel;
+        private long endPosition = 0;
+        // bytes of the records replaced by a newer record of the same tile
+        private long deadBytes = 0;
+
+        DepthStore(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            rebuildIndex();
+        }
+
+        private void rebuildIndex() throws IOException {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long position = 0;
+            while (position + RECORD_HEADER_SIZE <= fileSize) {
+                header.clear();
+                readFully(header, position);
+                header.flip();
+                long key = header.getLong();
+                int length = header.getInt();
+                if (length < 0 || position + RECORD_HEADER_SIZE + length > fileSize) {
+                    break; // truncated record of an interrupted process
+                }
+                long previousPosition = index.getIfAbsent(key, -1L);
+                if (previousPosition >= 0) {
+                    deadBytes += RECORD_HEADER_SIZE + readLength(previousPosition);
+                }
+                index.put(key, position);
+                position += RECORD_HEADER_SIZE + length;
+            }
+            if (position < fileSize) {
+                log.warn("Temp tile store truncated at {} (size {}).", position, fileSize);
+                channel.truncate(position);
+            }
+            endPosition = position;
+        }
+
+        void append(long key, ByteBuffer meshBuffer) throws IOException {
+            lock.writeLock().lock();
+            try {
+                long previousPosition = index.getIfAbsent(key, -1L);
+                if (previousPosition >= 0) {
+                    deadBytes += RECORD_HEADER_SIZE + readLength(previousPosition);
+                }
+                long position = endPosition;
+                endPosition = writeRecord(channel, position, key, meshBuffer);
+                index.put(key, position);
+
+                // the border tiles are saved again by each neighbor mosaic, so the replaced records are reclaimed.***
+                if (deadBytes >= COMPACT_MIN_DEAD_BYTES && deadBytes > endPosition * COMPACT_DEAD_RATIO) {
+                    compact();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Rewrites the last record of each tile in a new file, that replaces the store file. Called with the write lock.
+         */
+        private void compact() throws IOException {
+            long startTime = System.currentTimeMillis();
+            long previousSize = endPosition;
+
+            // the records are copied in file order.***
+            long[] keys = index.keySet().toArray();
+            long[] positions = new long[keys.length];
+            Integer[] order = new Integer[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                positions[i] = index.get(keys[i]);
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> positions[i]));
+
+            Path tempPath = new File(path.toString() + ".tmp").toPath();
+            LongLongHashMap compactedIndex = new LongLongHashMap(keys.length);
+            long compactedEndPosition = 0;
+            try (FileChannel tempChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Integer i : order) {
+                    ByteBuffer meshBuffer = readRecord(positions[i]);
+                    compactedIndex.put(keys[i], compactedEndPosition);
+                    compactedEndPosition = writeRecord(tempChannel, compactedEndPosition, keys[i], meshBuffer);
+                }
+            }
+
+            channel.close();
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            index.clear();
+            index.putAll(compactedIndex);
+            endPosition = compactedEndPosition;
+            deadBytes = 0;
+            log.debug("Temp tile store compacted : {} -> {} bytes ({} ms).", previousSize, compactedEndPosition, System.currentTimeMillis() - startTime);
+        }
+
+        private static long writeRecord(FileChannel targetChannel, long position, long key, ByteBuffer meshBuffer) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(key);
+            header.putInt(meshBuffer.remaining());
+            header.flip();
+
+            long writePosition = position;
+            ByteBuffer[] buffers = {header, meshBuffer};
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    writePosition += targetChannel.write(buffer, writePosition);
+                }
+            }
+            return writePosition;
+        }
+
+        ByteBuffer read(long key) throws IOException {
+            lock.readLock().lock();
+            try {
+                long position = index.getIfAbsent(key, -1L);
+                if (position < 0) {
+                    return null;
+                }
+                return readRecord(position);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private ByteBuffer readRecord(long position) throws IOException {
+            int length = readLength(position);
+            ByteBuffer meshBuffer = ByteBuffer.allocate(length);
+            readFully(meshBuffer, position + RECORD_HEADER_SIZE);
+            meshBuffer.flip();
+            return meshBuffer;
+        }
+
+        private int readLength(long position) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(header, position);
+            header.flip();
+            header.getLong();
+            return header.getInt();
+        }
+
+        boolean contains(long key) {
+            lock.readLock().lock();
+            try {
+                return index.containsKey(key);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return index.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        long[] keys() {
+            lock.readLock().lock();
+            try {
+                return index.keySet().toArray();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of temp tile store.");
+                }
+                position += read;
+            }
+        }
+
+        void close() {
+            lock.writeLock().lock();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Error:", e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
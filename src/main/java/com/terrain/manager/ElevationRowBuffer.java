@@ -0,0 +1,47 @@
+package com.terrain.manager;
+
+import lombok.Getter;
+
+/**
+ * Reusable primitive arrays used to calculate the elevations of a raster row (see TerrainElevationDataManager.getElevationRow).
+ * One instance by thread, all the arrays are indexed by the raster column.
+ */
+@Getter
+public class ElevationRowBuffer {
+    private int capacity = 0;
+
+    // source grid samples & pixel coordinates
+    private int[] columns;
+    private int[] columnsNext;
+    private double[] factorsX;
+    private float[] values00;
+    private float[] values10;
+    private float[] values01;
+    private float[] values11;
+
+    // result of a source
+    private double[] values;
+    private boolean[] valid;
+
+    // result of all the sources
+    private double[] elevations;
+    private boolean[] filled;
+
+    public void ensureCapacity(int rasterWidth) {
+        if (capacity >= rasterWidth) {
+            return;
+        }
+        capacity = rasterWidth;
+        columns = new int[rasterWidth];
+        columnsNext = new int[rasterWidth];
+        factorsX = new double[rasterWidth];
+        values00 = new float[rasterWidth];
+        values10 = new float[rasterWidth];
+        values01 = new float[rasterWidth];
+        values11 = new float[rasterWidth];
+        values = new double[rasterWidth];
+        valid = new boolean[rasterWidth];
+        elevations = new double[rasterWidth];
+        filled = new boolean[rasterWidth];
+    }
+}
@@ -1,12 +1,8 @@
 package com.terrain.manager;
 
-import com.twelvemonkeys.io.LittleEndianDataInputStream;
-import com.twelvemonkeys.io.LittleEndianDataOutputStream;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.io.IOException;
-
 @Getter
 @Setter
 public class QuantizedMeshHeader {
@@ -26,40 +22,4 @@ public class QuantizedMeshHeader {
     private double HorizonOcclusionPointX = 0.0;
     private double HorizonOcclusionPointY = 0.0;
     private double HorizonOcclusionPointZ = 0.0;
-
-    public void loadDataInputStream(LittleEndianDataInputStream dataInputStream) throws IOException {
-        CenterX = dataInputStream.readDouble();
-        CenterY = dataInputStream.readDouble();
-        CenterZ = dataInputStream.readDouble();
-
-        MinimumHeight = dataInputStream.readFloat();
-        MaximumHeight = dataInputStream.readFloat();
-
-        BoundingSphereCenterX = dataInputStream.readDouble();
-        BoundingSphereCenterY = dataInputStream.readDouble();
-        BoundingSphereCenterZ = dataInputStream.readDouble();
-        BoundingSphereRadius = dataInputStream.readDouble();
-
-        HorizonOcclusionPointX = dataInputStream.readDouble();
-        HorizonOcclusionPointY = dataInputStream.readDouble();
-        HorizonOcclusionPointZ = dataInputStream.readDouble();
-    }
-
-    public void saveDataOutputStream(LittleEndianDataOutputStream dataOutputStream) throws IOException {
-        dataOutputStream.writeDouble(CenterX);
-        dataOutputStream.writeDouble(CenterY);
-        dataOutputStream.writeDouble(CenterZ);
-
-        dataOutputStream.writeFloat(MinimumHeight);
-        dataOutputStream.writeFloat(MaximumHeight);
-
-        dataOutputStream.writeDouble(BoundingSphereCenterX);
-        dataOutputStream.writeDouble(BoundingSphereCenterY);
-        dataOutputStream.writeDouble(BoundingSphereCenterZ);
-        dataOutputStream.writeDouble(BoundingSphereRadius);
-
-        dataOutputStream.writeDouble(HorizonOcclusionPointX);
-        dataOutputStream.writeDouble(HorizonOcclusionPointY);
-        dataOutputStream.writeDouble(HorizonOcclusionPointZ);
-    }
 }
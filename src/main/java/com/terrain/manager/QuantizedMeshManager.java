@@ -1,7 +1,8 @@
 package com.terrain.manager;
 
 import com.terrain.common.*;
-import com.terrain.geometry.GaiaBoundingBox;
+import com.terrain.geometry.TileSkirt;
+import com.utils.GeometryUtils;
 import com.utils.GlobeUtils;
 import com.utils.OctNormalFactory;
 import com.utils.TerrainHalfEdgeUtils;
@@ -23,6 +24,9 @@ public class QuantizedMeshManager {
         QuantizedMeshHeader header = quantizedMesh.getHeader();
         if (header == null) return null;
 
+        // the skirts are added when the tile is saved, so they are not part of the mesh.***
+        TileSkirt.removeSkirts(quantizedMesh);
+
         // calculate the geographic extension by tileIndices
         String imaginaryType = tileManager.getImaginaryType();
         GeographicExtension geoExtension = TileWgs84Utils.getGeographicExtentOfTileLXY(tileIndices.getL(), tileIndices.getX(), tileIndices.getY(), null, imaginaryType, tileManager.originIsLeftUp());
@@ -179,8 +183,15 @@ public class QuantizedMeshManager {
     }
 
     public QuantizedMesh getQuantizedMeshFromTile(TileWgs84 tile, boolean calculateNormals) {
-        // First get the quantized mesh header
-        QuantizedMeshHeader header = new QuantizedMeshHeader();
+        QuantizedMeshSnapshot snapshot = makeSnapshot(tile, calculateNormals);
+        if (snapshot == null) return null;
+        return getQuantizedMeshFromSnapshot(snapshot, calculateNormals);
+    }
+
+    /**
+     * Copies the mesh data of the tile needed to encode the quantized mesh. Must be called in the thread that owns the mesh.
+     */
+    public QuantizedMeshSnapshot makeSnapshot(TileWgs84 tile, boolean calculateNormals) {
         TerrainMesh mesh = tile.getMesh();
 
         if (mesh == null) return null;
@@ -191,61 +202,98 @@ public class QuantizedMeshManager {
 
         mesh.setObjectsIdInList();
 
-        // Calculate the minimum and maximum heights & bbox
-        GaiaBoundingBox bboxWC = new GaiaBoundingBox();
-        double minimumHeight = Double.MAX_VALUE;
-        double maximumHeight = -Double.MAX_VALUE;
-        for (int i = 0; i < vertexCount; i++) {
-            TerrainVertex vertex = vertices.get(i);
-            double height = vertex.getPosition().z;
-            if (height < minimumHeight) minimumHeight = height;
-            if (height > maximumHeight) maximumHeight = height;
-
-            // calculate the bbox in world coordinates
-            double[] posWC = GlobeUtils.geographicToCartesianWgs84(vertex.getPosition().x, vertex.getPosition().y, height);
-            bboxWC.addPoint(posWC[0], posWC[1], posWC[2]);
+        QuantizedMeshSnapshot snapshot = new QuantizedMeshSnapshot();
+        TileIndices tileIndices = tile.getTileIndices();
+        if (tileIndices != null) {
+            TileIndices tileIndicesCopy = new TileIndices();
+            tileIndicesCopy.set(tileIndices.getX(), tileIndices.getY(), tileIndices.getL());
+            snapshot.setTileIndices(tileIndicesCopy);
         }
-        double midHeight = (minimumHeight + maximumHeight) / 2.0;
+        snapshot.setGeographicExtension(tile.getGeographicExtension());
+        snapshot.setVertexCount(vertexCount);
 
-        // Calculate the center of the tile in Earth-centered Fixed coordinates
-        GeographicExtension geographicExtension = tile.getGeographicExtension();
-        double midLonDeg = geographicExtension.getMidLongitudeDeg();
-        double midLatDeg = geographicExtension.getMidLatitudeDeg();
+        double[] positions = new double[vertexCount * 3];
+        for (int i = 0; i < vertexCount; i++) {
+            Vector3d position = vertices.get(i).getPosition();
+            positions[i * 3] = position.x;
+            positions[i * 3 + 1] = position.y;
+            positions[i * 3 + 2] = position.z;
+        }
+        snapshot.setPositions(positions);
 
-        double[] cartesianWC = GlobeUtils.geographicToCartesianWgs84(midLonDeg, midLatDeg, midHeight);
+        int triangleCount = mesh.triangles.size();
+        int[] triangleIndices = new int[triangleCount * 3];
+        for (int i = 0; i < triangleCount; i++) {
+            TerrainTriangle triangle = mesh.triangles.get(i);
+            this.listVertices.clear();
+            this.listHalfEdges.clear();
+            this.listVertices = triangle.getVertices(this.listVertices, this.listHalfEdges);
+            triangleIndices[i * 3] = this.listVertices.get(0).getId();
+            triangleIndices[i * 3 + 1] = this.listVertices.get(1).getId();
+            triangleIndices[i * 3 + 2] = this.listVertices.get(2).getId();
+        }
+        snapshot.setTriangleIndices(triangleIndices);
 
-        header.setCenterX(cartesianWC[0]);
-        header.setCenterY(cartesianWC[1]);
-        header.setCenterZ(cartesianWC[2]);
+        // now, edgesIndices
+        snapshot.setWestIndices(getVertexIds(mesh.getLeftVerticesSortedUpToDown()));
+        snapshot.setSouthIndices(getVertexIds(mesh.getDownVerticesSortedLeftToRight()));
+        snapshot.setEastIndices(getVertexIds(mesh.getRightVerticesSortedDownToUp()));
+        snapshot.setNorthIndices(getVertexIds(mesh.getUpVerticesSortedRightToLeft()));
 
-        header.setMinimumHeight((float) minimumHeight);
-        header.setMaximumHeight((float) maximumHeight);
+        if (calculateNormals) {
+            float[] normals = new float[vertexCount * 3];
+            for (int i = 0; i < vertexCount; i++) {
+                Vector3f normal = vertices.get(i).getNormal();
+                if (normal == null) {
+                    normals[i * 3 + 2] = 1.0f;
+                } else {
+                    normals[i * 3] = normal.x;
+                    normals[i * 3 + 1] = normal.y;
+                    normals[i * 3 + 2] = normal.z;
+                }
+            }
+            snapshot.setNormals(normals);
+        }
+        return snapshot;
+    }
 
-        // Calculate the bounding sphere
-        Vector3d centerWC = bboxWC.getCenter();
-        double radius = bboxWC.getLongestDistance() / 2.0;
+    private int[] getVertexIds(List<TerrainVertex> edgeVertices) {
+        int[] ids = new int[edgeVertices.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = edgeVertices.get(i).getId();
+        }
+        return ids;
+    }
 
-        header.setBoundingSphereCenterX(centerWC.x);
-        header.setBoundingSphereCenterY(centerWC.y);
-        header.setBoundingSphereCenterZ(centerWC.z);
-        header.setBoundingSphereRadius(radius);
+    /**
+     * Encodes the quantized mesh of a snapshot (see makeSnapshot). Doesn't access the mesh objects, so it can run in any thread.
+     */
+    public QuantizedMesh getQuantizedMeshFromSnapshot(QuantizedMeshSnapshot snapshot, boolean calculateNormals) {
+        int vertexCount = snapshot.getVertexCount();
+        double[] positions = snapshot.getPositions();
 
-        Vector3d horizonOccPoint = calculateHorizonOcclusionPoint(bboxWC);
+        // Calculate the minimum and maximum heights
+        double minimumHeight = Double.MAX_VALUE;
+        double maximumHeight = -Double.MAX_VALUE;
+        for (int i = 0; i < vertexCount; i++) {
+            double height = positions[i * 3 + 2];
+            if (height < minimumHeight) minimumHeight = height;
+            if (height > maximumHeight) maximumHeight = height;
+        }
 
-        header.setHorizonOcclusionPointX(horizonOccPoint.x);
-        header.setHorizonOcclusionPointY(horizonOccPoint.y);
-        header.setHorizonOcclusionPointZ(horizonOccPoint.z);
+        // positions in world coordinates
+        double[] positionsWC = new double[vertexCount * 3];
+        GlobeUtils.geographicToCartesianWgs84(positions, vertexCount, positionsWC);
+        GeographicExtension geographicExtension = snapshot.getGeographicExtension();
+        QuantizedMeshHeader header = makeHeader(geographicExtension, minimumHeight, maximumHeight, positionsWC, vertexCount);
 
         QuantizedMesh quantizedMesh = new QuantizedMesh();
         quantizedMesh.setHeader(header);
 
+        int[] triangleIndices = snapshot.getTriangleIndices();
         quantizedMesh.setVertexCount(vertexCount);
-        quantizedMesh.setTriangleCount(mesh.triangles.size());
-
-        quantizedMesh.setUBuffer(new short[vertexCount]);
-        quantizedMesh.setVBuffer(new short[vertexCount]);
-        quantizedMesh.setHeightBuffer(new short[vertexCount]);
-        quantizedMesh.setTriangleIndices(new int[quantizedMesh.getTriangleCount() * 3]);
+        quantizedMesh.setTriangleCount(triangleIndices.length / 3);
+        quantizedMesh.setTriangleIndices(triangleIndices);
 
         double minLonDeg = geographicExtension.getMinLongitudeDeg();
         double maxLonDeg = geographicExtension.getMaxLongitudeDeg();
@@ -261,86 +309,42 @@ public class QuantizedMeshManager {
         double latScale = latRange / 32767.0;
         double heightScale = 32767.0 / heightRange;
 
+        short[] uBuffer = new short[vertexCount];
+        short[] vBuffer = new short[vertexCount];
+        short[] heightBuffer = new short[vertexCount];
         for (int i = 0; i < vertexCount; i++) {
-            TerrainVertex vertex = vertices.get(i);
-            double lonDeg = vertex.getPosition().x;
-            double latDeg = vertex.getPosition().y;
-            double height = vertex.getPosition().z;
-
-            short[] uBuffer = quantizedMesh.getUBuffer();
-            short[] vBuffer = quantizedMesh.getVBuffer();
-            short[] heightBuffer = quantizedMesh.getHeightBuffer();
+            double lonDeg = positions[i * 3];
+            double latDeg = positions[i * 3 + 1];
+            double height = positions[i * 3 + 2];
 
             uBuffer[i] = (short) ((lonDeg - minLonDeg) / lonScale);
             vBuffer[i] = (short) ((latDeg - minLatDeg) / latScale);
             heightBuffer[i] = (short) ((height - minimumHeight) * heightScale);
         }
-
-        for (int i = 0; i < quantizedMesh.getTriangleCount(); i++) {
-            TerrainTriangle triangle = mesh.triangles.get(i);
-            this.listVertices.clear();
-            this.listHalfEdges.clear();
-            this.listVertices = triangle.getVertices(this.listVertices, this.listHalfEdges);
-            quantizedMesh.getTriangleIndices()[i * 3] = this.listVertices.get(0).getId();
-            quantizedMesh.getTriangleIndices()[i * 3 + 1] = this.listVertices.get(1).getId();
-            quantizedMesh.getTriangleIndices()[i * 3 + 2] = this.listVertices.get(2).getId();
-        }
-
-        // now, edgesIndices
-        // west vertices
-        List<TerrainVertex> westVertices = mesh.getLeftVerticesSortedUpToDown(); // original
-        int westVerticesCount = westVertices.size();
-        quantizedMesh.setWestIndices(new int[westVerticesCount]);
-        quantizedMesh.setWestVertexCount(westVerticesCount);
-        for (int i = 0; i < westVerticesCount; i++) {
-            quantizedMesh.getWestIndices()[i] = westVertices.get(i).getId();
-        }
-
-        // south vertices
-        List<TerrainVertex> southVertices = mesh.getDownVerticesSortedLeftToRight();
-        int southVerticesCount = southVertices.size();
-        quantizedMesh.setSouthIndices(new int[southVerticesCount]);
-        quantizedMesh.setSouthVertexCount(southVerticesCount);
-        for (int i = 0; i < southVerticesCount; i++) {
-            quantizedMesh.getSouthIndices()[i] = southVertices.get(i).getId();
-        }
-
-        // east vertices
-        List<TerrainVertex> eastVertices = mesh.getRightVerticesSortedDownToUp();
-        int eastVerticesCount = eastVertices.size();
-        quantizedMesh.setEastIndices(new int[eastVerticesCount]);
-        quantizedMesh.setEastVertexCount(eastVerticesCount);
-        for (int i = 0; i < eastVerticesCount; i++) {
-            quantizedMesh.getEastIndices()[i] = eastVertices.get(i).getId();
-        }
-
-        // north vertices
-        List<TerrainVertex> northVertices = mesh.getUpVerticesSortedRightToLeft();
-        int northVerticesCount = northVertices.size();
-        quantizedMesh.setNorthIndices(new int[northVerticesCount]);
-        quantizedMesh.setNorthVertexCount(northVerticesCount);
-        for (int i = 0; i < northVerticesCount; i++) {
-            int[] northIndices = quantizedMesh.getNorthIndices();
-            northIndices[i] = northVertices.get(i).getId();
-        }
+        quantizedMesh.setUBuffer(uBuffer);
+        quantizedMesh.setVBuffer(vBuffer);
+        quantizedMesh.setHeightBuffer(heightBuffer);
+
+        // edgesIndices
+        quantizedMesh.setWestIndices(snapshot.getWestIndices());
+        quantizedMesh.setWestVertexCount(snapshot.getWestIndices().length);
+        quantizedMesh.setSouthIndices(snapshot.getSouthIndices());
+        quantizedMesh.setSouthVertexCount(snapshot.getSouthIndices().length);
+        quantizedMesh.setEastIndices(snapshot.getEastIndices());
+        quantizedMesh.setEastVertexCount(snapshot.getEastIndices().length);
+        quantizedMesh.setNorthIndices(snapshot.getNorthIndices());
+        quantizedMesh.setNorthVertexCount(snapshot.getNorthIndices().length);
 
         // check if save normals
-        if (calculateNormals) {
+        float[] normals = snapshot.getNormals();
+        if (calculateNormals && normals != null) {
 
             // Calculate the normals
-            quantizedMesh.setOctEncodedNormals(new byte[vertexCount * 2]);
+            byte[] octEncodedNormals = new byte[vertexCount * 2];
             for (int i = 0; i < vertexCount; i++) {
-                TerrainVertex vertex = vertices.get(i);
-                Vector3f normal = vertex.getNormal();
-                if (normal == null) {
-                    normal = new Vector3f(0, 0, 1);
-                }
-
-                //Vector2f octNormal = encodeOctNormal(normal);
-                byte[] octNormalBytes = OctNormalFactory.encodeOctNormalByte(normal);
-                quantizedMesh.getOctEncodedNormals()[i * 2] = octNormalBytes[0];
-                quantizedMesh.getOctEncodedNormals()[i * 2 + 1] = octNormalBytes[1];
+                OctNormalFactory.encodeOctNormal(normals, i * 3, octEncodedNormals, i * 2);
             }
+            quantizedMesh.setOctEncodedNormals(octEncodedNormals);
 
             // Terrain Lighting
             // Name: Oct-Encoded Per-Vertex Normals
@@ -350,19 +354,68 @@ public class QuantizedMeshManager {
             quantizedMesh.setExtensionLength(vertexCount * 2); // int
         }
 
+        // watermask extension, null if the tile has no water mask
+        quantizedMesh.setWaterMask(snapshot.getWaterMask());
+
+        // metadata extension (child availability), null if the tile has no metadata
+        quantizedMesh.setMetadata(snapshot.getMetadata());
+
+        // skirts, after the normals so the skirt vertices copy the normals of the edge vertices.***
+        TileIndices tileIndices = snapshot.getTileIndices();
+        if (GlobalOptions.getInstance().isSkirt() && tileIndices != null) {
+            TileSkirt.addSkirts(quantizedMesh, TileSkirt.getSkirtHeight(tileIndices.getL()));
+        }
+
         return quantizedMesh;
     }
 
-    public Vector3d calculateHorizonOcclusionPoint(GaiaBoundingBox bboxWC) {
-        Vector3d centerWC = bboxWC.getCenter();
-        double radius = bboxWC.getLongestDistance() / 2.0;
+    /**
+     * Makes the quantized mesh header of a tile from its geographic extension, its height range and its vertices in world coordinates
+     * (x, y, z interleaved) : the bounding sphere is the Ritter sphere of the vertices, and the horizon occlusion point is calculated
+     * from all the vertices in the ellipsoid-scaled space.
+     */
+    public QuantizedMeshHeader makeHeader(GeographicExtension geographicExtension, double minimumHeight, double maximumHeight,
+                                          double[] positionsWC, int vertexCount) {
+        QuantizedMeshHeader header = new QuantizedMeshHeader();
+        double midHeight = (minimumHeight + maximumHeight) / 2.0;
+
+        // Calculate the center of the tile in Earth-centered Fixed coordinates
+        double midLonDeg = geographicExtension.getMidLongitudeDeg();
+        double midLatDeg = geographicExtension.getMidLatitudeDeg();
 
-        double[] centerCartesian = new double[3];
-        centerCartesian[0] = centerWC.x;
-        centerCartesian[1] = centerWC.y;
-        centerCartesian[2] = centerWC.z;
+        double[] cartesianWC = GlobeUtils.geographicToCartesianWgs84(midLonDeg, midLatDeg, midHeight);
 
-        Vector3d centerCartographic = GlobeUtils.cartesianToGeographicWgs84(centerCartesian[0], centerCartesian[1], centerCartesian[2]);
+        header.setCenterX(cartesianWC[0]);
+        header.setCenterY(cartesianWC[1]);
+        header.setCenterZ(cartesianWC[2]);
+
+        header.setMinimumHeight((float) minimumHeight);
+        header.setMaximumHeight((float) maximumHeight);
+
+        // Calculate the bounding sphere
+        double[] sphere = new double[4];
+        GeometryUtils.computeBoundingSphere(positionsWC, vertexCount, sphere);
+
+        header.setBoundingSphereCenterX(sphere[0]);
+        header.setBoundingSphereCenterY(sphere[1]);
+        header.setBoundingSphereCenterZ(sphere[2]);
+        header.setBoundingSphereRadius(sphere[3]);
+
+        // the horizon occlusion point is on the direction of the bounding sphere center
+        double[] horizonOccPoint = new double[3];
+        if (!GlobeUtils.computeHorizonOcclusionPoint(positionsWC, vertexCount, sphere[0], sphere[1], sphere[2], horizonOccPoint)) {
+            // the vertices are spread around the ellipsoid (the first depths), the point of the sphere is used
+            calculateHorizonOcclusionPoint(sphere[0], sphere[1], sphere[2], sphere[3], horizonOccPoint);
+        }
+
+        header.setHorizonOcclusionPointX(horizonOccPoint[0]);
+        header.setHorizonOcclusionPointY(horizonOccPoint[1]);
+        header.setHorizonOcclusionPointZ(horizonOccPoint[2]);
+        return header;
+    }
+
+    public void calculateHorizonOcclusionPoint(double centerX, double centerY, double centerZ, double radius, double[] result) {
+        Vector3d centerCartographic = GlobeUtils.cartesianToGeographicWgs84(centerX, centerY, centerZ);
         double centerLonDeg = centerCartographic.x;
         double centerLatDeg = centerCartographic.y;
 
@@ -378,10 +431,8 @@ public class QuantizedMeshManager {
         double y = cosLat * sinLon;
         double z = sinLat;
 
-        double occlusionPointX = centerCartesian[0] + x * radius;
-        double occlusionPointY = centerCartesian[1] + y * radius;
-        double occlusionPointZ = centerCartesian[2] + z * radius;
-
-        return new Vector3d(occlusionPointX, occlusionPointY, occlusionPointZ);
+        result[0] = centerX + x * radius;
+        result[1] = centerY + y * radius;
+        result[2] = centerZ + z * radius;
     }
 }
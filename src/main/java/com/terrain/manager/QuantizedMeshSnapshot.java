@@ -0,0 +1,36 @@
+package com.terrain.manager;
+
+import com.terrain.common.GeographicExtension;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Copy in primitive arrays of the tile mesh data needed to encode a quantized mesh (see QuantizedMeshManager.getQuantizedMeshFromSnapshot).
+ * The border vertices are shared by the meshes of the neighbor tiles, so the snapshot is made in the thread that owns the meshes,
+ * and then the quantized mesh can be encoded in any thread.
+ */
+@Getter
+@Setter
+public class QuantizedMeshSnapshot {
+    private TileIndices tileIndices;
+    private GeographicExtension geographicExtension;
+    private int vertexCount = 0;
+    // lonDeg, latDeg, height of each vertex
+    private double[] positions = null;
+    private int[] triangleIndices = null;
+
+    // edge indices
+    private int[] westIndices = null;
+    private int[] southIndices = null;
+    private int[] eastIndices = null;
+    private int[] northIndices = null;
+
+    // x, y, z of each vertex normal, null if the normals are not calculated
+    private float[] normals = null;
+
+    // water mask of the watermask extension, null if the water mask is not written
+    private byte[] waterMask = null;
+
+    // json of the metadata extension, null if the tile has no metadata
+    private byte[] metadata = null;
+}
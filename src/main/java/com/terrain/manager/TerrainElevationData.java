@@ -4,6 +4,7 @@ import com.terrain.common.GeographicExtension;
 import com.terrain.common.GlobalOptions;
 import com.terrain.enums.InterpolationType;
 import com.terrain.geometry.GaiaGeoTiffManager;
+import com.terrain.io.MappedFloatGrid;
 import it.geosolutions.jaiext.range.NoDataContainer;
 import lombok.Getter;
 import lombok.Setter;
@@ -14,7 +15,7 @@ import org.geotools.geometry.DirectPosition2D;
 import org.joml.Vector2d;
 import org.joml.Vector2i;
 
-import java.awt.image.Raster;
+import java.io.IOException;
 
 @Slf4j
 @Getter
@@ -29,7 +30,7 @@ public class TerrainElevationData {
     private String geotiffFileName = "";
     private GeographicExtension geographicExtension = new GeographicExtension();
     private GridCoverage2D coverage = null;
-    private Raster raster = null;
+    private MappedFloatGrid grid = null; // memory mapped float32 copy of the geoTiff
     private double minAltitude = Double.MAX_VALUE;
     private double maxAltitude = Double.MIN_VALUE;
     private double[] altitude = new double[1];
@@ -38,6 +39,7 @@ public class TerrainElevationData {
     private int geoTiffWidth = -1;
     private int geoTiffHeight = -1;
     private Vector2i gridCoverage2DSize = null;
+    private double priorityPixelArea = -1.0; // pixel area of the original geoTiff, used by the RESOLUTION priority (-1 = not calculated)
 
     public TerrainElevationData(TerrainElevationDataManager terrainElevationDataManager) {
         this.terrainElevDataManager = terrainElevationDataManager;
@@ -45,14 +47,17 @@ public class TerrainElevationData {
 
     public void deleteCoverage() {
         if (this.coverage != null) {
-            this.coverage.dispose(true);
+            // the coverage belongs to the cache of the manager : remove it from the cache (that disposes it).***
+            if (this.terrainElevDataManager != null) {
+                this.terrainElevDataManager.getGaiaGeoTiffManager().invalidateGridCoverage2D(this.geotiffFilePath);
+            }
             this.coverage = null;
         }
 
         if (this.noDataContainer != null) {
             this.noDataContainer = null;
         }
-        this.raster = null;
+        this.grid = null;
     }
 
     public void deleteObjects() {
@@ -68,54 +73,45 @@ public class TerrainElevationData {
         worldPosition = null;
     }
 
-    public double getGridValue(int x, int y) {
-        double value = 0.0;
-        if (raster == null) {
-            GaiaGeoTiffManager gaiaGeoTiffManager;
-
-            if (this.coverage == null) {
-                gaiaGeoTiffManager = this.terrainElevDataManager.getGaiaGeoTiffManager();
-                this.coverage = gaiaGeoTiffManager.loadGeoTiffGridCoverage2D(this.geotiffFilePath);
-            }
-
-            if (this.noDataContainer == null) {
-                this.noDataContainer = CoverageUtilities.getNoDataProperty(coverage);
-            }
-
-            // determine the grid coordinates of the point
-            if (this.raster == null) {
-                this.raster = this.coverage.getRenderedImage().getData(); // original.***
-                this.coverage.dispose(true);
-                this.coverage = null;
-            }
-        }
-
-        if (raster != null) {
+    public synchronized MappedFloatGrid getGrid() {
+        if (this.grid == null) {
+            String gridFilePath = MappedFloatGrid.getGridFilePath(globalOptions.getGridTempPath(), this.geotiffFilePath);
             try {
-                value = raster.getSampleDouble(x, y, 0);
-                // check if value is NaN
-                if (Double.isNaN(value)) {
-                    return globalOptions.getNoDataValue();
+                if (!MappedFloatGrid.isUpToDate(gridFilePath, this.geotiffFilePath)) {
+                    // first use of the geoTiff (or the geoTiff changed) : write the float32 grid file, next uses only map it.***
+                    // the coverage is read out of the cache of the manager, so it can't be disposed by another thread while it's written.***
+                    GaiaGeoTiffManager gaiaGeoTiffManager = this.terrainElevDataManager.getGaiaGeoTiffManager();
+                    GridCoverage2D gridCoverage = gaiaGeoTiffManager.readGeoTiffGridCoverage2D(this.geotiffFilePath);
+                    try {
+                        if (this.noDataContainer == null) {
+                            this.noDataContainer = CoverageUtilities.getNoDataProperty(gridCoverage);
+                        }
+
+                        Double nodata = this.noDataContainer != null ? this.noDataContainer.getAsSingleValue() : null;
+                        MappedFloatGrid.write(gridCoverage.getRenderedImage(), nodata, gridFilePath, this.geotiffFilePath);
+                    } finally {
+                        gridCoverage.dispose(true);
+                    }
                 }
-            } catch (ArrayIndexOutOfBoundsException e) {
-                log.debug("[getGridValue : ArrayIndexOutOfBoundsException] getGridValue", e);
-            } catch (Exception e) {
-                log.error("[getGridValue : Exception] Error in getGridValue", e);
+                this.grid = MappedFloatGrid.open(gridFilePath);
+            } catch (IOException e) {
                 log.error("Error:", e);
             }
+        }
+        return this.grid;
+    }
 
-            if (this.noDataContainer == null && coverage != null) {
-                this.noDataContainer = CoverageUtilities.getNoDataProperty(coverage);
-            }
-
-            if (noDataContainer != null) {
-                double nodata = noDataContainer.getAsSingleValue();
-                if (value == nodata) {
-                    return globalOptions.getNoDataValue();
-                }
-            }
+    public double getGridValue(int x, int y) {
+        MappedFloatGrid grid = this.grid != null ? this.grid : getGrid();
+        if (grid == null) {
+            return 0.0;
         }
 
+        float value = grid.get(x, y);
+        // the noData values are NaN in the grid
+        if (Float.isNaN(value)) {
+            return globalOptions.getNoDataValue();
+        }
         return value;
     }
 
@@ -128,8 +124,22 @@ public class TerrainElevationData {
             return resultAltitude;
         }
 
+        return getElevationInside(lonDeg, latDeg, intersects);
+    }
+
+    /**
+     * Same as getElevation, but the caller already checked that (lonDeg, latDeg) is inside the geographicExtension.
+     */
+    public double getElevationInside(double lonDeg, double latDeg, boolean[] intersects) {
+        double resultAltitude = 0.0;
+
         if (gridCoverage2DSize == null) {
-            gridCoverage2DSize = this.terrainElevDataManager.getGaiaGeoTiffManager().getGridCoverage2DSize(this.geotiffFilePath);
+            MappedFloatGrid grid = getGrid();
+            if (grid != null) {
+                gridCoverage2DSize = new Vector2i(grid.getWidth(), grid.getHeight());
+            } else {
+                gridCoverage2DSize = this.terrainElevDataManager.getGaiaGeoTiffManager().getGridCoverage2DSize(this.geotiffFilePath);
+            }
         }
         Vector2i size = gridCoverage2DSize;
 
@@ -163,6 +173,111 @@ public class TerrainElevationData {
         return resultAltitude;
     }
 
+    /**
+     * Bulk version of getElevationInside for the samples of a raster row : latitude latDeg, longitudes firstLonDeg + col * deltaLonDeg, col in [startCol, endCol].
+     * The caller already checked that the samples are inside the geographicExtension.
+     * The results are written in rowBuffer.values[col], and rowBuffer.valid[col] is false for the noData samples.
+     */
+    public void getElevationRow(double latDeg, double firstLonDeg, double deltaLonDeg, int startCol, int endCol, ElevationRowBuffer rowBuffer) {
+        double[] values = rowBuffer.getValues();
+        boolean[] valid = rowBuffer.getValid();
+        double noDataValue = globalOptions.getNoDataValue();
+
+        MappedFloatGrid grid = getGrid();
+        if (grid == null) {
+            // same result as getGridValue without grid.***
+            boolean isValid = noDataValue != 0.0;
+            for (int col = startCol; col <= endCol; col++) {
+                values[col] = 0.0;
+                valid[col] = isValid;
+            }
+            if (isValid) {
+                minAltitude = Math.min(minAltitude, 0.0);
+                maxAltitude = Math.max(maxAltitude, 0.0);
+            }
+            return;
+        }
+
+        int gridWidth = grid.getWidth();
+        int gridHeight = grid.getHeight();
+
+        // affine mapping of the row into the grid : pixelX = pixelX0 + col * pixelXStep, pixelY is constant.***
+        double lonRangeDeg = this.geographicExtension.getLongitudeRangeDegree();
+        double pixelXStep = deltaLonDeg / lonRangeDeg * gridWidth;
+        double pixelX0 = (firstLonDeg - this.geographicExtension.getMinLongitudeDeg()) / lonRangeDeg * gridWidth;
+        double unitaryY = 1.0 - (latDeg - this.geographicExtension.getMinLatitudeDeg()) / this.geographicExtension.getLatitudeRangeDegree();
+        double pixelY = unitaryY * gridHeight;
+        int row = (int) Math.floor(pixelY);
+        double factorY = pixelY - row;
+
+        int[] columns = rowBuffer.getColumns();
+        int[] columnsNext = rowBuffer.getColumnsNext();
+        double[] factorsX = rowBuffer.getFactorsX();
+        for (int col = startCol; col <= endCol; col++) {
+            double pixelX = pixelX0 + col * pixelXStep;
+            int column = (int) Math.floor(pixelX);
+            columns[col] = column;
+            columnsNext[col] = column + 1;
+            factorsX[col] = pixelX - column;
+        }
+
+        float[] values00 = rowBuffer.getValues00();
+        grid.gatherRow(row, columns, startCol, endCol, values00);
+
+        double rowMinAltitude = minAltitude;
+        double rowMaxAltitude = maxAltitude;
+        if (globalOptions.getInterpolationType().equals(InterpolationType.BILINEAR)) {
+            float[] values10 = rowBuffer.getValues10();
+            float[] values01 = rowBuffer.getValues01();
+            float[] values11 = rowBuffer.getValues11();
+            grid.gatherRow(row, columnsNext, startCol, endCol, values10);
+            grid.gatherRow(row + 1, columns, startCol, endCol, values01);
+            grid.gatherRow(row + 1, columnsNext, startCol, endCol, values11);
+
+            for (int col = startCol; col <= endCol; col++) {
+                float value00 = values00[col];
+                float value10 = values10[col];
+                float value01 = values01[col];
+                float value11 = values11[col];
+
+                boolean noData00 = Float.isNaN(value00) || value00 == noDataValue;
+                boolean hasNoData = noData00 || Float.isNaN(value10) || value10 == noDataValue
+                        || Float.isNaN(value01) || value01 == noDataValue || Float.isNaN(value11) || value11 == noDataValue;
+                if (hasNoData) {
+                    // same as calcBilinearInterpolation : value00, or noData.***
+                    values[col] = value00;
+                    valid[col] = !noData00;
+                } else {
+                    double value0 = value00 * (1.0 - factorY) + value01 * factorY;
+                    double value1 = value10 * (1.0 - factorY) + value11 * factorY;
+                    double value = value0 + factorsX[col] * (value1 - value0);
+                    values[col] = value;
+                    valid[col] = value != noDataValue;
+                }
+
+                if (valid[col]) {
+                    rowMinAltitude = Math.min(rowMinAltitude, values[col]);
+                    rowMaxAltitude = Math.max(rowMaxAltitude, values[col]);
+                }
+            }
+        } else {
+            for (int col = startCol; col <= endCol; col++) {
+                float value00 = values00[col];
+                values[col] = value00;
+                valid[col] = !Float.isNaN(value00) && value00 != noDataValue;
+
+                if (valid[col]) {
+                    rowMinAltitude = Math.min(rowMinAltitude, value00);
+                    rowMaxAltitude = Math.max(rowMaxAltitude, value00);
+                }
+            }
+        }
+
+        // update min, max altitude
+        minAltitude = rowMinAltitude;
+        maxAltitude = rowMaxAltitude;
+    }
+
     private double calcNearestInterpolation(int column, int row) {
         return this.getGridValue(column, row);
     }
@@ -5,6 +5,7 @@ import com.terrain.common.GlobalOptions;
 import com.terrain.common.TerrainTriangle;
 import com.terrain.enums.PriorityType;
 import com.terrain.geometry.GaiaGeoTiffManager;
+import com.terrain.geometry.GeoTiffHeader;
 import com.terrain.geometry.TerrainElevationDataQuadTree;
 import com.terrain.geometry.TileRange;
 import com.terrain.geometry.TileWgs84Raster;
@@ -16,7 +17,7 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.referencing.CRS;
 import org.joml.Vector2d;
 import org.locationtech.jts.geom.GeometryFactory;
@@ -28,9 +29,13 @@ import org.opengis.referencing.operation.TransformException;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 @Getter
 @Setter
@@ -42,8 +47,17 @@ public class TerrainElevationDataManager {
     private TileWgs84Manager tileWgs84Manager = null;
     private List<TerrainElevationData> terrainElevationDataArray = new ArrayList<>();
     private List<TerrainTriangle> trianglesArray = new ArrayList<>();
-    private Map<String, TileWgs84Raster> mapIndicesTileRaster = new HashMap<>();
+    // volatile : read without lock by the workers (see getTileRasterCache)
+    private volatile TileRasterCache tileRasterCache = null;
+    // depth of the raster tiles sampled from the geoTiffs, the raster tiles of the deeper depths are upsampled from them (-1 = no upsampling)
+    private int sourceRasterDepth = -1;
+    // raster tiles of the sourceRasterDepth, only used by the deeper depths
+    private volatile TileRasterCache sourceTileRasterCache = null;
+    // tiles range held by the prefetch of the next mosaic, released when the mosaic acquires its tiles
+    private TileRange prefetchedTileRange = null;
     private Map<String, Double> gridAreaMap = new HashMap<>();
+    // samples outside their raster tile, counted instead of logged (see getAndResetRasterMissCount)
+    private final LongAdder rasterMissCount = new LongAdder();
 
     // Inside the folder, there are multiple geoTiff files
     private String terrainElevationDataFolderPath;
@@ -64,87 +78,161 @@ public class TerrainElevationDataManager {
         rootTerrainElevationDataQuadTree.makeQuadTree(quadtreeMaxDepth);
     }
 
-    public GaiaGeoTiffManager getGaiaGeoTiffManager() {
+    public synchronized GaiaGeoTiffManager getGaiaGeoTiffManager() {
         if (myGaiaGeoTiffManager == null) {
             myGaiaGeoTiffManager = new GaiaGeoTiffManager();
         }
         return myGaiaGeoTiffManager;
     }
 
-    public TileWgs84Raster getTileWgs84Raster(TileIndices tileIndices, TileWgs84Manager tileWgs84Manager) {
-        TileWgs84Raster tileWgs84Raster = mapIndicesTileRaster.get(tileIndices.getString());
-        if (tileWgs84Raster == null) {
-            tileWgs84Raster = new TileWgs84Raster(tileIndices, tileWgs84Manager);
-            int tileRasterWidth = tileWgs84Manager.getRasterTileSize();
-            int tileRasterHeight = tileWgs84Manager.getRasterTileSize();
+    public TileRasterCache getTileRasterCache() {
+        TileRasterCache rasterCache = tileRasterCache;
+        if (rasterCache != null) {
+            return rasterCache;
+        }
+        synchronized (this) {
+            if (tileRasterCache == null) {
+                int tileRasterSize = tileWgs84Manager.getRasterTileSize();
+                tileRasterCache = new TileRasterCache(tileIndices -> makeTileWgs84Raster(tileIndices, tileWgs84Manager), tileRasterSize, tileRasterSize);
+            }
+            return tileRasterCache;
+        }
+    }
+
+    private TileRasterCache getSourceTileRasterCache() {
+        TileRasterCache rasterCache = sourceTileRasterCache;
+        if (rasterCache != null) {
+            return rasterCache;
+        }
+        synchronized (this) {
+            if (sourceTileRasterCache == null) {
+                int tileRasterSize = tileWgs84Manager.getRasterTileSize();
+                sourceTileRasterCache = new TileRasterCache(tileIndices -> makeTileWgs84Raster(tileIndices, tileWgs84Manager), tileRasterSize, tileRasterSize);
+            }
+            return sourceTileRasterCache;
+        }
+    }
+
+    private TileWgs84Raster makeTileWgs84Raster(TileIndices tileIndices, TileWgs84Manager tileWgs84Manager) {
+        TileWgs84Raster tileWgs84Raster = new TileWgs84Raster(tileIndices, tileWgs84Manager);
+        int tileRasterWidth = tileWgs84Manager.getRasterTileSize();
+        int tileRasterHeight = tileWgs84Manager.getRasterTileSize();
+        if (isUpsampledDepth(tileIndices.getL())) {
+            // no new source detail in this depth : upsample the raster tile of the source depth, without sampling the geoTiffs.***
+            TileWgs84Raster sourceRaster = getSourceTileRasterCache().get(tileIndices.getAncestorTileIndices(sourceRasterDepth));
+            tileWgs84Raster.makeElevationsFromSourceRaster(sourceRaster, tileRasterWidth, tileRasterHeight);
+        } else {
             tileWgs84Raster.makeElevations(this, tileRasterWidth, tileRasterHeight);
-            mapIndicesTileRaster.put(tileIndices.getString(), tileWgs84Raster);
         }
         return tileWgs84Raster;
     }
 
-    public void makeAllTileWgs84Raster(TileRange tileRange, TileWgs84Manager tileWgs84Manager) {
-        List<TileIndices> tileIndicesList = tileRange.getTileIndices(null);
-
-        // 1rst, delete from the mapIndicesTileRaster the tiles that are not in the tileIndicesList.***
-        List<String> tileIndicesStringList = new ArrayList<>(mapIndicesTileRaster.keySet());
-        int initialSize = mapIndicesTileRaster.size();
-        int reusedRasterTilesCount = 0;
-        for (String tileIndicesString : tileIndicesStringList) {
-            boolean isExist = false;
-            for (TileIndices tileIndices : tileIndicesList) {
-                if (tileIndicesString.equals(tileIndices.getString())) {
-                    isExist = true;
-                    reusedRasterTilesCount++;
-                    break;
-                }
-            }
+    private boolean isUpsampledDepth(int depth) {
+        return sourceRasterDepth >= 0 && depth > sourceRasterDepth;
+    }
 
-            if (!isExist) {
-                TileWgs84Raster tileWgs84Raster = mapIndicesTileRaster.get(tileIndicesString);
-                tileWgs84Raster.deleteObjects();
-                mapIndicesTileRaster.remove(tileIndicesString);
-            }
+    /**
+     * Sets the depth whose raster tiles are the source of the raster tiles of the deeper depths (see TileWgs84Manager.getSourceRasterDepth).
+     */
+    public void setSourceRasterDepth(int sourceRasterDepth) {
+        if (this.sourceRasterDepth != sourceRasterDepth) {
+            deleteSourceTileRaster();
         }
+        this.sourceRasterDepth = sourceRasterDepth;
+    }
 
-        log.info("ReusedRasterTilesCount = " + reusedRasterTilesCount + " / " + initialSize);
+    /**
+     * Keeps the raster tiles of the source depth after the depth is finished, so the next depth upsamples the cached tiles.
+     * Must be called instead of deleteTileRaster.
+     */
+    public void keepTileRasterAsSource() {
+        if (tileRasterCache == null) {
+            return;
+        }
+        deleteSourceTileRaster();
+        tileRasterCache.awaitPending();
+        sourceTileRasterCache = tileRasterCache;
+        tileRasterCache = null;
+        prefetchedTileRange = null;
+    }
 
-        // now, delete TerrainElevationData's coverage that are not intersecting with the tileRange.***
-        GeographicExtension geoExtensionTotal = null;
-        for (TileIndices tileIndices : tileIndicesList) {
-            String imageryType = tileWgs84Manager.getImaginaryType();
-            boolean originIsLeftUp = tileWgs84Manager.isOriginIsLeftUp();
-            GeographicExtension geoExtension = TileWgs84Utils.getGeographicExtentOfTileLXY(tileIndices.getL(), tileIndices.getX(), tileIndices.getY(), null, imageryType, originIsLeftUp);
-            if (geoExtensionTotal == null) {
-                geoExtensionTotal = new GeographicExtension();
-                geoExtensionTotal.copyFrom(geoExtension);
-            } else {
-                geoExtensionTotal.union(geoExtension);
-            }
+    public TileWgs84Raster getTileWgs84Raster(TileIndices tileIndices, TileWgs84Manager tileWgs84Manager) {
+        return getTileRasterCache().get(tileIndices);
+    }
+
+    public void makeAllTileWgs84Raster(TileRange tileRange, TileWgs84Manager tileWgs84Manager) {
+        TileRasterCache rasterCache = getTileRasterCache();
+
+        // 1rst, the mosaic holds the tiles of the tileRange until releaseTileWgs84Raster, the prefetched tiles are transferred to the mosaic.***
+        int reusedRasterTilesCount = rasterCache.acquireRange(tileRange);
+        releasePrefetchedTileRange();
+
+        int tilesCount = (tileRange.getMaxTileX() - tileRange.getMinTileX() + 1) * (tileRange.getMaxTileY() - tileRange.getMinTileY() + 1);
+        log.info("ReusedRasterTilesCount = {} / {}", reusedRasterTilesCount, tilesCount);
+
+        // the coverages are deleted below, so the background builds must be finished.***
+        rasterCache.awaitPending();
+
+        // the source raster tiles are retained only for the tiles of the range.***
+        if (isUpsampledDepth(tileRange.getTileDepth())) {
+            TileRasterCache sourceRasterCache = getSourceTileRasterCache();
+            sourceRasterCache.awaitPending();
+            sourceRasterCache.retainRange(tileRange.getAncestorTileRange(sourceRasterDepth));
         }
-        if (geoExtensionTotal != null) {
-            this.rootTerrainElevationDataQuadTree.deleteCoverageIfNoIntersectsGeoExtension(geoExtensionTotal);
+
+        // now, delete TerrainElevationData's coverage that are not intersecting with the tileRange.***
+        String imageryType = tileWgs84Manager.getImaginaryType();
+        boolean originIsLeftUp = tileWgs84Manager.isOriginIsLeftUp();
+        GeographicExtension geoExtensionMin = TileWgs84Utils.getGeographicExtentOfTileLXY(tileRange.getTileDepth(), tileRange.getMinTileX(), tileRange.getMinTileY(), null, imageryType, originIsLeftUp);
+        GeographicExtension geoExtensionTotal = TileWgs84Utils.getGeographicExtentOfTileLXY(tileRange.getTileDepth(), tileRange.getMaxTileX(), tileRange.getMaxTileY(), null, imageryType, originIsLeftUp);
+        geoExtensionTotal.union(geoExtensionMin);
+        this.rootTerrainElevationDataQuadTree.deleteCoverageIfNoIntersectsGeoExtension(geoExtensionTotal);
+
+        // build the missing raster tiles in parallel.***
+        rasterCache.makeRange(tileRange);
+    }
+
+    /**
+     * Starts building in background the raster tiles of the next mosaic, while the current mosaic is meshed.
+     */
+    public void prefetchTileWgs84Raster(TileRange nextTileRange) {
+        TileRasterCache rasterCache = getTileRasterCache();
+        // the prefetched tiles are held until the next mosaic acquires them (see makeAllTileWgs84Raster).***
+        rasterCache.acquireRange(nextTileRange);
+        releasePrefetchedTileRange();
+        prefetchedTileRange = nextTileRange;
+        rasterCache.prefetchRange(nextTileRange);
+    }
+
+    /**
+     * The mosaic no longer needs the raster tiles of the tileRange (see makeAllTileWgs84Raster), the tiles not needed by another mosaic are evicted.
+     */
+    public void releaseTileWgs84Raster(TileRange tileRange) {
+        if (tileRasterCache != null) {
+            tileRasterCache.releaseRange(tileRange);
         }
+    }
 
-        for (TileIndices tileIndices : tileIndicesList) {
-            TileWgs84Raster tileWgs84Raster = mapIndicesTileRaster.get(tileIndices.getString());
-            if (tileWgs84Raster == null) {
-                tileWgs84Raster = new TileWgs84Raster(tileIndices, tileWgs84Manager);
-                int tileRasterWidth = tileWgs84Manager.getRasterTileSize();
-                int tileRasterHeight = tileWgs84Manager.getRasterTileSize();
-                tileWgs84Raster.makeElevations(this, tileRasterWidth, tileRasterHeight);
-                mapIndicesTileRaster.put(tileIndices.getString(), tileWgs84Raster);
-            }
+    private void releasePrefetchedTileRange() {
+        if (prefetchedTileRange != null) {
+            tileRasterCache.releaseRange(prefetchedTileRange);
+            prefetchedTileRange = null;
         }
     }
 
     public void deleteTileRaster() {
-        for (TileWgs84Raster tileWgs84Raster : mapIndicesTileRaster.values()) {
-            tileWgs84Raster.deleteObjects();
+        if (tileRasterCache != null) {
+            tileRasterCache.deleteObjects();
+            tileRasterCache = null;
         }
+        prefetchedTileRange = null;
+    }
 
-        mapIndicesTileRaster.clear();
-
+    public void deleteSourceTileRaster() {
+        if (sourceTileRasterCache != null) {
+            sourceTileRasterCache.deleteObjects();
+            sourceTileRasterCache = null;
+        }
     }
 
     public GeographicExtension getRootGeographicExtension() {
@@ -164,6 +252,7 @@ public class TerrainElevationDataManager {
 
     public void deleteObjects() {
         this.deleteTileRaster();
+        this.deleteSourceTileRaster();
         this.deleteCoverage();
         if (myGaiaGeoTiffManager != null) {
             myGaiaGeoTiffManager.deleteObjects();
@@ -180,14 +269,35 @@ public class TerrainElevationDataManager {
         terrainElevationDataArray.clear();
     }
 
+    /**
+     * Returns the count of the samples outside their raster tile since the last call, and resets it.
+     */
+    public long getAndResetRasterMissCount() {
+        return rasterMissCount.sumThenReset();
+    }
+
     public double getElevationBilinearRasterTile(TileIndices tileIndices, TileWgs84Manager tileWgs84Manager, double lonDeg, double latDeg) {
         double resultElevation = 0.0;
         TileWgs84Raster tileWgs84Raster = null;
         tileWgs84Raster = this.getTileWgs84Raster(tileIndices, tileWgs84Manager);
         resultElevation = tileWgs84Raster.getElevationBilinear(lonDeg, latDeg);
+        if (Double.isNaN(resultElevation)) {
+            rasterMissCount.increment();
+        }
         return resultElevation;
     }
 
+    /**
+     * In the update mode, the points outside the update extent keep the elevation of the existent tileset (existentElevation).
+     */
+    public double getElevationBilinearRasterTile(TileIndices tileIndices, TileWgs84Manager tileWgs84Manager, double lonDeg, double latDeg, double existentElevation) {
+        GeographicExtension updateGeographicExtension = tileWgs84Manager.getUpdateGeographicExtension();
+        if (updateGeographicExtension != null && !updateGeographicExtension.intersects(lonDeg, latDeg)) {
+            return existentElevation;
+        }
+        return getElevationBilinearRasterTile(tileIndices, tileWgs84Manager, lonDeg, latDeg);
+    }
+
     public Map<TerrainElevationData, TerrainElevationData> getTerrainElevationDataArray(GeographicExtension geoExtension,
                                                                                         Map<TerrainElevationData, TerrainElevationData> terrainElevDataMap) {
         if (rootTerrainElevationDataQuadTree == null) {
@@ -202,45 +312,171 @@ public class TerrainElevationDataManager {
         return terrainElevDataMap;
     }
 
-    public double getElevation(double lonDeg, double latDeg, List<TerrainElevationData> terrainElevDataArray) {
-        double resultElevation = 0.0;
+    /**
+     * Returns the terrainElevationData list ordered by priority. For RESOLUTION priority, the smaller pixel area (higher resolution) is first,
+     * and the equal areas keep the original order, so the first source with data in a point is the source selected by the priority.
+     */
+    public List<TerrainElevationData> getPrioritySortedTerrainElevationData(List<TerrainElevationData> terrainElevDataArray) {
+        List<TerrainElevationData> sortedArray = new ArrayList<>(terrainElevDataArray);
+        if (globalOptions.getPriorityType().equals(PriorityType.RESOLUTION)) {
+            for (TerrainElevationData terrainElevationData : sortedArray) {
+                if (terrainElevationData.getPriorityPixelArea() < 0.0) {
+                    double pixelArea = putAndGetGridAreaMap(terrainElevationData.getGeotiffFileName(), terrainElevationData.getGeotiffFilePath());
+                    terrainElevationData.setPriorityPixelArea(pixelArea);
+                }
+            }
+            sortedArray.sort(Comparator.comparingDouble(TerrainElevationData::getPriorityPixelArea));
+        }
+        return sortedArray;
+    }
+
+    /**
+     * Selects the terrainElevationData (already sorted by priority) whose latitude range contains latDeg.
+     *
+     * @return the count of selected terrainElevationData in resultRowArray
+     */
+    public int selectRowTerrainElevationData(double latDeg, List<TerrainElevationData> sortedTerrainElevDataArray, TerrainElevationData[] resultRowArray) {
+        int count = 0;
+        for (TerrainElevationData terrainElevationData : sortedTerrainElevDataArray) {
+            GeographicExtension geoExtension = terrainElevationData.getGeographicExtension();
+            if (latDeg >= geoExtension.getMinLatitudeDeg() && latDeg <= geoExtension.getMaxLatitudeDeg()) {
+                resultRowArray[count++] = terrainElevationData;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Calculates the elevations of a regular grid of samples inside geoExtension : sample (col, row) is at
+     * (firstLonDeg + col * deltaLonDeg, firstLatDeg + row * deltaLatDeg), and is written in result[row * columns + col].
+     * The grid is calculated by rows, selecting for each row only the terrainElevationData that contains the row.
+     */
+    public void makeElevationGrid(GeographicExtension geoExtension, int columns, int rows, double firstLonDeg, double firstLatDeg,
+                                  double deltaLonDeg, double deltaLatDeg, float[] result) {
+        makeElevationGrid(geoExtension, columns, rows, firstLonDeg, firstLatDeg, deltaLonDeg, deltaLatDeg, result, null);
+    }
+
+    /**
+     * Same as makeElevationGrid, and if dataMask is not null, the samples with data are set in dataMask (bit row * columns + col).
+     */
+    public void makeElevationGrid(GeographicExtension geoExtension, int columns, int rows, double firstLonDeg, double firstLatDeg,
+                                  double deltaLonDeg, double deltaLatDeg, float[] result, BitSet dataMask) {
+        double[] rowLatDegs = new double[rows];
+        for (int row = 0; row < rows; row++) {
+            rowLatDegs[row] = firstLatDeg + row * deltaLatDeg;
+        }
+        makeElevationGrid(geoExtension, columns, firstLonDeg, deltaLonDeg, rowLatDegs, result, dataMask);
+    }
+
+    /**
+     * Same as makeElevationGrid, with any latitude by row (rowLatDegs[row]), for the grids with non-uniform rows (Web Mercator tiles).
+     */
+    public void makeElevationGrid(GeographicExtension geoExtension, int columns, double firstLonDeg, double deltaLonDeg, double[] rowLatDegs,
+                                  float[] result, BitSet dataMask) {
+        int rows = rowLatDegs.length;
+        // make intersected terrainElevationDataList.***
+        // the grids can be made in parallel, so the list is local.***
+        Map<TerrainElevationData, TerrainElevationData> terrainElevDataMap = new HashMap<>();
+        getTerrainElevationDataArray(geoExtension, terrainElevDataMap);
+        List<TerrainElevationData> sortedTerrainElevDataArray = getPrioritySortedTerrainElevationData(new ArrayList<>(terrainElevDataMap.keySet()));
+
+        TerrainElevationData[] rowTerrainElevDataArray = new TerrainElevationData[sortedTerrainElevDataArray.size()];
+        ElevationRowBuffer rowBuffer = new ElevationRowBuffer();
+        rowBuffer.ensureCapacity(columns);
+        double[] rowElevations = rowBuffer.getElevations();
+        boolean[] rowFilled = rowBuffer.getFilled();
+        for (int row = 0; row < rows; row++) {
+            double latDeg = rowLatDegs[row];
+            int rowTerrainElevDataCount = selectRowTerrainElevationData(latDeg, sortedTerrainElevDataArray, rowTerrainElevDataArray);
+            getElevationRow(latDeg, firstLonDeg, deltaLonDeg, columns, rowTerrainElevDataArray, rowTerrainElevDataCount, rowBuffer);
+            int rowOffset = row * columns;
+            for (int col = 0; col < columns; col++) {
+                result[rowOffset + col] = (float) rowElevations[col];
+            }
+            if (dataMask != null) {
+                for (int col = 0; col < columns; col++) {
+                    if (rowFilled[col]) {
+                        dataMask.set(rowOffset + col);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates the elevations of a raster row : latitude latDeg, longitudes firstLonDeg + col * deltaLonDeg, col in [0, rasterWidth).
+     * The rowTerrainElevDataArray must be sorted by priority (see getPrioritySortedTerrainElevationData) and must contain latDeg.
+     * The results are written in rowBuffer.elevations, and the samples with data are marked in rowBuffer.filled.
+     */
+    public void getElevationRow(double latDeg, double firstLonDeg, double deltaLonDeg, int rasterWidth,
+                                TerrainElevationData[] rowTerrainElevDataArray, int rowTerrainElevDataCount, ElevationRowBuffer rowBuffer) {
+        rowBuffer.ensureCapacity(rasterWidth);
+        double[] elevations = rowBuffer.getElevations();
+        boolean[] filled = rowBuffer.getFilled();
+        Arrays.fill(elevations, 0, rasterWidth, 0.0);
+        Arrays.fill(filled, 0, rasterWidth, false);
 
         if (rootTerrainElevationDataQuadTree == null) {
-            return resultElevation;
+            return;
         }
 
         double noDataValue = globalOptions.getNoDataValue();
-        PriorityType priorityType = globalOptions.getPriorityType();
-
-        intersects[0] = false;
-        double pixelAreaAux = Double.MAX_VALUE;
-        double candidateElevation = 0.0;
-        for (TerrainElevationData terrainElevationData : terrainElevDataArray) {
-            double elevation = terrainElevationData.getElevation(lonDeg, latDeg, intersects);
-            if (!intersects[0]) {
+        boolean isResolutionPriority = globalOptions.getPriorityType().equals(PriorityType.RESOLUTION);
+        double[] values = rowBuffer.getValues();
+        boolean[] valid = rowBuffer.getValid();
+
+        int filledCount = 0;
+        for (int i = 0; i < rowTerrainElevDataCount; i++) {
+            TerrainElevationData terrainElevationData = rowTerrainElevDataArray[i];
+            GeographicExtension geoExtension = terrainElevationData.getGeographicExtension();
+
+            // columns range inside the longitude range of the terrainElevationData.***
+            double minLonDeg = geoExtension.getMinLongitudeDeg();
+            double maxLonDeg = geoExtension.getMaxLongitudeDeg();
+            int startCol = (int) Math.max(0.0, Math.min(rasterWidth, Math.ceil((minLonDeg - firstLonDeg) / deltaLonDeg)));
+            while (startCol > 0 && firstLonDeg + (startCol - 1) * deltaLonDeg >= minLonDeg) {
+                startCol--;
+            }
+            while (startCol < rasterWidth && firstLonDeg + startCol * deltaLonDeg < minLonDeg) {
+                startCol++;
+            }
+            int endCol = (int) Math.max(-1.0, Math.min(rasterWidth - 1, Math.floor((maxLonDeg - firstLonDeg) / deltaLonDeg)));
+            while (endCol < rasterWidth - 1 && firstLonDeg + (endCol + 1) * deltaLonDeg <= maxLonDeg) {
+                endCol++;
+            }
+            while (endCol >= 0 && firstLonDeg + endCol * deltaLonDeg > maxLonDeg) {
+                endCol--;
+            }
+            if (startCol > endCol) {
                 continue;
             }
 
+            terrainElevationData.getElevationRow(latDeg, firstLonDeg, deltaLonDeg, startCol, endCol, rowBuffer);
+
             /* check if the priority is resolution */
-            if (priorityType.equals(PriorityType.RESOLUTION)) {
-
-                double pixelArea = putAndGetGridAreaMap(terrainElevationData.getGeotiffFileName(), terrainElevationData.getGeotiffFilePath());
-                //double pixelArea = putAndGetGridAreaMap(terrainElevationData.getGeotiffFilePath());
-                boolean isHigherResolution = pixelAreaAux > pixelArea; // smaller pixelArea is higher resolution
-                if (isHigherResolution) {
-                    if (noDataValue != 0.0) {
-                        candidateElevation = elevation; // original.***
-                        //candidateElevation = Math.max(candidateElevation, elevation); // new.***
-                        pixelAreaAux = pixelArea;
+            if (isResolutionPriority) {
+                // the array is sorted by resolution, so the first source with data is the higher resolution
+                for (int col = startCol; col <= endCol; col++) {
+                    if (valid[col] && !filled[col]) {
+                        filled[col] = true;
+                        filledCount++;
+                        if (noDataValue != 0.0) {
+                            elevations[col] = values[col];
+                        }
                     }
                 }
+                if (filledCount == rasterWidth) {
+                    break;
+                }
             } else {
-                candidateElevation = Math.max(candidateElevation, elevation);
+                for (int col = startCol; col <= endCol; col++) {
+                    if (valid[col]) {
+                        filled[col] = true;
+                        elevations[col] = Math.max(elevations[col], values[col]);
+                    }
+                }
             }
         }
-
-        resultElevation = candidateElevation;
-        return resultElevation;
     }
 
     private void loadAllGeoTiff(String terrainElevationDataFolderPath, List<File> standardizedGeoTiffFiles) throws FactoryException, TransformException {
@@ -257,7 +493,7 @@ public class TerrainElevationDataManager {
             rootTerrainElevationDataQuadTree = new TerrainElevationDataQuadTree(null);
         }
 
-        GridCoverage2D gridCoverage2D = null;
+        GeoTiffHeader geoTiffHeader = null;
         String geoTiffFileName = null;
         String geoTiffFilePath = null;
 
@@ -285,19 +521,23 @@ public class TerrainElevationDataManager {
 
             TerrainElevationData terrainElevationData = new TerrainElevationData(this);
 
-            gridCoverage2D = myGaiaGeoTiffManager.loadGeoTiffGridCoverage2D(geoTiffFilePath);
+            // only the header of the geoTiff is read (the pixels are read when the elevations are used).***
+            geoTiffHeader = myGaiaGeoTiffManager.getGeoTiffHeader(geoTiffFilePath);
+            if (geoTiffHeader == null) {
+                continue;
+            }
             terrainElevationData.setGeotiffFilePath(geoTiffFilePath);
             terrainElevationData.setGeotiffFileName(geoTiffFileName);
 
-            crsTarget = gridCoverage2D.getCoordinateReferenceSystem2D();
+            GridGeometry2D gridGeometry = geoTiffHeader.getGridGeometry();
+            crsTarget = gridGeometry.getCoordinateReferenceSystem2D();
             crsWgs84 = CRS.decode("EPSG:4326", true);
             targetToWgs = CRS.findMathTransform(crsTarget, crsWgs84);
 
-            GaiaGeoTiffUtils.getGeographicExtension(gridCoverage2D, gf, targetToWgs, terrainElevationData.getGeographicExtension());
-            terrainElevationData.setPixelSizeMeters(GaiaGeoTiffUtils.getPixelSizeMeters(gridCoverage2D));
+            GaiaGeoTiffUtils.getGeographicExtension(gridGeometry, gf, targetToWgs, terrainElevationData.getGeographicExtension());
+            terrainElevationData.setPixelSizeMeters(GaiaGeoTiffUtils.getPixelSizeMeters(gridGeometry));
 
             rootTerrainElevationDataQuadTree.addTerrainElevationData(terrainElevationData);
-            gridCoverage2D.dispose(true);
 
         }
 
@@ -310,7 +550,7 @@ public class TerrainElevationDataManager {
         }
     }
 
-    public Double putAndGetGridAreaMap(String fileName, String path) {
+    public synchronized Double putAndGetGridAreaMap(String fileName, String path) {
         if (gridAreaMap.containsKey(fileName)) {
             return gridAreaMap.get(fileName);
         }
@@ -325,10 +565,11 @@ public class TerrainElevationDataManager {
         if (tempFile.exists()) {
             try {
                 GaiaGeoTiffManager gaiaGeoTiffManager = this.getGaiaGeoTiffManager();
-                GridCoverage2D coverage = gaiaGeoTiffManager.loadGeoTiffGridCoverage2D(tempFile.getAbsolutePath());
-                Vector2d originalArea = GaiaGeoTiffUtils.getPixelSizeMeters(coverage);
-                pixelArea = originalArea.x * originalArea.y;
-                coverage.dispose(true);
+                GeoTiffHeader header = gaiaGeoTiffManager.getGeoTiffHeader(tempFile.getAbsolutePath());
+                if (header != null) {
+                    Vector2d originalArea = GaiaGeoTiffUtils.getPixelSizeMeters(header.getGridGeometry());
+                    pixelArea = originalArea.x * originalArea.y;
+                }
             } catch (FactoryException e) {
                 log.error("[getPixelArea : FactoryException] Error in getPixelArea", e);
             }
@@ -338,6 +579,9 @@ public class TerrainElevationDataManager {
     }
 
     public void deleteGeoTiffManager() {
+        if (tileRasterCache != null) {
+            tileRasterCache.awaitPending();
+        }
         if (myGaiaGeoTiffManager != null) {
             myGaiaGeoTiffManager.deleteObjects();
             myGaiaGeoTiffManager = null;
@@ -52,6 +52,41 @@ public class TileIndices {
         L = dataInputStream.readInt();
     }
 
+    // packed key : L(6 bits) | X(29 bits) | Y(29 bits), X & Y keep the sign to allow the outside neighbors (-1)
+    public static long packKey(int x, int y, int l) {
+        return ((long) (l & 0x3F) << 58) | ((long) (x & 0x1FFFFFFF) << 29) | (long) (y & 0x1FFFFFFF);
+    }
+
+    public static int unpackX(long key) {
+        return (int) (key << 6 >> 35);
+    }
+
+    public static int unpackY(long key) {
+        return (int) (key << 35 >> 35);
+    }
+
+    public static int unpackL(long key) {
+        return (int) (key >>> 58);
+    }
+
+    public long getPackedKey() {
+        return packKey(X, Y, L);
+    }
+
+    public void setFromPackedKey(long key) {
+        set(unpackX(key), unpackY(key), unpackL(key));
+    }
+
+    /**
+     * Returns the tile of the ancestorDepth that contains this tile.
+     */
+    public TileIndices getAncestorTileIndices(int ancestorDepth) {
+        int shift = L - ancestorDepth;
+        TileIndices tileIndices = new TileIndices();
+        tileIndices.set(X >> shift, Y >> shift, ancestorDepth);
+        return tileIndices;
+    }
+
     public boolean isValid() {
 
         return TileWgs84Utils.isValidTileIndices(L, X, Y);
@@ -0,0 +1,279 @@
+package com.terrain.manager;
+
+import com.terrain.geometry.TileRange;
+import com.terrain.geometry.TileWgs84Raster;
+import com.utils.ThreadUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Concurrent cache of the raster tiles of a depth, keyed by the packed tile key (see TileIndices.packKey).
+ * Each raster tile is built once, by the first worker that needs it, and shared by all the workers : a worker only waits for the tiles it needs,
+ * never for the construction of another tile.
+ * The mosaics in flight hold their raster tiles by reference counting (see acquireRange & releaseRange), a raster tile is evicted when no mosaic
+ * needs it. The evicted raster tiles are not deleted, because a worker can still use a raster tile returned by get : they are released by the
+ * garbage collector when no worker references them. The tiles of the next mosaic can be prefetched while the current mosaic is meshed, the prefetch stops at the memory budget.
+ */
+@Slf4j
+public class TileRasterCache {
+    private static final double MEMORY_BUDGET_RATIO = 0.25; // fraction of the max heap used by the raster tiles
+
+    private final Map<Long, RasterEntry> rasterMap = new ConcurrentHashMap<>();
+    private final Function<TileIndices, TileWgs84Raster> rasterBuilder;
+    private final int maxRasterCount;
+    // count of the raster tiles built or being built in the cache, for the memory budget of the prefetch
+    private final AtomicInteger startedCount = new AtomicInteger(0);
+    private ExecutorService executorService = null;
+
+    private static class RasterEntry {
+        private final CompletableFuture<TileWgs84Raster> future = new CompletableFuture<>();
+        // set by the worker that builds the raster tile
+        private final AtomicBoolean started = new AtomicBoolean(false);
+        // count of the mosaics in flight that hold the raster tile, only modified inside the compute functions of the map
+        private int referenceCount = 0;
+    }
+
+    public TileRasterCache(Function<TileIndices, TileWgs84Raster> rasterBuilder, int rasterWidth, int rasterHeight) {
+        this.rasterBuilder = rasterBuilder;
+        long rasterBytes = (long) rasterWidth * rasterHeight * Float.BYTES;
+        long memoryBudget = (long) (Runtime.getRuntime().maxMemory() * MEMORY_BUDGET_RATIO);
+        this.maxRasterCount = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / rasterBytes));
+    }
+
+    /**
+     * Returns the raster tile, waiting if it's being built, or building it in the calling thread if it's not built yet.
+     * The raster tiles outside the acquired ranges are evicted by the next releaseRange (or retainRange), when they are finished.
+     */
+    public TileWgs84Raster get(TileIndices tileIndices) {
+        long key = tileIndices.getPackedKey();
+        RasterEntry entry = rasterMap.get(key);
+        if (entry == null) {
+            entry = rasterMap.computeIfAbsent(key, k -> new RasterEntry());
+        }
+
+        TileWgs84Raster tileWgs84Raster = entry.future.getNow(null);
+        if (tileWgs84Raster != null) {
+            return tileWgs84Raster;
+        }
+        if (start(entry)) {
+            build(tileIndices, entry);
+        }
+        return entry.future.join();
+    }
+
+    public int size() {
+        return rasterMap.size();
+    }
+
+    /**
+     * The mosaic holds the raster tiles of the range until releaseRange. The tiles are not built (see makeRange & prefetchRange).
+     *
+     * @return the count of raster tiles of the range that were already in the cache
+     */
+    public int acquireRange(TileRange tileRange) {
+        List<TileIndices> tileIndicesList = tileRange.getTileIndices(null);
+        AtomicInteger reusedCount = new AtomicInteger(0);
+        for (TileIndices tileIndices : tileIndicesList) {
+            rasterMap.compute(tileIndices.getPackedKey(), (key, entry) -> {
+                if (entry == null) {
+                    entry = new RasterEntry();
+                } else {
+                    reusedCount.incrementAndGet();
+                }
+                entry.referenceCount++;
+                return entry;
+            });
+        }
+        return reusedCount.get();
+    }
+
+    /**
+     * The mosaic no longer needs the raster tiles of the range, the tiles not held by another mosaic are evicted.
+     */
+    public void releaseRange(TileRange tileRange) {
+        List<TileIndices> tileIndicesList = tileRange.getTileIndices(null);
+        List<RasterEntry> evictedEntries = new ArrayList<>();
+        for (TileIndices tileIndices : tileIndicesList) {
+            rasterMap.computeIfPresent(tileIndices.getPackedKey(), (key, entry) -> {
+                entry.referenceCount--;
+                if (entry.referenceCount > 0) {
+                    return entry;
+                }
+                evictedEntries.add(entry);
+                return null;
+            });
+        }
+
+        // the finished raster tiles not held by any mosaic (built by get outside the acquired ranges) are evicted too.***
+        for (Long key : new ArrayList<>(rasterMap.keySet())) {
+            rasterMap.computeIfPresent(key, (k, entry) -> {
+                if (entry.referenceCount > 0 || !entry.future.isDone()) {
+                    return entry;
+                }
+                evictedEntries.add(entry);
+                return null;
+            });
+        }
+
+        for (RasterEntry entry : evictedEntries) {
+            evict(entry);
+        }
+    }
+
+    /**
+     * Builds in parallel the raster tiles of the range that are not built, and waits for them.
+     */
+    public void makeRange(TileRange tileRange) {
+        List<CompletableFuture<TileWgs84Raster>> futures = new ArrayList<>();
+        submitRange(tileRange, Integer.MAX_VALUE, futures);
+        for (CompletableFuture<TileWgs84Raster> future : futures) {
+            try {
+                future.join();
+            } catch (Exception e) {
+                // already logged by build, the tile is built again when it's requested
+            }
+        }
+    }
+
+    /**
+     * Starts building in background the raster tiles of the range that are not built, while the cache is under the memory budget.
+     */
+    public void prefetchRange(TileRange tileRange) {
+        int submittedCount = submitRange(tileRange, maxRasterCount, null);
+        if (submittedCount > 0) {
+            log.debug("Prefetching {} raster tiles.", submittedCount);
+        }
+    }
+
+    private int submitRange(TileRange tileRange, int maxCount, List<CompletableFuture<TileWgs84Raster>> resultFutures) {
+        List<TileIndices> tileIndicesList = tileRange.getTileIndices(null);
+        int submittedCount = 0;
+        for (TileIndices tileIndices : tileIndicesList) {
+            if (startedCount.get() >= maxCount) {
+                break;
+            }
+            RasterEntry entry = rasterMap.computeIfAbsent(tileIndices.getPackedKey(), key -> new RasterEntry());
+            if (resultFutures != null) {
+                resultFutures.add(entry.future);
+            }
+            if (!start(entry)) {
+                continue;
+            }
+            getExecutorService().execute(() -> build(tileIndices, entry));
+            submittedCount++;
+        }
+        return submittedCount;
+    }
+
+    private boolean start(RasterEntry entry) {
+        if (!entry.started.compareAndSet(false, true)) {
+            return false;
+        }
+        startedCount.incrementAndGet();
+        return true;
+    }
+
+    private void evict(RasterEntry entry) {
+        if (entry.started.get()) {
+            startedCount.decrementAndGet();
+        }
+    }
+
+    private void build(TileIndices tileIndices, RasterEntry entry) {
+        try {
+            entry.future.complete(rasterBuilder.apply(tileIndices));
+        } catch (Throwable e) {
+            log.error("Error:", e);
+            // the tile is built again when it's requested.***
+            if (rasterMap.remove(tileIndices.getPackedKey(), entry)) {
+                startedCount.decrementAndGet();
+            }
+            entry.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Waits for all the raster tiles being built.
+     */
+    public void awaitPending() {
+        for (RasterEntry entry : new ArrayList<>(rasterMap.values())) {
+            if (!entry.started.get()) {
+                continue;
+            }
+            try {
+                entry.future.join();
+            } catch (Exception e) {
+                // already logged by build, the tile is built again when it's requested
+            }
+        }
+    }
+
+    /**
+     * Evicts the raster tiles outside the range (O(1) test by key), for the caches not held by reference counting (see TerrainElevationDataManager
+     * source raster tiles). Must be called without pending builds (see awaitPending).
+     *
+     * @return the count of raster tiles retained
+     */
+    public int retainRange(TileRange tileRange) {
+        int retainedCount = 0;
+        for (Long key : new ArrayList<>(rasterMap.keySet())) {
+            if (isInsideRange(key, tileRange)) {
+                retainedCount++;
+                continue;
+            }
+            RasterEntry entry = rasterMap.remove(key);
+            if (entry != null) {
+                evict(entry);
+            }
+        }
+        return retainedCount;
+    }
+
+    private boolean isInsideRange(long key, TileRange tileRange) {
+        if (TileIndices.unpackL(key) != tileRange.getTileDepth()) {
+            return false;
+        }
+        int x = TileIndices.unpackX(key);
+        int y = TileIndices.unpackY(key);
+        return x >= tileRange.getMinTileX() && x <= tileRange.getMaxTileX() && y >= tileRange.getMinTileY() && y <= tileRange.getMaxTileY();
+    }
+
+    /**
+     * Deletes all the raster tiles. Must be called when no worker uses the raster tiles (the depth is finished).
+     */
+    public void clear() {
+        awaitPending();
+        for (RasterEntry entry : rasterMap.values()) {
+            evict(entry);
+            entry.future.thenAccept(TileWgs84Raster::deleteObjects);
+        }
+        rasterMap.clear();
+    }
+
+    public void deleteObjects() {
+        clear();
+        synchronized (this) {
+            if (executorService != null) {
+                executorService.shutdown();
+                executorService = null;
+            }
+        }
+    }
+
+    private synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), ThreadUtils.newDaemonThreadFactory("tile-raster-"));
+        }
+        return executorService;
+    }
+}
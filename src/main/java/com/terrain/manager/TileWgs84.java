@@ -2,9 +2,6 @@ package com.terrain.manager;
 
 import com.terrain.common.*;
 import com.terrain.enums.TerrainHalfEdgeType;
-import com.terrain.io.BigEndianDataInputStream;
-import com.terrain.io.BigEndianDataOutputStream;
-import com.utils.FileUtils;
 import com.utils.TerrainHalfEdgeUtils;
 
 import lombok.Getter;
@@ -56,20 +53,11 @@ public class TileWgs84 {
     }
 
     public void saveFile(TerrainMesh mesh, String filePath) throws IOException {
-        String foldersPath = FileUtils.removeFileNameFromPath(filePath);
-        FileUtils.createAllFoldersIfNoExist(foldersPath);
-        BigEndianDataOutputStream dataOutputStream = new BigEndianDataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)));
-
-        mesh.saveDataOutputStream(dataOutputStream);
-        dataOutputStream.close();
+        mesh.saveFile(filePath);
     }
 
     public void loadFile(String filePath) throws IOException {
-        BigEndianDataInputStream dataInputStream = new BigEndianDataInputStream(new BufferedInputStream(new FileInputStream(filePath)));
-
-        this.mesh = new TerrainMesh();
-        this.mesh.loadDataInputStream(dataInputStream);
-        dataInputStream.close();
+        this.mesh = TerrainMesh.loadFile(filePath);
     }
 
     public void createInitialMesh() throws TransformException, IOException {
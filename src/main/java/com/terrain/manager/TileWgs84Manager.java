@@ -2,14 +2,20 @@ package com.terrain.manager;
 
 import com.terrain.common.GeographicExtension;
 import com.terrain.common.GlobalOptions;
+import com.terrain.common.TerrainMesh;
 import com.terrain.common.TerrainTriangle;
+import com.terrain.enums.MeshEngineType;
+import com.terrain.enums.OutputFormatType;
 import com.terrain.geometry.*;
-import com.twelvemonkeys.io.LittleEndianDataInputStream;
+import com.terrain.io.QuantizedMeshCodec;
+import com.terrain.io.QuantizedMeshTempLoader;
+import com.terrain.io.QuantizedMeshWriter;
+import com.terrain.io.TileTempStore;
 import com.utils.DecimalUtils;
 import com.utils.FileUtils;
 import com.utils.GaiaGeoTiffUtils;
 // 移除自定义StringUtils依赖，使用直接判断
-import com.utils.TerrainMeshUtils;
+import com.utils.ThreadUtils;
 import com.utils.TileWgs84Utils;
 
 import lombok.Getter;
@@ -17,19 +23,25 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.imageio.geotiff.GeoTiffException;
-import org.geotools.referencing.CRS;
 import org.joml.Vector2d;
+import org.joml.Vector2i;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.crs.GeographicCRS;
 import org.opengis.referencing.crs.ProjectedCRS;
 import org.opengis.referencing.operation.TransformException;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Getter
@@ -39,9 +51,15 @@ public class TileWgs84Manager {
     private final static GlobalOptions globalOptions = GlobalOptions.getInstance();
     private final int rasterTileSize = 256;
     private final String imaginaryType = "CRS84";
+    // the resize tasks reserve the memory of their rasters in maxMemory / RESIZE_MEMORY_BUDGET_DIVISOR
+    private static final int RESIZE_MEMORY_BUDGET_DIVISOR = 4;
 
     private final Map<Integer, String> depthGeoTiffFolderPathMap = new HashMap<>();
     private final Map<Integer, Double> depthDesiredPixelSizeXinMetersMap = new HashMap<>();
+    // depths with at least one resized geoTiff, the other depths sample the original geoTiffs (see getSourceRasterDepth)
+    private final Set<Integer> resizedGeoTiffDepths = new HashSet<>();
+    // geoTiffs not resized for each depth (resized file path -> original file path), copied in the resized folder of the depth (see resizeRasters)
+    private final Map<Integer, Map<String, String>> depthOriginalGeoTiffPathsMap = new HashMap<>();
     private final Map<Integer, Double> depthMaxDiffBetweenGeoTiffSampleAndTrianglePlaneMap = new HashMap<>();
     private final List<TileWgs84> tileWgs84List = new ArrayList<>();
 
@@ -63,6 +81,19 @@ public class TileWgs84Manager {
 
     private GaiaGeoTiffManager gaiaGeoTiffManager = new GaiaGeoTiffManager();
 
+    // temp meshes of the tiles, one store file by depth
+    private TileTempStore tileTempStore = null;
+    // encodes & writes the quantized meshes in background
+    private QuantizedMeshWriter quantizedMeshWriter = null;
+    // available tiles of the tileset, added when the tiles are written
+    private TileAvailability tileAvailability = null;
+    // extent of the new rasters in the update mode (null in the other modes)
+    private GeographicExtension updateGeographicExtension = null;
+    // child availability of the metadata extension (null if the metadata extension is not written)
+    private TileMetadataAvailability tileMetadataAvailability = null;
+    // the watermask extension is written (the rasters keep their cells with data)
+    private boolean waterMask = false;
+
     private List<File> standardizedGeoTiffFiles = new ArrayList<>();
 
     public List<File> getStandardizedGeoTiffFiles() {
@@ -131,7 +162,22 @@ public class TileWgs84Manager {
             this.triangleList.clear();
         }
 
+        if (this.quantizedMeshWriter != null) {
+            this.quantizedMeshWriter.close();
+            this.quantizedMeshWriter = null;
+        }
+
+        this.tileAvailability = null;
+        this.updateGeographicExtension = null;
+
+        if (this.tileTempStore != null) {
+            this.tileTempStore.close();
+            this.tileTempStore = null;
+        }
+
         this.depthGeoTiffFolderPathMap.clear();
+        this.resizedGeoTiffDepths.clear();
+        this.depthOriginalGeoTiffPathsMap.clear();
         this.depthDesiredPixelSizeXinMetersMap.clear();
         this.depthMaxDiffBetweenGeoTiffSampleAndTrianglePlaneMap.clear();
         this.maxTriangleSizeForTileDepthList.clear();
@@ -139,160 +185,73 @@ public class TileWgs84Manager {
         this.mapNoUsableGeotiffPaths.clear();
     }
 
-    public void makeTempFilesFromQuantizedMeshes(int depth) {
-        // make temp folder.***
-        String tempPath = globalOptions.getTileTempPath();
-        String depthStr = "L" + depth;
-        String depthTempPath = tempPath + File.separator + depthStr;
-        File depthTempFolder = new File(depthTempPath);
-        if (!depthTempFolder.exists()) {
-            if (depthTempFolder.mkdirs()) {
-                log.debug("Created temp folder: {}", depthTempFolder.getAbsolutePath());
-            }
+    public synchronized TileTempStore getTileTempStore() {
+        if (this.tileTempStore == null) {
+            this.tileTempStore = new TileTempStore(globalOptions.getTileTempPath(), globalOptions.isCompressTemp());
         }
+        return this.tileTempStore;
+    }
 
-        // find quantized mesh files.***
-        String quantizedMeshPath = globalOptions.getOutputPath() + File.separator + depth;
-        File quantizedMeshFolder = new File(quantizedMeshPath);
-        if (!quantizedMeshFolder.exists()) {
-            log.error("Quantized mesh folder does not exist: {}", quantizedMeshPath);
-            return;
+    public synchronized QuantizedMeshWriter getQuantizedMeshWriter() {
+        if (this.quantizedMeshWriter == null) {
+            this.quantizedMeshWriter = new QuantizedMeshWriter();
         }
+        return this.quantizedMeshWriter;
+    }
 
-        int L = depth;
-        int X;
-        int Y;
-
-        TileIndices tileIndices = new TileIndices();
-        QuantizedMeshManager quantizedMeshManager = new QuantizedMeshManager();
-        List<String> quantizedMeshFolderNames = new ArrayList<>();
-        FileUtils.getFolderNames(quantizedMeshPath, quantizedMeshFolderNames);
-
-        for (String quantizedMeshFolderName : quantizedMeshFolderNames) {
-            X = Integer.parseInt(quantizedMeshFolderName);
-
-            String quantizedMeshFolderPath = quantizedMeshPath + File.separator + quantizedMeshFolderName;
-            File quantizedMeshSubFolder = new File(quantizedMeshFolderPath);
-            if (!quantizedMeshSubFolder.exists()) {
-                log.error("Quantized mesh subfolder does not exist: {}", quantizedMeshSubFolder.getAbsolutePath());
-                continue;
-            }
-
-            String tempXFolderName = "X" + quantizedMeshFolderName;
-
-            List<String> quantizedMeshFileNames = new ArrayList<>();
-            FileUtils.getFileNames(quantizedMeshFolderPath, ".terrain", quantizedMeshFileNames);
-            for (String quantizedMeshFileName : quantizedMeshFileNames) {
-                Y = Integer.parseInt(quantizedMeshFileName.substring(0, quantizedMeshFileName.indexOf(".")));
-
-                String quantizedMeshFilePath = quantizedMeshFolderPath + File.separator + quantizedMeshFileName;
-
-                // load the quantized mesh file
-                File quantizedMeshFile = new File(quantizedMeshFilePath);
-                if (!quantizedMeshFile.exists()) {
-                    log.error("Quantized mesh file does not exist: {}", quantizedMeshFilePath);
-                    continue;
-                }
-
-                String tempFileName = "L" + depth + "_" + tempXFolderName + "_Y" + Y + ".til";
-                String tempFilePath = depthTempPath + File.separator + tempXFolderName + File.separator + tempFileName;
-
-                // check if exist temp file
-                File tempFile = new File(tempFilePath);
-                if (tempFile.exists()) {
-                    log.debug("Temp file already exists: {}", tempFilePath);
-                    continue;
-                }
+    public synchronized TileAvailability getTileAvailability() {
+        if (this.tileAvailability == null) {
+            this.tileAvailability = new TileAvailability();
+        }
+        return this.tileAvailability;
+    }
 
-                try {
-                    LittleEndianDataInputStream inputStream = new LittleEndianDataInputStream(new BufferedInputStream(new FileInputStream(quantizedMeshFilePath)));
-                    QuantizedMesh quantizedMesh = new QuantizedMesh();
-                    quantizedMesh.loadDataInputStream(inputStream);
+    /**
+     * Saves the available tiles with the tileset & sets them as the "available" of the layer.json.
+     */
+    private void saveLayerJson() {
+        String outputDirectory = globalOptions.getOutputPath();
+        getTileAvailability().save(outputDirectory);
+        terrainLayer.makeAvailable(getTileAvailability());
+        terrainLayer.saveJsonFile(outputDirectory, "layer.json");
+    }
 
-                    tileIndices.set(X, Y, L);
-                    TileWgs84 tileWgs84 = quantizedMeshManager.getTileWgs84FromQuantizedMesh(quantizedMesh, tileIndices, this);
-                    tileWgs84.saveFile(tileWgs84.getMesh(), tempFilePath);
-                } catch (Exception e) {
-                    log.error("Error loading quantized mesh file: {}", quantizedMeshFilePath, e);
-                }
-            }
+    /**
+     * Returns the tiles range of the depth that covers the geographic extension (the 2 tiles of the world at depth 0).
+     */
+    private TileRange selectTilesRange(int depth, double minLon, double maxLon, double minLat, double maxLat) {
+        TileRange tilesRange = new TileRange();
+        if (depth == 0) {
+            // in this case, the tile is the world. L0X0Y0 & L0X1Y0
+            tilesRange.set(0, 0, 1, 0, 0);
+        } else {
+            TileWgs84Utils.selectTileIndicesArray(depth, minLon, maxLon, minLat, maxLat, tilesRange, originIsLeftUp);
         }
+        return tilesRange;
     }
 
-    private void makeChildrenTempFiles(int depth) {
-        int childrenDepth = depth + 1;
-
-        // make temp folder.***
-        String tempPath = globalOptions.getTileTempPath();
-        String depthStr = "L" + depth;
-        String depthTempPath = tempPath + File.separator + depthStr;
-        File depthTempFolder = new File(depthTempPath);
-        if (!depthTempFolder.exists()) {
+    /**
+     * Makes the child availability of the metadata extension, if the metadata extension is written : the parent tiles are written
+     * before their children, so the availability is the tiles ranges of all the depths of the process (and the existent tiles).
+     */
+    private void makeTileMetadataAvailability(GeographicExtension geographicExtension, int minTileDepth, int maxTileDepth, TileAvailability existentTileAvailability) {
+        int metadataLevels = globalOptions.getMetadataAvailability();
+        if (metadataLevels <= 0) {
+            this.tileMetadataAvailability = null;
             return;
         }
 
-        // make the children temp folder.***
-        String childrenTempPath = tempPath + File.separator + "L" + childrenDepth;
-        File childrenTempFolder = new File(childrenTempPath);
-        if (!childrenTempFolder.exists()) {
-            if (childrenTempFolder.mkdirs()) {
-                log.debug("Created children temp folder: {}", childrenTempFolder.getAbsolutePath());
-            }
+        this.tileMetadataAvailability = new TileMetadataAvailability(metadataLevels);
+        for (int depth = minTileDepth; depth <= maxTileDepth; depth++) {
+            this.tileMetadataAvailability.addTileRange(selectTilesRange(depth, geographicExtension.getMinLongitudeDeg(), geographicExtension.getMaxLongitudeDeg(),
+                    geographicExtension.getMinLatitudeDeg(), geographicExtension.getMaxLatitudeDeg()));
         }
-
-        List<String> xFolders = new ArrayList<>();
-        FileUtils.getFolderNames(depthTempPath, xFolders);
-        for (String xFolderName : xFolders) {
-            int X = Integer.parseInt(xFolderName.substring(1));
-            String xFolderPath = depthTempPath + File.separator + xFolderName;
-            File xFolder = new File(xFolderPath);
-            if (!xFolder.exists()) {
-                log.error("X folder does not exist: {}", xFolderPath);
-                continue;
-            }
-
-            // make children XTemp folder.***
-            String childrenXTempPath = childrenTempPath + File.separator + xFolderName;
-            File childrenXTempFolder = new File(childrenXTempPath);
-            if (!childrenXTempFolder.exists()) {
-                if (childrenTempFolder.mkdirs()) {
-                    log.debug("Created children temp folder: {}", childrenXTempFolder.getAbsolutePath());
-                }
-            }
-
-            // load the TileWgs84 files.***
-            List<String> tileWgs84FileNames = new ArrayList<>();
-            FileUtils.getFileNames(xFolderPath, ".til", tileWgs84FileNames);
-            for (String tileWgs84FileName : tileWgs84FileNames) {
-                List<String> splitStrings = Arrays.asList(tileWgs84FileName.split("_"));
-                String YFileName = splitStrings.get(2);
-                int Y = Integer.parseInt(YFileName.substring(1, YFileName.indexOf(".")));
-                String tileWgs84FilePath = xFolderPath + File.separator + tileWgs84FileName;
-
-                // load the TileWgs84 file
-                File tileWgs84File = new File(tileWgs84FilePath);
-                if (!tileWgs84File.exists()) {
-                    log.error("TileWgs84 file does not exist: {}", tileWgs84FilePath);
-                    continue;
-                }
-
-                // load the TileWgs84
-                try {
-                    TileIndices tileIndices = new TileIndices();
-                    tileIndices.set(X, Y, depth);
-                    TileWgs84 tileWgs84 = loadTileWgs84(tileIndices);
-                    if (tileWgs84 == null) {
-                        log.error("TileWgs84 is null: {}", tileWgs84FilePath);
-                        continue;
-                    }
-
-                    // save the TileWgs84 in the children temp folder.***
-                    TerrainMeshUtils.save4ChildrenMeshes(tileWgs84.getMesh(), this, globalOptions);
-                } catch (Exception e) {
-                    log.error("Error loading TileWgs84 file: {}", tileWgs84FilePath, e);
-                }
-            }
+        if (existentTileAvailability != null) {
+            this.tileMetadataAvailability.addTileAvailability(existentTileAvailability);
         }
+
+        terrainLayer.addExtension(TileMetadataAvailability.EXTENSION_NAME);
+        terrainLayer.setMetadataAvailability(metadataLevels);
     }
 
     private int determineExistentTileSetMaxDepth(String tileSetDirectory) {
@@ -323,14 +282,22 @@ public class TileWgs84Manager {
     }
 
     private boolean existTempFiles(int depth) {
-        String tempPath = globalOptions.getTileTempPath();
-        String depthStr = "L" + depth;
-        String depthTempPath = tempPath + File.separator + depthStr;
-        File depthTempFolder = new File(depthTempPath);
-        return depthTempFolder.exists();
+        try {
+            return getTileTempStore().existsDepth(depth);
+        } catch (IOException e) {
+            log.error("Error:", e);
+            return false;
+        }
     }
 
     public void makeTileMeshes() throws IOException, TransformException, FactoryException {
+        OutputFormatType outputFormatType = globalOptions.getOutputFormatType();
+        if (outputFormatType == OutputFormatType.HEIGHTMAP || outputFormatType == OutputFormatType.TERRAIN_RGB) {
+            // 高程图与 Terrain-RGB 直接由高程网格生成，不进行网格细化
+            makeGridTiles(outputFormatType);
+            return;
+        }
+
         GeographicExtension geographicExtension = this.terrainElevationDataManager.getRootGeographicExtension();
 
         double minLon = geographicExtension.getMinLongitudeDeg();
@@ -349,35 +316,27 @@ public class TileWgs84Manager {
         if (globalOptions.isCalculateNormals()) {
             terrainLayer.addExtension("octvertexnormals");
         }
+        this.waterMask = globalOptions.isWaterMask();
+        if (this.waterMask) {
+            terrainLayer.addExtension(TileWaterMask.EXTENSION_NAME);
+        }
+
+        // the available tiles are added while the tiles are written
+        this.tileAvailability = new TileAvailability();
 
         log.info("----------------------------------------");
         int minTileDepth = globalOptions.getMinimumTileDepth();
         int maxTileDepth = globalOptions.getMaximumTileDepth();
+        makeTileMetadataAvailability(geographicExtension, minTileDepth, maxTileDepth, null);
 
         for (int depth = minTileDepth; depth <= maxTileDepth; depth += 1) {
             long startTime = System.currentTimeMillis();
             //Date startDate = new Date(startTime);
 
-            TileRange tilesRange = new TileRange();
+            TileRange tilesRange = selectTilesRange(depth, minLon, maxLon, minLat, maxLat);
 
-            if (depth == 0) {
-                // in this case, the tile is the world. L0X0Y0 & L0X1Y0
-                tilesRange.setMinTileX(0);
-                tilesRange.setMaxTileX(1);
-                tilesRange.setMinTileY(0);
-                tilesRange.setMaxTileY(0);
-            } else {
-                TileWgs84Utils.selectTileIndicesArray(depth, minLon, maxLon, minLat, maxLat, tilesRange, originIsLeftUp);
-            }
-
-            // Set terrainLayer.available of tileSet json
-            terrainLayer.getAvailable().add(tilesRange);
             this.triangleRefinementMaxIterations = TileWgs84Utils.getRefinementIterations(depth);
-            this.terrainElevationDataManager.deleteObjects();
-            this.terrainElevationDataManager = new TerrainElevationDataManager(); // new
-            this.terrainElevationDataManager.setTileWgs84Manager(this);
-            this.terrainElevationDataManager.setTerrainElevationDataFolderPath(this.depthGeoTiffFolderPathMap.get(depth));
-            this.terrainElevationDataManager.makeTerrainQuadTree(depth);
+            this.prepareTerrainElevationDataManager(depth);
 
             int mosaicSize = globalOptions.getMosaicSize();
             List<TileRange> subDividedTilesRanges = TileWgs84Utils.subDivideTileRange(tilesRange, mosaicSize, mosaicSize, null);
@@ -386,12 +345,27 @@ public class TileWgs84Manager {
             AtomicInteger counter = new AtomicInteger(0);
 
             int total = subDividedTilesRanges.size();
-            for (TileRange subDividedTilesRange : subDividedTilesRanges) {
+            // RTIN 引擎：每个瓦片独立生成网格并直接保存为量化网格，不需要栅格瓦片和临时文件
+            RtinMesher rtinMesher = null;
+            if (globalOptions.getMeshEngineType() == MeshEngineType.RTIN) {
+                rtinMesher = new RtinMesher(rasterTileSize, this);
+            }
+            for (int i = 0; i < total; i++) {
+                TileRange subDividedTilesRange = subDividedTilesRanges.get(i);
                 int progress = counter.incrementAndGet();
+                if (rtinMesher != null) {
+                    log.info("[瓦片][" + depth + "/" + maxTileDepth + "][" + progress + "/" + total + "] 开始进行 RTIN 瓦片处理...");
+                    rtinMesher.makeTileMeshes(subDividedTilesRange);
+                    continue;
+                }
                 log.info("[瓦片][" + depth + "/" + maxTileDepth + "][" + progress + "/" + total + "] 生成所有瓦片的 WGS84 栅格数据...");
 
                 TileRange expandedTilesRange = subDividedTilesRange.expand1();
                 this.terrainElevationDataManager.makeAllTileWgs84Raster(expandedTilesRange, this);
+                // 预取下一个拼接块的栅格瓦片，与当前拼接块的网格处理并行
+                if (i + 1 < total) {
+                    this.terrainElevationDataManager.prefetchTileWgs84Raster(subDividedTilesRanges.get(i + 1).expand1());
+                }
 
                 log.info("[瓦片][" + depth + "/" + maxTileDepth + "][" + progress + "/" + total + "] 开始进行瓦片处理...");
 
@@ -400,11 +374,21 @@ public class TileWgs84Manager {
                 boolean isFirstGeneration = (depth == minTileDepth);
                 tileMatrix.makeMatrixMesh(isFirstGeneration);
                 tileMatrix.deleteObjects();
+                this.terrainElevationDataManager.releaseTileWgs84Raster(expandedTilesRange);
+            }
+            if (rtinMesher != null) {
+                rtinMesher.deleteObjects();
             }
+            // the quantized meshes of this depth must be written before the next depth (continue mode reads them)
+            this.getQuantizedMeshWriter().awaitPending();
+            // saved by depth, so an interrupted process keeps the available tiles of the finished depths
+            this.getTileAvailability().save(globalOptions.getOutputPath());
 
             this.terrainElevationDataManager.deleteGeoTiffManager();
-            this.terrainElevationDataManager.deleteTileRaster();
+            this.deleteTileRasterOfDepth(depth);
             this.terrainElevationDataManager.deleteCoverage();
+            // the temp tiles of this depth are no longer read
+            this.getTileTempStore().closeDepth(depth);
 
             long endTime = System.currentTimeMillis();
             log.info("[瓦片][" + depth + "/" + maxTileDepth + "] - 瓦片网格生成结束 : 耗时: " + DecimalUtils.millisecondToDisplayTime(endTime - startTime));
@@ -422,10 +406,90 @@ public class TileWgs84Manager {
 
             log.info("----------------------------------------");
         }
-        terrainLayer.saveJsonFile(globalOptions.getOutputPath(), "layer.json");
+        saveLayerJson();
+    }
+
+    /**
+     * Makes the grid outputs (heightmap-1.0 or Terrain-RGB) of all the depths from the elevation grids, without mesh refinement.
+     * The heightmap tiles use the geographic tiling of the quantized meshes, the Terrain-RGB tiles use the Web Mercator tiling (zoom = depth).
+     */
+    private void makeGridTiles(OutputFormatType outputFormatType) throws IOException, TransformException, FactoryException {
+        GeographicExtension geographicExtension = this.terrainElevationDataManager.getRootGeographicExtension();
+
+        double minLon = geographicExtension.getMinLongitudeDeg();
+        double maxLon = geographicExtension.getMaxLongitudeDeg();
+        double minLat = geographicExtension.getMinLatitudeDeg();
+        double maxLat = geographicExtension.getMaxLatitudeDeg();
+
+        boolean isHeightmap = outputFormatType == OutputFormatType.HEIGHTMAP;
+        // the water mask is a part of the heightmap tiles
+        this.waterMask = isHeightmap && globalOptions.isWaterMask();
+        this.tileAvailability = new TileAvailability();
+
+        log.info("----------------------------------------");
+        int minTileDepth = globalOptions.getMinimumTileDepth();
+        int maxTileDepth = globalOptions.getMaximumTileDepth();
+        int mosaicSize = globalOptions.getMosaicSize();
+        GridTileMaker gridTileMaker = new GridTileMaker(this);
+        for (int depth = minTileDepth; depth <= maxTileDepth; depth += 1) {
+            long startTime = System.currentTimeMillis();
+
+            this.prepareTerrainElevationDataManager(depth);
+
+            TileRange tilesRange;
+            TileRange childTilesRange = null;
+            if (isHeightmap) {
+                tilesRange = selectTilesRange(depth, minLon, maxLon, minLat, maxLat);
+                if (depth < maxTileDepth) {
+                    childTilesRange = selectTilesRange(depth + 1, minLon, maxLon, minLat, maxLat);
+                }
+            } else {
+                tilesRange = GridTileMaker.selectWebMercatorTilesRange(depth, geographicExtension);
+            }
+
+            List<TileRange> subDividedTilesRanges = TileWgs84Utils.subDivideTileRange(tilesRange, mosaicSize, mosaicSize, null);
+            int total = subDividedTilesRanges.size();
+            log.info("[瓦片][" + depth + "/" + maxTileDepth + "] 开始生成 " + outputFormatType + " 瓦片 - 分割后的瓦片数量: " + total);
+            for (int i = 0; i < total; i++) {
+                TileRange subDividedTilesRange = subDividedTilesRanges.get(i);
+                log.info("[瓦片][" + depth + "/" + maxTileDepth + "][" + (i + 1) + "/" + total + "] 开始进行网格瓦片处理...");
+                if (isHeightmap) {
+                    gridTileMaker.makeHeightmapTiles(subDividedTilesRange, childTilesRange);
+                } else {
+                    gridTileMaker.makeTerrainRgbTiles(subDividedTilesRange, globalOptions.getTerrainRgbTileSize());
+                }
+            }
+
+            this.terrainElevationDataManager.deleteGeoTiffManager();
+            this.deleteTileRasterOfDepth(depth);
+            this.terrainElevationDataManager.deleteCoverage();
+
+            long endTime = System.currentTimeMillis();
+            log.info("[瓦片][" + depth + "/" + maxTileDepth + "] - " + outputFormatType + " 瓦片生成结束 : 耗时: " + DecimalUtils.millisecondToDisplayTime(endTime - startTime));
+            log.info("----------------------------------------");
+        }
+        gridTileMaker.deleteObjects();
+
+        // the Terrain-RGB tiles have no layer.json
+        if (isHeightmap) {
+            terrainLayer = new TerrainLayer();
+            double[] bounds = terrainLayer.getBounds();
+            bounds[0] = minLon;
+            bounds[1] = minLat;
+            bounds[2] = maxLon;
+            bounds[3] = maxLat;
+            terrainLayer.setFormat(GridTileMaker.HEIGHTMAP_FORMAT);
+            saveLayerJson();
+        }
     }
 
     public void makeTileMeshesContinue() throws IOException, TransformException, FactoryException {
+        if (globalOptions.getOutputFormatType() == OutputFormatType.HEIGHTMAP || globalOptions.getOutputFormatType() == OutputFormatType.TERRAIN_RGB) {
+            // the grid outputs are fast, so they are made again instead of continued
+            log.warn("[Continue] The grid outputs are made again from the minimum depth.");
+            makeTileMeshes();
+            return;
+        }
         String outputDirectory = globalOptions.getOutputPath();
         int existentMaxDepth = determineExistentTileSetMaxDepth(outputDirectory);
         log.info("现有最大深度: " + existentMaxDepth);
@@ -448,47 +512,32 @@ public class TileWgs84Manager {
         if (globalOptions.isCalculateNormals()) {
             terrainLayer.addExtension("octvertexnormals");
         }
+        this.waterMask = globalOptions.isWaterMask();
+        if (this.waterMask) {
+            terrainLayer.addExtension(TileWaterMask.EXTENSION_NAME);
+        }
 
         log.info("----------------------------------------");
         int minTileDepth = globalOptions.getMinimumTileDepth();
         int maxTileDepth = globalOptions.getMaximumTileDepth();
 
         minTileDepth = Math.max(minTileDepth, existentMaxDepth + 1);
+        boolean isRtinMeshEngine = globalOptions.getMeshEngineType() == MeshEngineType.RTIN;
 
-        for (int depth = 0; depth < minTileDepth; depth++) {
-            TileRange tilesRange = new TileRange();
-            if (depth == 0) {
-                // in this case, the tile is the world. L0X0Y0 & L0X1Y0
-                tilesRange.setMinTileX(0);
-                tilesRange.setMaxTileX(1);
-                tilesRange.setMinTileY(0);
-                tilesRange.setMaxTileY(0);
-            } else {
-                TileWgs84Utils.selectTileIndicesArray(depth, minLon, maxLon, minLat, maxLat, tilesRange, originIsLeftUp);
-            }
-
-            terrainLayer.getAvailable().add(tilesRange);
-        }
+        // the available tiles of the existent depths are loaded (or scanned for the tilesets without saved availability)
+        this.tileAvailability = TileAvailability.loadOrScan(outputDirectory);
+        makeTileMetadataAvailability(geographicExtension, globalOptions.getMinimumTileDepth(), maxTileDepth, null);
 
         for (int depth = minTileDepth; depth <= maxTileDepth; depth += 1) {
             long startTime = System.currentTimeMillis();
-            TileRange tilesRange = new TileRange();
+            TileRange tilesRange = selectTilesRange(depth, minLon, maxLon, minLat, maxLat);
 
-            if (depth == 0) {
-                tilesRange.setMinTileX(0);
-                tilesRange.setMaxTileX(1);
-                tilesRange.setMinTileY(0);
-                tilesRange.setMaxTileY(0);
-            } else {
-                TileWgs84Utils.selectTileIndicesArray(depth, minLon, maxLon, minLat, maxLat, tilesRange, originIsLeftUp);
+            // the temp meshes of the first depth are made from the quantized meshes of the previous depth, mosaic by mosaic
+            QuantizedMeshTempLoader quantizedMeshTempLoader = null;
+            if (!isRtinMeshEngine && depth > 0 && !existTempFiles(depth)) {
+                quantizedMeshTempLoader = new QuantizedMeshTempLoader(this);
             }
 
-            if (!existTempFiles(depth)) {
-                makeTempFilesFromQuantizedMeshes(depth - 1);
-                makeChildrenTempFiles(depth - 1);
-            }
-
-            terrainLayer.getAvailable().add(tilesRange);
             this.triangleRefinementMaxIterations = TileWgs84Utils.getRefinementIterations(depth);
             this.terrainElevationDataManager.deleteObjects();
             this.terrainElevationDataManager = new TerrainElevationDataManager(); // new
@@ -503,11 +552,34 @@ public class TileWgs84Manager {
             AtomicInteger counter = new AtomicInteger(0);
 
             int total = subDividedTilesRanges.size();
-            for (TileRange subDividedTilesRange : subDividedTilesRanges) {
+            // the RTIN engine makes & saves each tile independently, without raster tiles nor temp files
+            RtinMesher rtinMesher = null;
+            if (isRtinMeshEngine) {
+                rtinMesher = new RtinMesher(rasterTileSize, this);
+            }
+            for (int i = 0; i < total; i++) {
+                TileRange subDividedTilesRange = subDividedTilesRanges.get(i);
                 int progress = counter.incrementAndGet();
-                log.info("[Tile][{}/{}][{}/{}] generate wgs84 raster all tiles...", depth, maxTileDepth, progress, total);
+                if (rtinMesher != null) {
+                    log.info("[Tile][{}/{}][{}/{}] process RTIN tiling...", depth, maxTileDepth, progress, total);
+                    rtinMesher.makeTileMeshes(subDividedTilesRange);
+                    continue;
+                }
                 TileRange expandedTilesRange = subDividedTilesRange.expand1();
+                if (quantizedMeshTempLoader != null) {
+                    log.info("[Tile][{}/{}][{}/{}] load temp tiles from quantized meshes...", depth, maxTileDepth, progress, total);
+                    quantizedMeshTempLoader.makeChildren(expandedTilesRange);
+                    // the temp tiles of the next mosaic are made while the current mosaic is meshed
+                    if (i + 1 < total) {
+                        quantizedMeshTempLoader.prefetchChildren(subDividedTilesRanges.get(i + 1).expand1());
+                    }
+                }
+                log.info("[Tile][{}/{}][{}/{}] generate wgs84 raster all tiles...", depth, maxTileDepth, progress, total);
                 this.terrainElevationDataManager.makeAllTileWgs84Raster(expandedTilesRange, this);
+                // prefetch the raster tiles of the next mosaic while the current mosaic is meshed
+                if (i + 1 < total) {
+                    this.terrainElevationDataManager.prefetchTileWgs84Raster(subDividedTilesRanges.get(i + 1).expand1());
+                }
 
                 log.info("[Tile][{}/{}][{}/{}] process tiling...", depth, maxTileDepth, progress, total);
                 TileMatrix tileMatrix = new TileMatrix(subDividedTilesRange, this);
@@ -515,11 +587,24 @@ public class TileWgs84Manager {
                 boolean isFirstGeneration = (depth == 0);
                 tileMatrix.makeMatrixMesh(isFirstGeneration);
                 tileMatrix.deleteObjects();
+                this.terrainElevationDataManager.releaseTileWgs84Raster(expandedTilesRange);
+            }
+            if (rtinMesher != null) {
+                rtinMesher.deleteObjects();
             }
+            if (quantizedMeshTempLoader != null) {
+                quantizedMeshTempLoader.close();
+            }
+            // the quantized meshes of this depth must be written before the next depth (continue mode reads them)
+            this.getQuantizedMeshWriter().awaitPending();
+            // saved by depth, so an interrupted process keeps the available tiles of the finished depths
+            this.getTileAvailability().save(globalOptions.getOutputPath());
 
             this.terrainElevationDataManager.deleteGeoTiffManager();
             this.terrainElevationDataManager.deleteTileRaster();
             this.terrainElevationDataManager.deleteCoverage();
+            // the temp tiles of this depth are no longer read
+            this.getTileTempStore().closeDepth(depth);
 
             long endTime = System.currentTimeMillis();
             log.info("[Tile][{}/{}] - End making tile meshes : Duration: {}", depth, maxTileDepth, DecimalUtils.millisecondToDisplayTime(endTime - startTime));
@@ -537,7 +622,184 @@ public class TileWgs84Manager {
             log.info("----------------------------------------");
         }
 
-        terrainLayer.saveJsonFile(globalOptions.getOutputPath(), "layer.json");
+        saveLayerJson();
+    }
+
+    /**
+     * Updates the tiles of an existent tileset with new rasters (the input path), without cutting the whole dataset again.
+     * For each depth, only the tiles intersecting the new rasters are regenerated : the start meshes are the existent quantized meshes
+     * of these tiles and of their 1 tile border, so the borders with the not updated tiles are kept (the border tiles are saved again
+     * only with the vertices added to the shared edges). The vertices outside the new rasters keep their existent elevation.
+     */
+    public void makeTileMeshesUpdate() throws IOException, TransformException, FactoryException {
+        if (globalOptions.getOutputFormatType() == OutputFormatType.HEIGHTMAP || globalOptions.getOutputFormatType() == OutputFormatType.TERRAIN_RGB) {
+            log.error("[Update] The update mode only supports the quantized-mesh output.");
+            return;
+        }
+        String outputDirectory = globalOptions.getOutputPath();
+
+        GeographicExtension geographicExtension = this.terrainElevationDataManager.getRootGeographicExtension();
+        this.updateGeographicExtension = new GeographicExtension();
+        this.updateGeographicExtension.copyFrom(geographicExtension);
+
+        double minLon = geographicExtension.getMinLongitudeDeg();
+        double maxLon = geographicExtension.getMaxLongitudeDeg();
+        double minLat = geographicExtension.getMinLatitudeDeg();
+        double maxLat = geographicExtension.getMaxLatitudeDeg();
+        log.info("[Update] Update extent : lon {} ~ {}, lat {} ~ {}", minLon, maxLon, minLat, maxLat);
+
+        if (globalOptions.getMeshEngineType() == MeshEngineType.RTIN) {
+            // the RTIN engine samples the whole tiles, and there are no elevations outside the new rasters
+            log.warn("[Update] The RTIN engine is not used in the update mode, the tiles are updated with the half-edge engine.");
+        }
+
+        // the available tiles of the existent tileset, the updated tiles are added
+        this.tileAvailability = TileAvailability.loadOrScan(outputDirectory);
+
+        // the layer.json of the existent tileset is kept (extensions & metadataAvailability), the options must match it.***
+        TerrainLayer existentTerrainLayer = TerrainLayer.loadJsonFile(outputDirectory, "layer.json");
+        if (existentTerrainLayer != null) {
+            if (existentTerrainLayer.hasExtension("octvertexnormals") != globalOptions.isCalculateNormals()) {
+                log.error("[Update] The normals option ({}) does not match the existent tileset, the update is aborted.", globalOptions.isCalculateNormals());
+                return;
+            }
+            if (existentTerrainLayer.getMetadataAvailability() != Math.max(0, globalOptions.getMetadataAvailability())) {
+                log.error("[Update] The metadata availability option ({}) does not match the existent tileset ({}), the update is aborted.",
+                        globalOptions.getMetadataAvailability(), existentTerrainLayer.getMetadataAvailability());
+                return;
+            }
+            terrainLayer = existentTerrainLayer;
+        } else {
+            log.warn("[Update] The existent tileset has no layer.json, it's made from the options.");
+            terrainLayer = new TerrainLayer();
+            if (globalOptions.isCalculateNormals()) {
+                terrainLayer.addExtension("octvertexnormals");
+            }
+        }
+        // there are no elevations outside the new rasters, so the water mask of the updated tiles can not be made
+        // (the watermask extension of the existent tileset is kept for the not updated tiles)
+        this.waterMask = false;
+        if (globalOptions.isWaterMask()) {
+            log.warn("[Update] The water mask is not written in the update mode.");
+        }
+
+        log.info("----------------------------------------");
+        int minTileDepth = globalOptions.getMinimumTileDepth();
+        int maxTileDepth = globalOptions.getMaximumTileDepth();
+        // the updated tiles & the existent tiles are available
+        makeTileMetadataAvailability(geographicExtension, minTileDepth, maxTileDepth, this.tileAvailability);
+
+        for (int depth = minTileDepth; depth <= maxTileDepth; depth += 1) {
+            long startTime = System.currentTimeMillis();
+            TileRange tilesRange = selectTilesRange(depth, minLon, maxLon, minLat, maxLat);
+
+            this.triangleRefinementMaxIterations = TileWgs84Utils.getRefinementIterations(depth);
+            this.prepareTerrainElevationDataManager(depth);
+
+            // the existent meshes of the updated tiles & of the border tiles are the start meshes.***
+            int loadedCount = loadQuantizedMeshesToTempStore(tilesRange.expand1());
+            log.info("[Update][{}/{}] Existent tiles loaded : {}", depth, maxTileDepth, loadedCount);
+
+            int mosaicSize = globalOptions.getMosaicSize();
+            List<TileRange> subDividedTilesRanges = TileWgs84Utils.subDivideTileRange(tilesRange, mosaicSize, mosaicSize, null);
+
+            log.info("[Update][{}/{}] Start updating tile meshes - Divided Tiles Size: {}", depth, maxTileDepth, subDividedTilesRanges.size());
+            int total = subDividedTilesRanges.size();
+            for (int i = 0; i < total; i++) {
+                TileRange subDividedTilesRange = subDividedTilesRanges.get(i);
+                log.info("[Update][{}/{}][{}/{}] generate wgs84 raster all tiles...", depth, maxTileDepth, i + 1, total);
+                TileRange expandedTilesRange = subDividedTilesRange.expand1();
+                this.terrainElevationDataManager.makeAllTileWgs84Raster(expandedTilesRange, this);
+                if (i + 1 < total) {
+                    this.terrainElevationDataManager.prefetchTileWgs84Raster(subDividedTilesRanges.get(i + 1).expand1());
+                }
+
+                // the updated tiles without existent mesh (new coverage) are created, but not the border tiles.***
+                createMissingTiles(subDividedTilesRange);
+
+                log.info("[Update][{}/{}][{}/{}] process tiling...", depth, maxTileDepth, i + 1, total);
+                TileMatrix tileMatrix = new TileMatrix(subDividedTilesRange, this);
+                tileMatrix.makeMatrixMesh(false);
+                tileMatrix.deleteObjects();
+                this.terrainElevationDataManager.releaseTileWgs84Raster(expandedTilesRange);
+            }
+            this.getQuantizedMeshWriter().awaitPending();
+            this.getTileAvailability().save(outputDirectory);
+
+            this.terrainElevationDataManager.deleteGeoTiffManager();
+            this.deleteTileRasterOfDepth(depth);
+            this.terrainElevationDataManager.deleteCoverage();
+            this.getTileTempStore().closeDepth(depth);
+
+            long endTime = System.currentTimeMillis();
+            log.info("[Update][{}/{}] - End updating tile meshes : Duration: {}", depth, maxTileDepth, DecimalUtils.millisecondToDisplayTime(endTime - startTime));
+            log.info("----------------------------------------");
+        }
+
+        // the bounds & the available tiles of the layer.json are made from the existent & the updated tiles
+        terrainLayer.generateAvailableTiles(outputDirectory);
+        terrainLayer.saveJsonFile(outputDirectory, "layer.json");
+    }
+
+    /**
+     * Puts the existent quantized meshes of the tiles range in the temp store (replacing the temp meshes of these tiles).
+     * If an existent tile can not be loaded, the update is aborted : the tile would be made again from a flat mesh (as a new coverage tile),
+     * and its elevations outside the new rasters would be lost.
+     *
+     * @return the count of loaded tiles
+     */
+    private int loadQuantizedMeshesToTempStore(TileRange tilesRange) throws IOException {
+        TileTempStore tempStore = getTileTempStore();
+        QuantizedMeshManager quantizedMeshManager = new QuantizedMeshManager();
+        int loadedCount = 0;
+        List<String> failedFilePaths = new ArrayList<>();
+        for (int X = tilesRange.getMinTileX(); X <= tilesRange.getMaxTileX(); X++) {
+            for (int Y = tilesRange.getMinTileY(); Y <= tilesRange.getMaxTileY(); Y++) {
+                TileIndices tileIndices = new TileIndices();
+                tileIndices.set(X, Y, tilesRange.getTileDepth());
+                if (!tileIndices.isValid()) {
+                    continue;
+                }
+
+                String quantizedMeshFilePath = getQuantizedMeshTilePath(tileIndices);
+                if (!new File(quantizedMeshFilePath).isFile()) {
+                    continue;
+                }
+
+                try {
+                    QuantizedMesh quantizedMesh = QuantizedMeshCodec.loadFile(Paths.get(quantizedMeshFilePath));
+                    TileWgs84 tileWgs84 = quantizedMeshManager.getTileWgs84FromQuantizedMesh(quantizedMesh, tileIndices, this);
+                    if (tileWgs84 == null) {
+                        log.error("TileWgs84 is null: {}", quantizedMeshFilePath);
+                        failedFilePaths.add(quantizedMeshFilePath);
+                        continue;
+                    }
+                    tempStore.put(tileIndices, tileWgs84.getMesh());
+                    loadedCount++;
+                } catch (Exception e) {
+                    log.error("Error loading quantized mesh file: {}", quantizedMeshFilePath, e);
+                    failedFilePaths.add(quantizedMeshFilePath);
+                }
+            }
+        }
+
+        if (!failedFilePaths.isEmpty()) {
+            throw new IOException("[Update] " + failedFilePaths.size() + " existent tiles can not be loaded, the update is aborted (first : " + failedFilePaths.get(0) + ")");
+        }
+        return loadedCount;
+    }
+
+    private void createMissingTiles(TileRange tilesRange) throws IOException, TransformException {
+        TileTempStore tempStore = getTileTempStore();
+        for (int X = tilesRange.getMinTileX(); X <= tilesRange.getMaxTileX(); X++) {
+            for (int Y = tilesRange.getMinTileY(); Y <= tilesRange.getMaxTileY(); Y++) {
+                TileIndices tileIndices = new TileIndices();
+                tileIndices.set(X, Y, tilesRange.getTileDepth());
+                if (tileIndices.isValid() && !tempStore.exists(tileIndices)) {
+                    loadOrCreateTileWgs84(tileIndices);
+                }
+            }
+        }
     }
 
     public double getMaxTriangleSizeForTileDepth(int depth) {
@@ -558,12 +820,6 @@ public class TileWgs84Manager {
         }
     }
 
-    public String getTilePath(TileIndices tileIndices) {
-        String tileTempDirectory = globalOptions.getTileTempPath();
-        String neighborFilePath = TileWgs84Utils.getTileFilePath(tileIndices.getX(), tileIndices.getY(), tileIndices.getL());
-        return tileTempDirectory + File.separator + neighborFilePath;
-    }
-
     public String getQuantizedMeshTileFolderPath(TileIndices tileIndices) {
         String outputDirectory = globalOptions.getOutputPath();
         String neighborFolderPath = tileIndices.getL() + File.separator + tileIndices.getX();
@@ -584,9 +840,10 @@ public class TileWgs84Manager {
             return null;
         }
 
-        String neighborFullPath = getTilePath(tileIndices);
+        TileTempStore tempStore = getTileTempStore();
         TileWgs84 neighborTile = new TileWgs84(null, this);
-        if (!FileUtils.isFileExists(neighborFullPath)) {
+        TerrainMesh storedMesh = tempStore.get(tileIndices);
+        if (storedMesh == null) {
             log.debug("Creating tile: CREATE - * - CREATE : " + tileIndices.getX() + ", " + tileIndices.getY() + ", " + tileIndices.getL());
             neighborTile.setTileIndices(tileIndices);
             neighborTile.setGeographicExtension(TileWgs84Utils.getGeographicExtentOfTileLXY(tileIndices.getL(), tileIndices.getX(), tileIndices.getY(), null, this.imaginaryType, originIsLeftUp));
@@ -595,12 +852,12 @@ public class TileWgs84Manager {
                 log.error("Error: neighborTile.mesh == null");
             }
 
-            neighborTile.saveFile(neighborTile.getMesh(), neighborFullPath);
+            tempStore.put(tileIndices, neighborTile.getMesh());
         } else {
             // load the Tile
             neighborTile.setTileIndices(tileIndices);
             neighborTile.setGeographicExtension(TileWgs84Utils.getGeographicExtentOfTileLXY(tileIndices.getL(), tileIndices.getX(), tileIndices.getY(), null, imaginaryType, originIsLeftUp));
-            neighborTile.loadFile(neighborFullPath);
+            neighborTile.setMesh(storedMesh);
         }
 
         return neighborTile;
@@ -610,10 +867,9 @@ public class TileWgs84Manager {
         // this function loads or creates a TileWgs84
         // check if exist LDTileFile
 
-        String neighborFullPath = getTilePath(tileIndices);
+        TerrainMesh storedMesh = getTileTempStore().get(tileIndices);
         TileWgs84 neighborTile = null;
-        if (!FileUtils.isFileExists(neighborFullPath)) {
-            //log.error("Error: neighborFullPath is not exist: " + neighborFullPath);
+        if (storedMesh == null) {
             return null;
         } else {
             log.debug("Loading tile: LOAD - * - LOAD : " + tileIndices.getX() + ", " + tileIndices.getY() + ", " + tileIndices.getL());
@@ -621,7 +877,7 @@ public class TileWgs84Manager {
             neighborTile = new TileWgs84(null, this);
             neighborTile.setTileIndices(tileIndices);
             neighborTile.setGeographicExtension(TileWgs84Utils.getGeographicExtentOfTileLXY(tileIndices.getL(), tileIndices.getX(), tileIndices.getY(), null, imaginaryType, originIsLeftUp));
-            neighborTile.loadFile(neighborFullPath);
+            neighborTile.setMesh(storedMesh);
         }
 
         return neighborTile;
@@ -706,17 +962,29 @@ public class TileWgs84Manager {
         // 更新全局选项中的输入路径为临时文件夹的绝对路径
         globalOptions.setInputPath(tempFolder.getAbsolutePath());
 
-        // 遍历 GeoTIFF 文件路径列表 TODO 1111
-        geoTiffFileNames.forEach(geoTiffFileName -> {
-            // 加载原始的 GeoTIFF 文件为 GridCoverage2D 对象
-            GridCoverage2D originalGridCoverage2D = gaiaGeoTiffManager.loadGeoTiffGridCoverage2D(geoTiffFileName);
-            // 创建 RasterStandardizer 对象，用于执行标准化操作
-            RasterStandardizer rasterStandardizer = new RasterStandardizer();
-            // 调用 RasterStandardizer 的 standardize 方法对原始的 GridCoverage2D 对象进行标准化处理，
-            // 并将处理结果存储到临时文件夹中
-            rasterStandardizer.standardize(originalGridCoverage2D, tempFolder);
-//            gaiaGeoTiffManager.deleteObjects();
-        });
+        // 标准化任务共用的线程池，由本次任务创建并在结束时关闭
+        ExecutorService standardizeExecutor = RasterStandardizer.newExecutorService();
+        try {
+            // 遍历 GeoTIFF 文件路径列表
+            geoTiffFileNames.forEach(geoTiffFileName -> {
+                // 读取原始的 GeoTIFF 文件为 GridCoverage2D 对象（不使用缓存，标准化结束时由 standardize 释放）
+                GridCoverage2D originalGridCoverage2D;
+                try {
+                    originalGridCoverage2D = gaiaGeoTiffManager.readGeoTiffGridCoverage2D(geoTiffFileName);
+                } catch (IOException e) {
+                    log.error("Error:", e);
+                    return;
+                }
+                // 创建 RasterStandardizer 对象，用于执行标准化操作
+                RasterStandardizer rasterStandardizer = new RasterStandardizer(standardizeExecutor);
+                // 调用 RasterStandardizer 的 standardize 方法对原始的 GridCoverage2D 对象进行标准化处理，
+                // 分块的裁剪、重投影和写入在线程池中并发执行，并将处理结果存储到临时文件夹中
+                rasterStandardizer.standardize(originalGridCoverage2D, tempFolder);
+            });
+        } finally {
+            // 关闭标准化线程池
+            standardizeExecutor.shutdown();
+        }
     }
 
 
@@ -745,23 +1013,40 @@ public class TileWgs84Manager {
         gaiaGeoTiffManager.deleteObjects();
     }
 
+    /**
+     * Resizes the geoTiffs of the folder (and sub folders) for each depth. The geoTiff files are resized in parallel, and each file
+     * makes its raster pyramid from the finest depth to the coarsest one : each depth is resized from the raster of the finer depth
+     * (successive halving) instead of from the original raster. A file task reserves the memory of its raster in a memory budget.
+     */
     public void resizeRasters(String terrainElevationDataFolderPath, String currentFolderPath) throws IOException, FactoryException {
+        int threadsCount = Runtime.getRuntime().availableProcessors();
+        ExecutorService resizeExecutor = Executors.newFixedThreadPool(threadsCount, ThreadUtils.newDaemonThreadFactory("raster-resize-"));
+        int memoryBudgetMB = (int) Math.max(1L, Runtime.getRuntime().maxMemory() / RESIZE_MEMORY_BUDGET_DIVISOR / (1024 * 1024));
+        Semaphore memoryPermits = new Semaphore(memoryBudgetMB);
+        try {
+            resizeRastersOfFolder(terrainElevationDataFolderPath, currentFolderPath, resizeExecutor, memoryPermits, memoryBudgetMB);
+        } finally {
+            resizeExecutor.shutdown();
+        }
+
+        // the folder of each depth is decided when all the files are resized, so it does not depend on the order of the tasks
+        setDepthGeoTiffFolderPaths();
+
+        System.gc();
+    }
+
+    private void resizeRastersOfFolder(String terrainElevationDataFolderPath, String currentFolderPath, ExecutorService resizeExecutor,
+                                       Semaphore memoryPermits, int memoryBudgetMB) throws IOException, FactoryException {
         // load all geoTiffFiles
         List<String> geoTiffFileNames = new ArrayList<>();
         FileUtils.getFileNames(terrainElevationDataFolderPath, ".tif", geoTiffFileNames);
-        CoordinateReferenceSystem targetCRS = CRS.decode("EPSG:3857");
 
-        if (currentFolderPath == null) {
-            currentFolderPath = "";
-        }
+        String folderPath = currentFolderPath == null ? "" : currentFolderPath;
 
-        // now load all geotiff and make geotiff geoExtension data
         int geoTiffFilesSize = geoTiffFileNames.size();
-        int geoTiffFilesCount = 0;
-
-        // TODO : Multi-threading
+        AtomicInteger geoTiffFilesCount = new AtomicInteger(0);
+        List<Future<?>> futures = new ArrayList<>();
         for (String geoTiffFileName : geoTiffFileNames) {
-            log.info("[Pre][Resize GeoTiff][{}/{}] resizing geoTiff : {} ", ++geoTiffFilesCount, geoTiffFilesSize, geoTiffFileName);
             String geoTiffFilePath = terrainElevationDataFolderPath + File.separator + geoTiffFileName;
 
             // check if the geotiffFileName is no usable
@@ -769,61 +1054,189 @@ public class TileWgs84Manager {
                 continue;
             }
 
-            GridCoverage2D originalGridCoverage2D = gaiaGeoTiffManager.loadGeoTiffGridCoverage2D(geoTiffFilePath);
+            // float samples of the original raster & of the first resized raster
+            Vector2i gridSize = gaiaGeoTiffManager.readGeoTiffGridSize(geoTiffFilePath);
+            long rasterBytes = (long) gridSize.x * gridSize.y * Float.BYTES * 2;
+            int memoryMB = (int) Math.min(memoryBudgetMB, Math.max(1L, rasterBytes / (1024 * 1024)));
+
+            memoryPermits.acquireUninterruptibly(memoryMB);
+            try {
+                futures.add(resizeExecutor.submit(() -> {
+                    try {
+                        log.info("[Pre][Resize GeoTiff][{}/{}] resizing geoTiff : {} ", geoTiffFilesCount.incrementAndGet(), geoTiffFilesSize, geoTiffFileName);
+                        resizeRasterPyramid(geoTiffFilePath, geoTiffFileName, folderPath);
+                        return null;
+                    } finally {
+                        memoryPermits.release(memoryMB);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                memoryPermits.release(memoryMB);
+                throw e;
+            }
+        }
 
-            CoordinateReferenceSystem crsTarget = originalGridCoverage2D.getCoordinateReferenceSystem2D();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Resize interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof FactoryException) {
+                    throw (FactoryException) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+
+        List<String> folderNames = new ArrayList<>();
+        FileUtils.getFolderNames(terrainElevationDataFolderPath, folderNames);
+        for (String folderName : folderNames) {
+            String auxFolderPath = folderPath + File.separator + folderName;
+            String subFolderPath = terrainElevationDataFolderPath + File.separator + folderName;
+            resizeRastersOfFolder(subFolderPath, auxFolderPath, resizeExecutor, memoryPermits, memoryBudgetMB);
+        }
+    }
+
+    private void resizeRasterPyramid(String geoTiffFilePath, String geoTiffFileName, String currentFolderPath) throws IOException, FactoryException {
+        // the coverage is not cached, because the cached coverages can be disposed by other threads
+        GridCoverage2D sourceGridCoverage2D = gaiaGeoTiffManager.readGeoTiffGridCoverage2D(geoTiffFilePath);
+        try {
+            CoordinateReferenceSystem crsTarget = sourceGridCoverage2D.getCoordinateReferenceSystem2D();
             if (!(crsTarget instanceof ProjectedCRS || crsTarget instanceof GeographicCRS)) {
                 log.error("The supplied grid coverage uses an unsupported crs! You are allowed to use only projected and geographic coordinate reference systems");
                 throw new GeoTiffException(null, "The supplied grid coverage uses an unsupported crs! You are allowed to use only projected and geographic coordinate reference systems", null);
             }
 
-            Vector2d pixelSizeMeters = GaiaGeoTiffUtils.getPixelSizeMeters(originalGridCoverage2D);
+            Vector2d pixelSizeMeters = GaiaGeoTiffUtils.getPixelSizeMeters(sourceGridCoverage2D);
 
             int minTileDepth = globalOptions.getMinimumTileDepth();
             int maxTileDepth = globalOptions.getMaximumTileDepth();
-            for (int depth = minTileDepth; depth <= maxTileDepth; depth += 1) {
+            // from the finest depth, so each depth is resized from the raster of the finer depth
+            for (int depth = maxTileDepth; depth >= minTileDepth; depth -= 1) {
                 double desiredPixelSizeXinMeters = this.depthDesiredPixelSizeXinMetersMap.get(depth);
                 double desiredPixelSizeYinMeters = desiredPixelSizeXinMeters;
 
-                if (desiredPixelSizeXinMeters < pixelSizeMeters.x) {
-                    // In this case just assign the originalGeoTiffFolderPath
-                    this.depthGeoTiffFolderPathMap.put(depth, globalOptions.getInputPath());
-                    continue;
-                }
-
                 String depthStr = String.valueOf(depth);
                 String resizedGeoTiffFolderPath = globalOptions.getResizedTiffTempPath() + File.separator + depthStr + File.separator + currentFolderPath;
                 String resizedGeoTiffFilePath = resizedGeoTiffFolderPath + File.separator + geoTiffFileName;
 
-                // check if exist the file
-                if (FileUtils.isFileExists(resizedGeoTiffFilePath)) {
-                    // in this case, just assign the resizedGeoTiffFolderPath
-                    String resizedGeoTiffSETFolderPath_forThisDepth = globalOptions.getResizedTiffTempPath() + File.separator + depthStr;
-                    this.depthGeoTiffFolderPathMap.put(depth, resizedGeoTiffSETFolderPath_forThisDepth);
+                if (desiredPixelSizeXinMeters < pixelSizeMeters.x) {
+                    // In this case the original geoTiff is used (see setDepthGeoTiffFolderPaths)
+                    putDepthOriginalGeoTiff(depth, resizedGeoTiffFilePath, geoTiffFilePath);
                     continue;
                 }
 
-                // in this case, resize the geotiff
-                GridCoverage2D resizedGridCoverage2D = gaiaGeoTiffManager.getResizedCoverage2D(originalGridCoverage2D, desiredPixelSizeXinMeters, desiredPixelSizeYinMeters);
-                FileUtils.createAllFoldersIfNoExist(resizedGeoTiffFolderPath);
-                gaiaGeoTiffManager.saveGridCoverage2D(resizedGridCoverage2D, resizedGeoTiffFilePath);
-                resizedGridCoverage2D.dispose(true);
+                // if the file exists (continue), it's only used as source of the next depth
+                if (!FileUtils.isFileExists(resizedGeoTiffFilePath)) {
+                    GridCoverage2D resizedGridCoverage2D = gaiaGeoTiffManager.getResizedCoverage2D(sourceGridCoverage2D, desiredPixelSizeXinMeters, desiredPixelSizeYinMeters);
+                    FileUtils.createAllFoldersIfNoExist(resizedGeoTiffFolderPath);
+                    gaiaGeoTiffManager.saveGridCoverage2D(resizedGridCoverage2D, resizedGeoTiffFilePath);
+                    resizedGridCoverage2D.dispose(true);
+                }
+
+                synchronized (this.depthGeoTiffFolderPathMap) {
+                    this.resizedGeoTiffDepths.add(depth);
+                }
 
-                String resizedGeoTiffSETFolderPath_forThisDepth = globalOptions.getResizedTiffTempPath() + File.separator + depthStr;
-                this.depthGeoTiffFolderPathMap.put(depth, resizedGeoTiffSETFolderPath_forThisDepth);
+                // the saved raster (materialized, so the next resize does not pull the pixels of the original) is the source of the next depth
+                GridCoverage2D finerGridCoverage2D = gaiaGeoTiffManager.readGeoTiffGridCoverage2D(resizedGeoTiffFilePath);
+                sourceGridCoverage2D.dispose(true);
+                sourceGridCoverage2D = finerGridCoverage2D;
             }
-            originalGridCoverage2D.dispose(true);
+        } finally {
+            sourceGridCoverage2D.dispose(true);
         }
+    }
 
-        List<String> folderNames = new ArrayList<>();
-        FileUtils.getFolderNames(terrainElevationDataFolderPath, folderNames);
-        for (String folderName : folderNames) {
-            String auxFolderPath = currentFolderPath + File.separator + folderName;
-            String folderPath = terrainElevationDataFolderPath + File.separator + folderName;
-            resizeRasters(folderPath, auxFolderPath);
+    /**
+     * Returns the depth whose raster tiles are the source of the raster tiles of the depth. If the depth & its parent depth sample only
+     * the original geoTiffs (the source resolution is exhausted, see resizeRasterPyramid), the depth adds no new source detail, and its
+     * raster tiles are upsampled from the first depth that samples the original geoTiffs. Otherwise, returns the depth.
+     */
+    public int getSourceRasterDepth(int depth) {
+        int sourceRasterDepth = depth;
+        synchronized (this.depthGeoTiffFolderPathMap) {
+            while (sourceRasterDepth > globalOptions.getMinimumTileDepth()
+                    && this.depthGeoTiffFolderPathMap.containsKey(sourceRasterDepth)
+                    && this.depthGeoTiffFolderPathMap.containsKey(sourceRasterDepth - 1)
+                    && !this.resizedGeoTiffDepths.contains(sourceRasterDepth)
+                    && !this.resizedGeoTiffDepths.contains(sourceRasterDepth - 1)) {
+                sourceRasterDepth--;
+            }
         }
+        return sourceRasterDepth;
+    }
 
-        System.gc();
+    /**
+     * Makes the terrainElevationDataManager of the depth. If the depth adds no new source detail, the manager of the previous depth is kept
+     * (same geoTiffs, so the quadTree is not loaded again), and the raster tiles are upsampled from the raster tiles of the source depth.
+     */
+    private void prepareTerrainElevationDataManager(int depth) throws FactoryException, TransformException, IOException {
+        int sourceRasterDepth = this.getSourceRasterDepth(depth);
+        if (sourceRasterDepth < depth && this.terrainElevationDataManager.getSourceRasterDepth() == sourceRasterDepth) {
+            log.info("[Tile][{}] No new source detail, the raster tiles are upsampled from the depth {}.", depth, sourceRasterDepth);
+            return;
+        }
+
+        this.terrainElevationDataManager.deleteObjects();
+        this.terrainElevationDataManager = new TerrainElevationDataManager(); // new
+        this.terrainElevationDataManager.setTileWgs84Manager(this);
+        this.terrainElevationDataManager.setTerrainElevationDataFolderPath(this.depthGeoTiffFolderPathMap.get(depth));
+        this.terrainElevationDataManager.makeTerrainQuadTree(depth);
+        this.terrainElevationDataManager.setSourceRasterDepth(sourceRasterDepth);
+    }
+
+    /**
+     * Deletes the raster tiles at the end of the depth, except if they are the source raster tiles of the next depth.
+     */
+    private void deleteTileRasterOfDepth(int depth) {
+        if (depth < globalOptions.getMaximumTileDepth() && this.getSourceRasterDepth(depth + 1) == depth) {
+            this.terrainElevationDataManager.keepTileRasterAsSource();
+        } else {
+            this.terrainElevationDataManager.deleteTileRaster();
+        }
+    }
+
+    private void putDepthOriginalGeoTiff(int depth, String resizedGeoTiffFilePath, String geoTiffFilePath) {
+        synchronized (this.depthGeoTiffFolderPathMap) {
+            this.depthOriginalGeoTiffPathsMap.computeIfAbsent(depth, k -> new HashMap<>()).put(resizedGeoTiffFilePath, geoTiffFilePath);
+        }
+    }
+
+    /**
+     * Sets the geoTiff folder of each depth, after all the geoTiffs are resized : the resized folder if any geoTiff is resized for the depth,
+     * otherwise the input folder. The geoTiffs not resized for a resized depth are copied in its folder, so the folder has all the geoTiffs.
+     */
+    private void setDepthGeoTiffFolderPaths() throws IOException {
+        for (int depth = globalOptions.getMinimumTileDepth(); depth <= globalOptions.getMaximumTileDepth(); depth++) {
+            Map<String, String> originalGeoTiffPaths = this.depthOriginalGeoTiffPathsMap.getOrDefault(depth, Collections.emptyMap());
+            if (this.resizedGeoTiffDepths.contains(depth)) {
+                for (Map.Entry<String, String> entry : originalGeoTiffPaths.entrySet()) {
+                    String resizedGeoTiffFilePath = entry.getKey();
+                    if (!FileUtils.isFileExists(resizedGeoTiffFilePath)) {
+                        FileUtils.createAllFoldersIfNoExist(FileUtils.removeFileNameFromPath(resizedGeoTiffFilePath));
+                        Files.copy(Paths.get(entry.getValue()), Paths.get(resizedGeoTiffFilePath));
+                    }
+                }
+                putDepthGeoTiffFolderPath(depth, globalOptions.getResizedTiffTempPath() + File.separator + depth);
+            } else if (!originalGeoTiffPaths.isEmpty()) {
+                putDepthGeoTiffFolderPath(depth, globalOptions.getInputPath());
+            }
+        }
+    }
+
+    private void putDepthGeoTiffFolderPath(int depth, String folderPath) {
+        synchronized (this.depthGeoTiffFolderPathMap) {
+            this.depthGeoTiffFolderPathMap.put(depth, folderPath);
+            if (!folderPath.equals(globalOptions.getInputPath())) {
+                this.resizedGeoTiffDepths.add(depth);
+            }
+        }
     }
 
     public boolean originIsLeftUp() {
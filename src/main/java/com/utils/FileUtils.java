@@ -82,7 +82,8 @@ public class FileUtils {
         if (file.exists() && file.isDirectory()) {
             return;
         } else {
-            if (!file.mkdirs()) {
+            // the folder can be created at the same time by other thread
+            if (!file.mkdirs() && !file.isDirectory()) {
                 throw new RuntimeException("Failed to create folder: " + filePath);
             }
         }
@@ -3,6 +3,7 @@ package com.utils;
 import com.terrain.common.GeographicExtension;
 import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
@@ -12,7 +13,6 @@ import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Point;
 import org.opengis.coverage.grid.GridEnvelope;
-import org.opengis.coverage.grid.GridGeometry;
 import org.opengis.geometry.DirectPosition;
 import org.opengis.geometry.Envelope;
 import org.opengis.referencing.FactoryException;
@@ -22,8 +22,12 @@ import org.opengis.referencing.operation.TransformException;
 
 public class GaiaGeoTiffUtils {
     public static Vector2d getLongitudeLatitudeDegree(GridCoverage2D coverage, int coordX, int coordY, GeometryFactory gf, MathTransform targetToWgs) throws TransformException {
+        return getLongitudeLatitudeDegree(coverage.getGridGeometry(), coordX, coordY, gf, targetToWgs);
+    }
+
+    public static Vector2d getLongitudeLatitudeDegree(GridGeometry2D gridGeometry, int coordX, int coordY, GeometryFactory gf, MathTransform targetToWgs) throws TransformException {
         GridCoordinates2D coord = new GridCoordinates2D(coordX, coordY);
-        DirectPosition p = coverage.getGridGeometry().gridToWorld(coord);
+        DirectPosition p = gridGeometry.gridToWorld(coord);
         Point point = gf.createPoint(new Coordinate(p.getOrdinate(0), p.getOrdinate(1)));
         Geometry wgsP = JTS.transform(point, targetToWgs);
         Point centroid = wgsP.getCentroid();
@@ -32,8 +36,12 @@ public class GaiaGeoTiffUtils {
     }
 
     public static boolean isGridCoverage2DWGS84(GridCoverage2D coverage) throws FactoryException {
-        // this function returns true if the coverage is wgs84
-        CoordinateReferenceSystem crsTarget = coverage.getCoordinateReferenceSystem2D();
+        return isGridGeometry2DWGS84(coverage.getGridGeometry());
+    }
+
+    public static boolean isGridGeometry2DWGS84(GridGeometry2D gridGeometry) throws FactoryException {
+        // this function returns true if the grid is wgs84
+        CoordinateReferenceSystem crsTarget = gridGeometry.getCoordinateReferenceSystem2D();
         CoordinateReferenceSystem crsWgs84 = DefaultGeographicCRS.WGS84;
         MathTransform targetToWgs = CRS.findMathTransform(crsTarget, crsWgs84);
         // The original src is wgs84
@@ -42,31 +50,38 @@ public class GaiaGeoTiffUtils {
     }
 
     public static void getEnvelopeSpanInMetersOfGridCoverage2D(GridCoverage2D coverage, double[] resultEnvelopeSpanMeters) throws FactoryException {
-        if (isGridCoverage2DWGS84(coverage)) {
-            Envelope envelope = coverage.getEnvelope();
+        getEnvelopeSpanInMeters(coverage.getGridGeometry(), resultEnvelopeSpanMeters);
+    }
+
+    public static void getEnvelopeSpanInMeters(GridGeometry2D gridGeometry, double[] resultEnvelopeSpanMeters) throws FactoryException {
+        if (isGridGeometry2DWGS84(gridGeometry)) {
+            Envelope envelope = gridGeometry.getEnvelope();
             double minLat = envelope.getMinimum(1);
             double maxLat = envelope.getMaximum(1);
             double midLat = (minLat + maxLat) / 2.0;
             double radius = GlobeUtils.getRadiusAtLatitude(midLat);
             double degToRadFactor = GlobeUtils.DEGREE_TO_RADIAN_FACTOR;
 
-            Envelope envelopeOriginal = coverage.getEnvelope();
+            Envelope envelopeOriginal = gridGeometry.getEnvelope();
             // int degrees
             double envelopeSpanX = envelopeOriginal.getSpan(0);
             double envelopeSpanY = envelopeOriginal.getSpan(1);
             resultEnvelopeSpanMeters[0] = (envelopeSpanX * degToRadFactor) * radius;
             resultEnvelopeSpanMeters[1] = (envelopeSpanY * degToRadFactor) * radius;
         } else {
-            Envelope envelopeOriginal = coverage.getEnvelope();
+            Envelope envelopeOriginal = gridGeometry.getEnvelope();
             resultEnvelopeSpanMeters[0] = envelopeOriginal.getSpan(0);
             resultEnvelopeSpanMeters[1] = envelopeOriginal.getSpan(1);
         }
     }
 
     public static Vector2d getPixelSizeMeters(GridCoverage2D coverage) throws FactoryException {
+        return getPixelSizeMeters(coverage.getGridGeometry());
+    }
+
+    public static Vector2d getPixelSizeMeters(GridGeometry2D gridGeometry) throws FactoryException {
         double[] envelopeSpanInMeters = new double[2];
-        getEnvelopeSpanInMetersOfGridCoverage2D(coverage, envelopeSpanInMeters);
-        GridGeometry gridGeometry = coverage.getGridGeometry();
+        getEnvelopeSpanInMeters(gridGeometry, envelopeSpanInMeters);
         int gridSpanX = gridGeometry.getGridRange().getSpan(0);
         int gridSpanY = gridGeometry.getGridRange().getSpan(1);
         double pixelSizeX = envelopeSpanInMeters[0] / gridSpanX;
@@ -75,9 +90,12 @@ public class GaiaGeoTiffUtils {
     }
 
     public static GeographicExtension getGeographicExtension(GridCoverage2D coverage, GeometryFactory gf, MathTransform targetToWgs, GeographicExtension resultGeoExtension) throws TransformException {
+        return getGeographicExtension(coverage.getGridGeometry(), gf, targetToWgs, resultGeoExtension);
+    }
+
+    public static GeographicExtension getGeographicExtension(GridGeometry2D gridGeometry, GeometryFactory gf, MathTransform targetToWgs, GeographicExtension resultGeoExtension) throws TransformException {
         // get geographic extension
-        GridEnvelope gridRange2D = coverage.getGridGeometry().getGridRange();
-        Envelope envelope = coverage.getEnvelope();
+        Envelope envelope = gridGeometry.getEnvelope();
 
         double minLon = 0.0;
         double minLat = 0.0;
@@ -92,22 +110,21 @@ public class GaiaGeoTiffUtils {
             maxLon = envelope.getMaximum(0);
             maxLat = envelope.getMaximum(1);
         } else {
-            GridGeometry originalGridGeometry = coverage.getGridGeometry();
-
-            int gridSpanX = originalGridGeometry.getGridRange().getSpan(0);
-            int gridSpanY = originalGridGeometry.getGridRange().getSpan(1);
+            GridEnvelope gridRange = gridGeometry.getGridRange();
+            int gridSpanX = gridRange.getSpan(0);
+            int gridSpanY = gridRange.getSpan(1);
 
             // gridLow0, gridLow1
-            Vector2d lonLatLeftUp = GaiaGeoTiffUtils.getLongitudeLatitudeDegree(coverage, 0, gridSpanY - 1, gf, targetToWgs);
+            Vector2d lonLatLeftUp = GaiaGeoTiffUtils.getLongitudeLatitudeDegree(gridGeometry, 0, gridSpanY - 1, gf, targetToWgs);
 
             // gridHigh0, gridHigh1
-            Vector2d lonLatRightDown = GaiaGeoTiffUtils.getLongitudeLatitudeDegree(coverage, gridSpanX - 1, 0, gf, targetToWgs);
+            Vector2d lonLatRightDown = GaiaGeoTiffUtils.getLongitudeLatitudeDegree(gridGeometry, gridSpanX - 1, 0, gf, targetToWgs);
 
             // gridLow0, gridHigh1
-            Vector2d lonLatLeftDown = GaiaGeoTiffUtils.getLongitudeLatitudeDegree(coverage, 0, 0, gf, targetToWgs);
+            Vector2d lonLatLeftDown = GaiaGeoTiffUtils.getLongitudeLatitudeDegree(gridGeometry, 0, 0, gf, targetToWgs);
 
             // gridHigh0, gridLow1
-            Vector2d lonLatRightUp = GaiaGeoTiffUtils.getLongitudeLatitudeDegree(coverage, gridSpanX - 1, gridSpanY - 1, gf, targetToWgs);
+            Vector2d lonLatRightUp = GaiaGeoTiffUtils.getLongitudeLatitudeDegree(gridGeometry, gridSpanX - 1, gridSpanY - 1, gf, targetToWgs);
 
             minLon = Math.min(lonLatLeftUp.x, lonLatRightDown.x);
             minLon = Math.min(minLon, lonLatLeftDown.x);
@@ -82,4 +82,121 @@ public class GeometryUtils {
     public static double cosineBetweenUnitaryVectors(double ax, double ay, double az, double bx, double by, double bz) {
         return ax * bx + ay * by + az * bz;
     }
+
+    /**
+     * 计算一组点的包围球（Ritter 算法）
+     *
+     * <p>用于量化网格瓦片头中的包围球。包围球越紧，客户端的视锥体裁剪越准确，请求的瓦片越少。</p>
+     *
+     * <h4>计算步骤：</h4>
+     * <ol>
+     *   <li>找出 X、Y、Z 三个方向上的最小点与最大点，取距离最远的一对点作为初始直径</li>
+     *   <li>遍历所有点，若点在球外，则扩大球使其恰好包含该点（Ritter 球）</li>
+     *   <li>同时计算以包围盒中心为球心、到最远点距离为半径的球，取两个球中半径较小者</li>
+     * </ol>
+     *
+     * <p><b>性能优化</b>：只遍历基本类型数组两次，不创建任何对象。</p>
+     *
+     * @param positions 点坐标数组（x, y, z 交错存放）
+     * @param count 点的数量
+     * @param result 结果数组，写入球心 x, y, z 与半径（长度至少为 4）
+     */
+    public static void computeBoundingSphere(double[] positions, int count, double[] result) {
+        if (count == 0) {
+            result[0] = 0.0;
+            result[1] = 0.0;
+            result[2] = 0.0;
+            result[3] = 0.0;
+            return;
+        }
+
+        // 各坐标轴方向上的极值点索引
+        int minXIdx = 0, minYIdx = 0, minZIdx = 0;
+        int maxXIdx = 0, maxYIdx = 0, maxZIdx = 0;
+        for (int i = 1; i < count; i++) {
+            int offset = i * 3;
+            if (positions[offset] < positions[minXIdx * 3]) minXIdx = i;
+            if (positions[offset] > positions[maxXIdx * 3]) maxXIdx = i;
+            if (positions[offset + 1] < positions[minYIdx * 3 + 1]) minYIdx = i;
+            if (positions[offset + 1] > positions[maxYIdx * 3 + 1]) maxYIdx = i;
+            if (positions[offset + 2] < positions[minZIdx * 3 + 2]) minZIdx = i;
+            if (positions[offset + 2] > positions[maxZIdx * 3 + 2]) maxZIdx = i;
+        }
+
+        // 取跨度最大的一对极值点作为初始直径
+        int diameterIdx1 = minXIdx;
+        int diameterIdx2 = maxXIdx;
+        double maxSpan = distanceSquared(positions, minXIdx, maxXIdx);
+        double ySpan = distanceSquared(positions, minYIdx, maxYIdx);
+        if (ySpan > maxSpan) {
+            maxSpan = ySpan;
+            diameterIdx1 = minYIdx;
+            diameterIdx2 = maxYIdx;
+        }
+        double zSpan = distanceSquared(positions, minZIdx, maxZIdx);
+        if (zSpan > maxSpan) {
+            maxSpan = zSpan;
+            diameterIdx1 = minZIdx;
+            diameterIdx2 = maxZIdx;
+        }
+
+        double ritterX = (positions[diameterIdx1 * 3] + positions[diameterIdx2 * 3]) * 0.5;
+        double ritterY = (positions[diameterIdx1 * 3 + 1] + positions[diameterIdx2 * 3 + 1]) * 0.5;
+        double ritterZ = (positions[diameterIdx1 * 3 + 2] + positions[diameterIdx2 * 3 + 2]) * 0.5;
+        double ritterRadius = Math.sqrt(maxSpan) * 0.5;
+        double ritterRadiusSquared = ritterRadius * ritterRadius;
+
+        // 包围盒中心
+        double naiveX = (positions[minXIdx * 3] + positions[maxXIdx * 3]) * 0.5;
+        double naiveY = (positions[minYIdx * 3 + 1] + positions[maxYIdx * 3 + 1]) * 0.5;
+        double naiveZ = (positions[minZIdx * 3 + 2] + positions[maxZIdx * 3 + 2]) * 0.5;
+        double naiveRadiusSquared = 0.0;
+
+        for (int i = 0; i < count; i++) {
+            int offset = i * 3;
+            double x = positions[offset];
+            double y = positions[offset + 1];
+            double z = positions[offset + 2];
+
+            double nx = x - naiveX;
+            double ny = y - naiveY;
+            double nz = z - naiveZ;
+            naiveRadiusSquared = Math.max(naiveRadiusSquared, nx * nx + ny * ny + nz * nz);
+
+            double rx = x - ritterX;
+            double ry = y - ritterY;
+            double rz = z - ritterZ;
+            double distanceSquared = rx * rx + ry * ry + rz * rz;
+            if (distanceSquared > ritterRadiusSquared) {
+                // 点在球外，扩大球使其恰好包含该点
+                double distance = Math.sqrt(distanceSquared);
+                ritterRadius = (ritterRadius + distance) * 0.5;
+                ritterRadiusSquared = ritterRadius * ritterRadius;
+                double oldToNew = distance - ritterRadius;
+                ritterX = (ritterRadius * ritterX + oldToNew * x) / distance;
+                ritterY = (ritterRadius * ritterY + oldToNew * y) / distance;
+                ritterZ = (ritterRadius * ritterZ + oldToNew * z) / distance;
+            }
+        }
+
+        double naiveRadius = Math.sqrt(naiveRadiusSquared);
+        if (ritterRadius < naiveRadius) {
+            result[0] = ritterX;
+            result[1] = ritterY;
+            result[2] = ritterZ;
+            result[3] = ritterRadius;
+        } else {
+            result[0] = naiveX;
+            result[1] = naiveY;
+            result[2] = naiveZ;
+            result[3] = naiveRadius;
+        }
+    }
+
+    private static double distanceSquared(double[] positions, int idx1, int idx2) {
+        double dx = positions[idx1 * 3] - positions[idx2 * 3];
+        double dy = positions[idx1 * 3 + 1] - positions[idx2 * 3 + 1];
+        double dz = positions[idx1 * 3 + 2] - positions[idx2 * 3 + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
 }
@@ -30,6 +30,14 @@ public class GlobeUtils {
 
     public static double[] geographicToCartesianWgs84(double longitude, double latitude, double altitude) {
         double[] result = new double[3];
+        geographicToCartesianWgs84(longitude, latitude, altitude, result, 0);
+        return result;
+    }
+
+    /**
+     * Writes the cartesian position of (longitude, latitude, altitude) in result[offset], result[offset + 1], result[offset + 2], without allocations.
+     */
+    public static void geographicToCartesianWgs84(double longitude, double latitude, double altitude, double[] result, int offset) {
         double lonRad = longitude * DEGREE_TO_RADIAN_FACTOR;
         double latRad = latitude * DEGREE_TO_RADIAN_FACTOR;
         double cosLon = Math.cos(lonRad);
@@ -38,10 +46,87 @@ public class GlobeUtils {
         double sinLat = Math.sin(latRad);
         double e2 = FIRST_ECCENTRICITY_SQUARED;
         double v = EQUATORIAL_RADIUS / Math.sqrt(1.0 - e2 * sinLat * sinLat);
-        result[0] = (v + altitude) * cosLat * cosLon;
-        result[1] = (v + altitude) * cosLat * sinLon;
-        result[2] = (v * (1.0 - e2) + altitude) * sinLat;
-        return result;
+        result[offset] = (v + altitude) * cosLat * cosLon;
+        result[offset + 1] = (v + altitude) * cosLat * sinLon;
+        result[offset + 2] = (v * (1.0 - e2) + altitude) * sinLat;
+    }
+
+    /**
+     * Converts count geographic positions (lonDeg, latDeg, height interleaved) to cartesian positions (x, y, z interleaved) in result.
+     */
+    public static void geographicToCartesianWgs84(double[] positions, int count, double[] result) {
+        for (int i = 0; i < count; i++) {
+            int offset = i * 3;
+            geographicToCartesianWgs84(positions[offset], positions[offset + 1], positions[offset + 2], result, offset);
+        }
+    }
+
+    /**
+     * Calculates the horizon occlusion point of count cartesian positions (x, y, z interleaved), in the ellipsoid-scaled space,
+     * on the direction from the ellipsoid center to directionPoint (the bounding sphere center).
+     * All the positions are below the horizon of a viewer when the point is below it, as the quantized-mesh header requires.
+     *
+     * @return false if there is no such point (the positions are spread around the ellipsoid), result is not changed
+     */
+    public static boolean computeHorizonOcclusionPoint(double[] positionsWC, int count, double directionPointX, double directionPointY,
+                                                       double directionPointZ, double[] result) {
+        double oneOverRadiusX = 1.0 / EQUATORIAL_RADIUS;
+        double oneOverRadiusZ = 1.0 / POLAR_RADIUS;
+
+        // direction to the point in the scaled space.***
+        double dirX = directionPointX * oneOverRadiusX;
+        double dirY = directionPointY * oneOverRadiusX;
+        double dirZ = directionPointZ * oneOverRadiusZ;
+        double dirLength = Math.sqrt(dirX * dirX + dirY * dirY + dirZ * dirZ);
+        if (dirLength == 0.0) {
+            return false;
+        }
+        dirX /= dirLength;
+        dirY /= dirLength;
+        dirZ /= dirLength;
+
+        double maxMagnitude = 0.0;
+        for (int i = 0; i < count; i++) {
+            int offset = i * 3;
+            double x = positionsWC[offset] * oneOverRadiusX;
+            double y = positionsWC[offset + 1] * oneOverRadiusX;
+            double z = positionsWC[offset + 2] * oneOverRadiusZ;
+            double magnitudeSquared = x * x + y * y + z * z;
+            double magnitude = Math.sqrt(magnitudeSquared);
+            if (magnitude == 0.0) {
+                continue;
+            }
+            x /= magnitude;
+            y /= magnitude;
+            z /= magnitude;
+
+            // the positions under the ellipsoid are considered on the ellipsoid.***
+            magnitudeSquared = Math.max(1.0, magnitudeSquared);
+            magnitude = Math.max(1.0, magnitude);
+
+            double cosAlpha = x * dirX + y * dirY + z * dirZ;
+            double crossX = y * dirZ - z * dirY;
+            double crossY = z * dirX - x * dirZ;
+            double crossZ = x * dirY - y * dirX;
+            double sinAlpha = Math.sqrt(crossX * crossX + crossY * crossY + crossZ * crossZ);
+            double cosBeta = 1.0 / magnitude;
+            double sinBeta = Math.sqrt(magnitudeSquared - 1.0) * cosBeta;
+
+            double denominator = cosAlpha * cosBeta - sinAlpha * sinBeta;
+            if (denominator <= 0.0) {
+                // the position is beyond 90 degrees of the direction, there is no occlusion point.***
+                return false;
+            }
+            maxMagnitude = Math.max(maxMagnitude, 1.0 / denominator);
+        }
+
+        if (maxMagnitude <= 0.0) {
+            return false;
+        }
+        result[0] = dirX * maxMagnitude;
+        result[1] = dirY * maxMagnitude;
+        result[2] = dirZ * maxMagnitude;
+        return true;
     }
 
     public static Vector3d geographicToCartesianWgs84(Vector3d position) {
@@ -61,4 +61,32 @@ public class OctNormalFactory {
         Vector2f octNormal = encodeOctNormal(normal);
         return new byte[]{(byte) octNormal.x, (byte) octNormal.y};
     }
+
+    /**
+     * Encode the normal at normalOffset of the normals array (x, y, z) into 2 bytes using oct encoding, written at resultOffset.
+     * Same encoding as encodeOctNormalByte, without allocations.
+     */
+    public static void encodeOctNormal(float[] normals, int normalOffset, byte[] result, int resultOffset) {
+        float x = normals[normalOffset];
+        float y = normals[normalOffset + 1];
+        float z = normals[normalOffset + 2];
+
+        float den = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        float u = x / den;
+        float v = y / den;
+
+        // Reflect the folds of the lower hemisphere over the diagonals
+        if (z <= 0) {
+            float foldedU = (float) ((1.0 - Math.abs(v)) * (u >= 0 ? 1 : -1));
+            float foldedV = (float) ((1.0 - Math.abs(u)) * (v >= 0 ? 1 : -1));
+            u = foldedU;
+            v = foldedV;
+        }
+        result[resultOffset] = toShortNormalByte(u);
+        result[resultOffset + 1] = toShortNormalByte(v);
+    }
+
+    private static byte toShortNormalByte(float value) {
+        return (byte) Math.round((clamp(value, -1.0f, 1.0f) * 0.5f + 0.5f) * 255.0f);
+    }
 }
@@ -8,7 +8,6 @@ import com.terrain.manager.TileWgs84Manager;
 import lombok.extern.slf4j.Slf4j;
 import org.joml.Vector3d;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -195,13 +194,8 @@ public class TerrainMeshUtils {
             TileWgs84Utils.clampVerticesInToTile(childMesh, childTileIndices, manager.getImaginaryType(), manager.originIsLeftUp());
 
             // Now, save the mesh.***
-            String tileTempDirectory = globalOptions.getTileTempPath();
-            String childTileFilePath = TileWgs84Utils.getTileFilePath(childTileIndices.getX(), childTileIndices.getY(), childTileIndices.getL());
-            String childTileFullPath = tileTempDirectory + File.separator + childTileFilePath;
-
             try {
-                //log.debug("Saving children tiles... L : " + childTileIndices.getL() + " i : " + j + " / " + childMeshesCount);
-                childMesh.saveFile(childTileFullPath);
+                manager.getTileTempStore().put(childTileIndices, childMesh);
             } catch (IOException e) {
                 log.error("Error:", e);
                 return;
@@ -0,0 +1,22 @@
+package com.utils;
+
+import lombok.experimental.UtilityClass;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@UtilityClass
+public class ThreadUtils {
+
+    /**
+     * Returns a factory of daemon threads named namePrefix + number (from 1), so the pools don't keep the process alive.
+     */
+    public static ThreadFactory newDaemonThreadFactory(String namePrefix) {
+        AtomicInteger threadCount = new AtomicInteger(0);
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}